@@ -25,12 +25,15 @@ import butterknife.ButterKnife;
 import com.backyardbrains.analysis.BYBAnalysisManager;
 import com.backyardbrains.analysis.BYBAnalysisType;
 import com.backyardbrains.audio.AudioService;
+import com.backyardbrains.audio.RecordingsCatalog;
 import com.backyardbrains.events.AnalyzeAudioFileEvent;
 import com.backyardbrains.events.AudioServiceConnectionEvent;
 import com.backyardbrains.events.FindSpikesEvent;
 import com.backyardbrains.events.OpenRecordingsEvent;
 import com.backyardbrains.events.PlayAudioFileEvent;
 import com.backyardbrains.utils.PrefUtils;
+import com.backyardbrains.utils.RecordingUtils;
+import java.io.File;
 import java.util.List;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.NoSubscriberEvent;
@@ -69,6 +72,9 @@ public class BackyardBrainsMain extends AppCompatActivity
     private static final int BYB_RECORD_AUDIO_PERM = 123;
     private static final int BYB_SETTINGS_SCREEN = 125;
 
+    // Name of the file in the app files directory to which recordings catalog is saved
+    private static final String RECORDINGS_INDEX_FILE_NAME = "recordings.idx";
+
     static {
         AppCompatDelegate.setCompatVectorFromResourcesEnabled(true);
     }
@@ -79,6 +85,7 @@ public class BackyardBrainsMain extends AppCompatActivity
     private boolean audioServiceRunning = false;
     protected AudioService audioService;
     protected BYBAnalysisManager analysisManager;
+    protected RecordingsCatalog recordingsCatalog;
 
     //protected BYBSlidingView sliding_drawer;
     private int currentFrag = -1;
@@ -109,12 +116,17 @@ public class BackyardBrainsMain extends AppCompatActivity
         setContentView(R.layout.activity_main);
         ButterKnife.bind(this);
 
+        recordingsCatalog =
+            new RecordingsCatalog(RecordingUtils.BYB_DIRECTORY, new File(getFilesDir(), RECORDINGS_INDEX_FILE_NAME));
+
         setupUI();
     }
 
     @Override protected void onStart() {
         // start the audio service for reads mic data, recording and playing recorded files
         start();
+        // start maintaining recordings catalog in the background
+        recordingsCatalog.start();
         // load settings saved from last session
         loadSettings();
         // registers all broadcast receivers
@@ -469,6 +481,7 @@ public class BackyardBrainsMain extends AppCompatActivity
     private void stop() {
         stopAnalysisManager();
         stopAudioService();
+        recordingsCatalog.stop();
     }
 
     //////////////////////////////////////////////////////////////////////////////
@@ -483,6 +496,10 @@ public class BackyardBrainsMain extends AppCompatActivity
         return analysisManager;
     }
 
+    @Nullable @Override public RecordingsCatalog recordingsCatalog() {
+        return recordingsCatalog;
+    }
+
     /**
      * Starts {@link AudioService}.
      */
@@ -18,7 +18,6 @@ import com.backyardbrains.events.AudioPlaybackStartedEvent;
 import com.backyardbrains.events.AudioPlaybackStoppedEvent;
 import com.backyardbrains.events.AudioServiceConnectionEvent;
 import com.backyardbrains.utils.ApacheCommonsLang3Utils;
-import com.backyardbrains.utils.BYBConstants;
 import com.backyardbrains.utils.ViewUtils;
 import com.backyardbrains.utils.WavUtils;
 import org.greenrobot.eventbus.EventBus;
@@ -103,26 +102,10 @@ public class BackyardBrainsPlaybackScopeFragment extends BaseWaveformFragment {
     }
 
     @Override
-    protected BYBBaseRenderer createRenderer(@NonNull BaseFragment fragment, @NonNull float[] preparedBuffer) {
-        final SeekableWaveformRenderer renderer = new SeekableWaveformRenderer(fragment, preparedBuffer);
+    protected BYBBaseRenderer createRenderer(@NonNull BaseFragment fragment) {
+        final SeekableWaveformRenderer renderer = new SeekableWaveformRenderer(fragment);
         renderer.setCallback(new BYBBaseRenderer.Callback() {
 
-            @Override public void onDraw(final int drawSurfaceWidth, final int drawSurfaceHeight) {
-                // we need to call it on UI thread because renderer is drawing on background thread
-                if (getActivity() != null) {
-                    getActivity().runOnUiThread(new Runnable() {
-                        @Override public void run() {
-                            final float millisecondsInThisWindow = drawSurfaceWidth / 44100.0f * 1000 / 2;
-                            setMilliseconds(millisecondsInThisWindow);
-
-                            float yPerDiv =
-                                (float) drawSurfaceHeight / 4.0f / 24.5f / 1000 * BYBConstants.millivoltScale;
-                            setMillivolts(yPerDiv);
-                        }
-                    });
-                }
-            }
-
             @Override public void onHorizontalDragStart() {
                 startSeek();
             }
@@ -316,6 +299,6 @@ public class BackyardBrainsPlaybackScopeFragment extends BaseWaveformFragment {
 
     // Updates progress time according to progress
     private void updateProgressTime(int progress) {
-        tvProgressTime.setText(WavUtils.formatWavProgress(progress));
+        tvProgressTime.setText(WavUtils.formatWavProgress(progress, getSampleRate()));
     }
 }
@@ -18,7 +18,6 @@ import com.backyardbrains.events.AudioRecordingProgressEvent;
 import com.backyardbrains.events.AudioRecordingStartedEvent;
 import com.backyardbrains.events.AudioRecordingStoppedEvent;
 import com.backyardbrains.events.AudioServiceConnectionEvent;
-import com.backyardbrains.utils.BYBConstants;
 import com.backyardbrains.utils.WavUtils;
 import com.backyardbrains.view.BYBSlidingView;
 import java.util.List;
@@ -91,27 +90,8 @@ public class BackyardBrainsRecordScopeFragment extends BaseWaveformFragment
     }
 
     @Override
-    protected BYBBaseRenderer createRenderer(@NonNull BaseFragment fragment, @NonNull float[] preparedBuffer) {
-        final WaveformRenderer renderer = new WaveformRenderer(fragment, preparedBuffer);
-        renderer.setCallback(new BYBBaseRenderer.CallbackAdapter() {
-
-            @Override public void onDraw(final int drawSurfaceWidth, final int drawSurfaceHeight) {
-                // we need to call it on UI thread because renderer is drawing on background thread
-                if (getActivity() != null) {
-                    getActivity().runOnUiThread(new Runnable() {
-                        @Override public void run() {
-                            final float millisecondsInThisWindow = drawSurfaceWidth / 44100.0f * 1000 / 2;
-                            setMilliseconds(millisecondsInThisWindow);
-
-                            float yPerDiv =
-                                (float) drawSurfaceHeight / 4.0f / 24.5f / 1000 * BYBConstants.millivoltScale;
-                            setMillivolts(yPerDiv);
-                        }
-                    });
-                }
-            }
-        });
-        return renderer;
+    protected BYBBaseRenderer createRenderer(@NonNull BaseFragment fragment) {
+        return new WaveformRenderer(fragment);
     }
 
     @Override protected boolean isBackable() {
@@ -146,7 +126,7 @@ public class BackyardBrainsRecordScopeFragment extends BaseWaveformFragment
     @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
     public void onAudioRecordingProgressEvent(AudioRecordingProgressEvent event) {
         tvStopRecording.setText(String.format(getString(R.string.tap_to_stop_recording),
-            WavUtils.formatWavProgress((int) event.getProgress())));
+            WavUtils.formatWavProgress((int) event.getProgress(), getSampleRate())));
     }
 
     @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
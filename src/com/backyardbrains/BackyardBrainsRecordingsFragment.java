@@ -24,24 +24,31 @@ import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.Unbinder;
 import com.backyardbrains.analysis.BYBAnalysisType;
+import com.backyardbrains.analysis.ExportFormat;
+import com.backyardbrains.audio.RecordingInfo;
+import com.backyardbrains.audio.RecordingsCatalog;
+import com.backyardbrains.audio.WaveformThumbnailLoader;
+import com.backyardbrains.events.AnalysisExportedEvent;
 import com.backyardbrains.events.AnalyzeAudioFileEvent;
 import com.backyardbrains.events.FindSpikesEvent;
 import com.backyardbrains.events.PlayAudioFileEvent;
+import com.backyardbrains.events.RecordingsCatalogChangedEvent;
 import com.backyardbrains.utils.ApacheCommonsLang3Utils;
 import com.backyardbrains.utils.BYBUtils;
 import com.backyardbrains.utils.DateUtils;
 import com.backyardbrains.utils.EventUtils;
+import com.backyardbrains.utils.Formats;
 import com.backyardbrains.utils.RecordingUtils;
 import com.backyardbrains.utils.ViewUtils;
-import com.backyardbrains.utils.WavUtils;
 import com.backyardbrains.view.BybEmptyRecyclerView;
 import com.backyardbrains.view.BybEmptyView;
+import com.backyardbrains.view.WaveformThumbnailView;
 import java.io.File;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
 import pub.devrel.easypermissions.AfterPermissionGranted;
 import pub.devrel.easypermissions.AppSettingsDialog;
 import pub.devrel.easypermissions.EasyPermissions;
@@ -59,6 +66,11 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
     private static final int BYB_SETTINGS_SCREEN = 126;
     private static final int BYB_READ_EXTERNAL_STORAGE_PERM = 127;
 
+    // Name of the directory in the app cache directory that holds waveform thumbnails
+    private static final String THUMBNAILS_DIRECTORY_NAME = "thumbnails";
+    // Suffix of the file to which analysis of a recording is exported, replaces the recording extension
+    private static final String EXPORT_FILE_SUFFIX = "_analysis.csv";
+
     @BindView(R.id.rv_files) BybEmptyRecyclerView rvFiles;
     @BindView(R.id.empty_view) BybEmptyView emptyView;
     @BindView(R.id.btn_privacy_policy) Button btnPrivacyPolicy;
@@ -66,6 +78,7 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
     private Unbinder unbinder;
 
     private FilesAdapter adapter;
+    private WaveformThumbnailLoader thumbnailLoader;
 
     /**
      * Factory for creating a new instance of the fragment.
@@ -106,6 +119,7 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
 
     @Override public void onDestroyView() {
         super.onDestroyView();
+        thumbnailLoader.shutdown();
         unbinder.unbind();
     }
 
@@ -155,21 +169,29 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
     //                           List recordings
     //////////////////////////////////////////////////////////////////////////////
 
-    // Rescans BYB directory and updates the files list.
+    // Shows recordings from the catalog and triggers check of the BYB directory, list is updated if anything changed.
     private void rescanFiles() {
         LOGD(TAG, "RESCAN FILES!!!!!");
 
-        final File[] files = RecordingUtils.BYB_DIRECTORY.listFiles();
-        if (files != null) {
-            if (files.length > 0) {
-                Arrays.sort(files, new Comparator<File>() {
-                    @Override public int compare(File object1, File object2) {
-                        return (int) (object2.lastModified() - object1.lastModified());
-                    }
-                });
-            }
+        final RecordingsCatalog catalog = getRecordingsCatalog();
+        if (catalog != null) {
+            adapter.setRecordings(catalog.getRecordings());
+            catalog.refresh();
+        }
+    }
+
+    @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onRecordingsCatalogChangedEvent(RecordingsCatalogChangedEvent event) {
+        final RecordingsCatalog catalog = getRecordingsCatalog();
+        if (catalog != null) adapter.setRecordings(catalog.getRecordings());
+    }
 
-            adapter.setFiles(files);
+    @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onAnalysisExportedEvent(AnalysisExportedEvent event) {
+        if (event.isSuccess()) {
+            ViewUtils.toast(getContext(), getString(R.string.analysis_exported, event.getFilePath()));
+        } else {
+            ViewUtils.toast(getContext(), getString(R.string.error_message_analysis_export));
         }
     }
 
@@ -183,10 +205,12 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
     }
 
     // Opens dialog with recording details
-    private void fileDetails(File f) {
-        String details = "File name: " + f.getName() + "\n";
-        details += "Full path: \n" + f.getAbsolutePath() + "\n";
-        details += "Duration: " + WavUtils.formatWavLength(f.length());
+    private void fileDetails(RecordingInfo recording) {
+        String details = "File name: " + recording.getName() + "\n";
+        details += "Full path: \n" + recording.getFile().getAbsolutePath() + "\n";
+        details += "Duration: " + Formats.formatTime_m_s(recording.getDuration() / 1000) + "\n";
+        details += "Sample rate: " + recording.getSampleRate() + " Hz, channels: " + recording.getChannelCount();
+        if (recording.getSpikeCount() >= 0) details += "\nSpikes found: " + recording.getSpikeCount();
         BYBUtils.showAlert(getActivity(), "File details", details);
     }
 
@@ -231,19 +255,33 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
         }
     }
 
+    // Exports found spikes and finished analysis of specified audio file to a CSV file next to it
+    private void exportAnalysis(@NonNull File f) {
+        final String name = f.getName().replace(RecordingUtils.getExtension(f), "");
+        final File exportFile = new File(f.getParentFile(), name + EXPORT_FILE_SUFFIX);
+        //noinspection ConstantConditions
+        if (!isFindSpikesDone() || !getAnalysisManager().isCurrentFile(f.getAbsolutePath())) {
+            BYBUtils.showAlert(getActivity(), getString(R.string.find_spikes_not_done_title),
+                getString(R.string.find_spikes_not_done_message));
+        } else if (!getAnalysisManager().exportAnalysis(exportFile, ExportFormat.CSV)) {
+            ViewUtils.toast(getContext(), getString(R.string.error_message_analysis_export));
+        }
+    }
+
     // Initiates sending of the selected recording via email
     private void emailFile(File f) {
         Intent sendIntent = new Intent(Intent.ACTION_SEND);
         sendIntent.putExtra(Intent.EXTRA_SUBJECT, "My BackyardBrains Recording");
         sendIntent.putExtra(Intent.EXTRA_STREAM, Uri.parse("file://" + f.getAbsolutePath()));
-        sendIntent.setType("audio/wav");
+        sendIntent.setType(RecordingUtils.isCompressed(f) ? "application/octet-stream" : "audio/wav");
         startActivity(Intent.createChooser(sendIntent, "Email file"));
     }
 
     // Triggers renaming of the selected file
     private void renameFile(final File f) {
         final EditText e = new EditText(this.getActivity());
-        e.setText(f.getName().replace(".wav", "")); // remove file extension when renaming
+        final String extension = RecordingUtils.getExtension(f);
+        e.setText(f.getName().replace(extension, "")); // remove file extension when renaming
         e.setSelection(e.getText().length());
         new AlertDialog.Builder(this.getActivity()).setTitle("Rename File")
             .setMessage("Please enter the new name for your file.")
@@ -257,13 +295,17 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
                             ViewUtils.toast(getContext(), getString(R.string.error_message_validation_file_name));
                             return;
                         }
-                        final File newFile = new File(f.getParent(), filename + ".wav");
+                        final File newFile = new File(f.getParent(), filename + extension);
                         // validate if file with specified name already exists
                         if (!newFile.exists()) {
                             // rename the file
                             if (!f.renameTo(newFile)) {
                                 ViewUtils.toast(getContext(), getString(R.string.error_message_files_rename));
                                 EventUtils.logCustom("Renaming file " + f.getPath() + " failed", null);
+                            } else {
+                                // spikes found in the recording follow it, if renaming fails they're found again
+                                //noinspection ResultOfMethodCallIgnored
+                                RecordingUtils.getSpikesFile(f).renameTo(RecordingUtils.getSpikesFile(newFile));
                             }
                         } else {
                             ViewUtils.toast(getContext(), getString(R.string.error_message_files_exists));
@@ -293,6 +335,9 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
                         if (!f.delete()) {
                             ViewUtils.toast(getContext(), getString(R.string.error_message_files_delete));
                             EventUtils.logCustom("Deleting file " + f.getPath() + " failed", null);
+                        } else {
+                            //noinspection ResultOfMethodCallIgnored
+                            RecordingUtils.getSpikesFile(f).delete();
                         }
                     } else {
                         ViewUtils.toast(getContext(), getString(R.string.error_message_files_no_file));
@@ -313,9 +358,11 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
 
         ((BackyardBrainsMain) getActivity()).showButtons(true);
 
-        adapter = new FilesAdapter(getContext(), null, new FilesAdapter.Callback() {
-            @Override public void onClick(@NonNull File file) {
-                showRecordingOptions(file);
+        thumbnailLoader =
+            new WaveformThumbnailLoader(new File(getContext().getCacheDir(), THUMBNAILS_DIRECTORY_NAME));
+        adapter = new FilesAdapter(getContext(), null, thumbnailLoader, new FilesAdapter.Callback() {
+            @Override public void onClick(@NonNull RecordingInfo recording) {
+                showRecordingOptions(recording);
             }
         });
         rvFiles.setAdapter(adapter);
@@ -345,7 +392,8 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
 
     // Opens available options for a selected recording. Options are different depending on whether spikes have already
     // been found or not.
-    void showRecordingOptions(@NonNull final File file) {
+    void showRecordingOptions(@NonNull final RecordingInfo recording) {
+        final File file = recording.getFile();
         //noinspection ConstantConditions
         final boolean canAnalyze = isFindSpikesDone() && getAnalysisManager().isCurrentFile(file.getAbsolutePath());
         new AlertDialog.Builder(this.getActivity()).setTitle("Choose an action")
@@ -356,7 +404,7 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
                     @Override public void onClick(DialogInterface dialog, int which) {
                         switch (which) {
                             case 0:
-                                fileDetails(file);
+                                fileDetails(recording);
                                 break;
                             case 1:
                                 playAudioFile(file);
@@ -389,12 +437,15 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
                                 averageSpike(file);
                                 break;
                             case 7:
-                                emailFile(file);
+                                exportAnalysis(file);
                                 break;
                             case 8:
-                                renameFile(file);
+                                emailFile(file);
                                 break;
                             case 9:
+                                renameFile(file);
+                                break;
+                            case 10:
                                 deleteFile(file);
                                 break;
                         }
@@ -405,70 +456,124 @@ public class BackyardBrainsRecordingsFragment extends BaseFragment implements Ea
     }
 
     /**
-     * Adapter for listing all the previously recorded files.
+     * Adapter for listing all the previously recorded files. Recordings are taken from the catalog snapshot, so
+     * binding them doesn't touch the files. Waveform thumbnails are loaded only while rows are attached, and loading
+     * is canceled once row scrolls away.
      */
     static class FilesAdapter extends RecyclerView.Adapter<FilesAdapter.FileViewHolder> {
 
         private final LayoutInflater inflater;
+        private final WaveformThumbnailLoader thumbnailLoader;
         private final Callback callback;
 
-        private List<File> files;
+        private List<RecordingInfo> recordings;
 
         interface Callback {
-            void onClick(@NonNull File file);
+            void onClick(@NonNull RecordingInfo recording);
         }
 
-        FilesAdapter(@NonNull Context context, @Nullable File[] files, @Nullable Callback callback) {
+        FilesAdapter(@NonNull Context context, @Nullable List<RecordingInfo> recordings,
+            @NonNull WaveformThumbnailLoader thumbnailLoader, @Nullable Callback callback) {
             super();
 
             this.inflater = LayoutInflater.from(context);
+            this.thumbnailLoader = thumbnailLoader;
             this.callback = callback;
-
-            if (files != null) this.files = Arrays.asList(files);
+            this.recordings = recordings;
         }
 
-        void setFiles(@NonNull File[] files) {
-            this.files = Arrays.asList(files);
+        void setRecordings(@NonNull List<RecordingInfo> recordings) {
+            // catalog publishes new snapshot every time it changes
+            if (this.recordings == recordings) return;
+
+            this.recordings = recordings;
             notifyDataSetChanged();
         }
 
         @Override public FileViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-            return new FileViewHolder(inflater.inflate(R.layout.item_recording, parent, false), callback);
+            return new FileViewHolder(inflater.inflate(R.layout.item_recording, parent, false), thumbnailLoader,
+                callback);
         }
 
         @Override public void onBindViewHolder(FileViewHolder holder, int position) {
-            holder.setFile(files.get(position));
+            holder.setRecording(recordings.get(position));
+        }
+
+        @Override public void onViewAttachedToWindow(FileViewHolder holder) {
+            holder.loadThumbnail();
+        }
+
+        @Override public void onViewDetachedFromWindow(FileViewHolder holder) {
+            holder.cancelThumbnail();
         }
 
         @Override public int getItemCount() {
-            return files != null ? files.size() : 0;
+            return recordings != null ? recordings.size() : 0;
         }
 
-        static class FileViewHolder extends RecyclerView.ViewHolder {
+        static class FileViewHolder extends RecyclerView.ViewHolder
+            implements WaveformThumbnailLoader.Callback {
             @BindView(R.id.tv_file_name) TextView tvFileName;
             @BindView(R.id.tv_file_size) TextView tvFileSize;
             @BindView(R.id.tv_file_last_modified) TextView tvFileLasModified;
+            @BindView(R.id.v_waveform_thumbnail) WaveformThumbnailView vWaveformThumbnail;
+
+            final WaveformThumbnailLoader thumbnailLoader;
 
-            File file;
+            RecordingInfo recording;
+            boolean thumbnailLoaded;
+            WaveformThumbnailLoader.Request thumbnailRequest;
 
-            FileViewHolder(View view, final Callback callback) {
+            FileViewHolder(View view, @NonNull WaveformThumbnailLoader thumbnailLoader, final Callback callback) {
                 super(view);
                 ButterKnife.bind(this, view);
 
+                this.thumbnailLoader = thumbnailLoader;
+
                 view.setOnClickListener(new View.OnClickListener() {
                     @Override public void onClick(View v) {
-                        if (callback != null) callback.onClick(file);
+                        if (callback != null) callback.onClick(recording);
                     }
                 });
             }
 
-            void setFile(@NonNull File file) {
-                this.file = file;
-                LOGD(TAG, "Binding file " + file.getName());
+            void setRecording(@NonNull RecordingInfo recording) {
+                this.recording = recording;
+                LOGD(TAG, "Binding file " + recording.getName());
+
+                tvFileName.setText(recording.getName());
+                tvFileSize.setText(Formats.formatTime_m_s(recording.getDuration() / 1000));
+                tvFileLasModified.setText(
+                    DateUtils.format_MMM_d_yyyy_HH_mm_a(new Date(recording.getLastModified())));
 
-                tvFileName.setText(file.getName());
-                tvFileSize.setText(WavUtils.formatWavLength(file.length()));
-                tvFileLasModified.setText(DateUtils.format_MMM_d_yyyy_HH_mm_a(new Date(file.lastModified())));
+                // thumbnail is loaded once row is attached, unless it's already in memory
+                cancelThumbnail();
+                final short[] thumbnail = thumbnailLoader.getCached(recording);
+                vWaveformThumbnail.setThumbnail(thumbnail);
+                thumbnailLoaded = thumbnail != null;
+            }
+
+            @Override public void onThumbnailLoaded(@NonNull RecordingInfo recording, @NonNull short[] thumbnail) {
+                thumbnailRequest = null;
+                if (this.recording != recording) return;
+
+                vWaveformThumbnail.setThumbnail(thumbnail);
+                thumbnailLoaded = true;
+            }
+
+            // Starts loading thumbnail of the bound recording if it's not already loaded or being loaded
+            void loadThumbnail() {
+                if (recording != null && !thumbnailLoaded && thumbnailRequest == null) {
+                    thumbnailRequest = thumbnailLoader.load(recording, this);
+                }
+            }
+
+            // Cancels loading of the thumbnail if it's being loaded
+            void cancelThumbnail() {
+                if (thumbnailRequest != null) {
+                    thumbnailRequest.cancel();
+                    thumbnailRequest = null;
+                }
             }
         }
     }
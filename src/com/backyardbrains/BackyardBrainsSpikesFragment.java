@@ -15,7 +15,6 @@ import com.backyardbrains.drawing.BYBColors;
 import com.backyardbrains.drawing.FindSpikesRenderer;
 import com.backyardbrains.drawing.ThresholdOrientation;
 import com.backyardbrains.events.AudioAnalysisDoneEvent;
-import com.backyardbrains.utils.BYBConstants;
 import com.backyardbrains.view.BYBThresholdHandle;
 import java.util.List;
 import org.greenrobot.eventbus.Subscribe;
@@ -94,8 +93,8 @@ public class BackyardBrainsSpikesFragment extends BackyardBrainsPlaybackScopeFra
     //=================================================
 
     @Override
-    protected FindSpikesRenderer createRenderer(@NonNull BaseFragment fragment, @NonNull float[] preparedBuffer) {
-        final FindSpikesRenderer renderer = new FindSpikesRenderer(fragment, preparedBuffer);
+    protected FindSpikesRenderer createRenderer(@NonNull BaseFragment fragment) {
+        final FindSpikesRenderer renderer = new FindSpikesRenderer(fragment);
         renderer.setCallback(new FindSpikesRenderer.CallbackAdapter() {
 
             @Override public void onThresholdUpdate(@ThresholdOrientation final int threshold, final int value) {
@@ -109,22 +108,6 @@ public class BackyardBrainsSpikesFragment extends BackyardBrainsPlaybackScopeFra
                 }
             }
 
-            @Override public void onDraw(final int drawSurfaceWidth, final int drawSurfaceHeight) {
-                // we need to call it on UI thread because renderer is drawing on background thread
-                if (getActivity() != null) {
-                    getActivity().runOnUiThread(new Runnable() {
-                        @Override public void run() {
-                            final float millisecondsInThisWindow = drawSurfaceWidth / 44100.0f * 1000 / 2;
-                            setMilliseconds(millisecondsInThisWindow);
-
-                            float yPerDiv =
-                                (float) drawSurfaceHeight / 4.0f / 24.5f / 1000 * BYBConstants.millivoltScale;
-                            setMillivolts(yPerDiv);
-                        }
-                    });
-                }
-            }
-
             @Override public void onHorizontalDragStart() {
                 startSeek();
             }
@@ -177,6 +160,8 @@ public class BackyardBrainsSpikesFragment extends BackyardBrainsPlaybackScopeFra
         if (event.isSuccess()) {
             if (getAnalysisManager() != null && !getAnalysisManager().spikesFound()) addThreshold();
             updateThresholdActions();
+            // found spikes need to be drawn even if playback is paused
+            if (getRenderer() != null) getRenderer().invalidate();
         }
     }
 
@@ -16,7 +16,6 @@ import com.backyardbrains.audio.ThresholdHelper;
 import com.backyardbrains.drawing.BYBBaseRenderer;
 import com.backyardbrains.drawing.ThresholdRenderer;
 import com.backyardbrains.events.AudioServiceConnectionEvent;
-import com.backyardbrains.utils.BYBConstants;
 import com.backyardbrains.view.BYBThresholdHandle;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
@@ -79,8 +78,8 @@ public class BackyardBrainsThresholdFragment extends BaseWaveformFragment {
     }
 
     @Override
-    protected BYBBaseRenderer createRenderer(@NonNull BaseFragment fragment, @NonNull float[] preparedBuffer) {
-        final ThresholdRenderer renderer = new ThresholdRenderer(fragment, preparedBuffer);
+    protected BYBBaseRenderer createRenderer(@NonNull BaseFragment fragment) {
+        final ThresholdRenderer renderer = new ThresholdRenderer(fragment);
         renderer.setCallback(new ThresholdRenderer.CallbackAdapter() {
 
             @Override public void onThresholdUpdate(final int value) {
@@ -93,22 +92,6 @@ public class BackyardBrainsThresholdFragment extends BaseWaveformFragment {
                     });
                 }
             }
-
-            @Override public void onDraw(final int drawSurfaceWidth, final int drawSurfaceHeight) {
-                // we need to call it on UI thread because renderer is drawing on background thread
-                if (getActivity() != null) {
-                    getActivity().runOnUiThread(new Runnable() {
-                        @Override public void run() {
-                            final float millisecondsInThisWindow = drawSurfaceWidth / 44100.0f * 1000 / 2;
-                            setMilliseconds(millisecondsInThisWindow);
-
-                            float yPerDiv =
-                                (float) drawSurfaceHeight / 4.0f / 24.5f / 1000 * BYBConstants.millivoltScale;
-                            setMillivolts(yPerDiv);
-                        }
-                    });
-                }
-            }
         });
         return renderer;
     }
@@ -6,6 +6,7 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import com.backyardbrains.analysis.BYBAnalysisManager;
 import com.backyardbrains.audio.AudioService;
+import com.backyardbrains.audio.RecordingsCatalog;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.NoSubscriberEvent;
 import org.greenrobot.eventbus.Subscribe;
@@ -20,7 +21,7 @@ public class BaseFragment extends Fragment {
 
     /**
      * This interface needs to be implemented by the activities which contain this fragment so that it can have access
-     * to active {@link AudioService} and {@link BYBAnalysisManager}.
+     * to active {@link AudioService}, {@link BYBAnalysisManager} and {@link RecordingsCatalog}.
      */
     @SuppressWarnings("WeakerAccess") public interface ResourceProvider {
         /**
@@ -32,6 +33,11 @@ public class BaseFragment extends Fragment {
          * Reference to active {@link BYBAnalysisManager}.
          */
         @Nullable BYBAnalysisManager analysisManager();
+
+        /**
+         * Reference to active {@link RecordingsCatalog}.
+         */
+        @Nullable RecordingsCatalog recordingsCatalog();
     }
 
     @Override public void onAttach(Context context) {
@@ -70,6 +76,10 @@ public class BaseFragment extends Fragment {
         return provider != null ? provider.analysisManager() : null;
     }
 
+    @Nullable protected RecordingsCatalog getRecordingsCatalog() {
+        return provider != null ? provider.recordingsCatalog() : null;
+    }
+
     @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
     public void onNoSubscriberEvent(NoSubscriberEvent event) {
         // we need this to avoid EventBusException exception thrown by EventBus
@@ -11,7 +11,10 @@ import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import com.backyardbrains.audio.AudioService;
 import com.backyardbrains.drawing.BYBBaseRenderer;
+import com.backyardbrains.drawing.OverlayState;
+import com.backyardbrains.audio.StreamFormat;
 import com.backyardbrains.events.AudioServiceConnectionEvent;
+import com.backyardbrains.utils.BYBConstants;
 import com.backyardbrains.view.WaveformLayout;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
@@ -32,8 +35,6 @@ public abstract class BaseWaveformFragment extends BaseFragment {
 
     private BYBBaseRenderer renderer;
 
-    protected float[] bufferWithXs = BYBBaseRenderer.initTempBuffer();
-
     //==============================================
     //  LIFECYCLE IMPLEMENTATIONS
     //==============================================
@@ -82,7 +83,7 @@ public abstract class BaseWaveformFragment extends BaseFragment {
     protected abstract View createView(LayoutInflater inflater, @NonNull ViewGroup container,
         @Nullable Bundle savedInstanceState);
 
-    protected abstract BYBBaseRenderer createRenderer(@NonNull BaseFragment fragment, @NonNull float[] preparedBuffer);
+    protected abstract BYBBaseRenderer createRenderer(@NonNull BaseFragment fragment);
 
     protected abstract boolean isBackable();
 
@@ -111,6 +112,14 @@ public abstract class BaseWaveformFragment extends BaseFragment {
         return renderer;
     }
 
+    /**
+     * Returns sample rate of the audio that's currently processed by the audio service.
+     */
+    protected int getSampleRate() {
+        final AudioService service = getAudioService();
+        return (service != null ? service.getStreamFormat() : StreamFormat.DEFAULT).getSampleRate();
+    }
+
     /**
      * Whether renderer should use averager when doing calculations.
      */
@@ -135,7 +144,14 @@ public abstract class BaseWaveformFragment extends BaseFragment {
     // Initializes user interface
     private void setupUI() {
         setUseAverager();
-        renderer = createRenderer(this, bufferWithXs);
+        renderer = createRenderer(this);
+        // time and signal scale labels are updated only when GL window sizes change
+        renderer.setOverlayState(new OverlayState(waveform, new OverlayState.Consumer() {
+            @Override public void onWindowSizeChanged(int horizontalSize, int verticalSize) {
+                setMilliseconds(horizontalSize / (float) getSampleRate() * 1000 / 2);
+                setMillivolts((float) verticalSize / 4.0f / 24.5f / 1000 * BYBConstants.millivoltScale);
+            }
+        }));
         waveform.setRenderer(renderer);
 
         if (isBackable()) {
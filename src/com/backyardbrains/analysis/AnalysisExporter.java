@@ -0,0 +1,250 @@
+package com.backyardbrains.analysis;
+
+import android.support.annotation.NonNull;
+import com.backyardbrains.utils.BufferedChannelWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Writes found spikes and analysis results to a file, either as CSV or in a compact binary format. Everything is
+ * streamed through a single fixed buffer, and saved spikes are read straight from the memory-mapped spikes file, so
+ * memory used doesn't depend on the number of exported spikes. Export can take a while for long recordings and should
+ * not be run on the main thread.
+ *
+ * <p>CSV file holds a section per written result. Every section starts with a {@code # <name>} line followed by the
+ * column names line and a line per value.
+ *
+ * <p>Binary file (little-endian) starts with magic {@code "BYBE"} and version (short) followed by two reserved bytes.
+ * Every section starts with {@link BYBAnalysisType} of the result (int) and the number of items in it (int):
+ * <ul>
+ * <li>{@link BYBAnalysisType#FIND_SPIKES}: sample rate (int), sample index of every spike (int), amplitude of every
+ * spike (float)</li>
+ * <li>{@link BYBAnalysisType#ISI}, {@link BYBAnalysisType#AUTOCORRELATION}, {@link BYBAnalysisType#CROSS_CORRELATION}:
+ * for every histogram number of bins (int), bin edges in seconds (float, one more than bins, none if there are no
+ * bins) and bin counts (int)</li>
+ * <li>{@link BYBAnalysisType#AVERAGE_SPIKE}: for every spike train number of samples (int), followed by the average
+ * spike, normalized average spike, normalized top and normalized bottom standard deviation line (float each)</li>
+ * </ul>
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class AnalysisExporter implements Closeable {
+
+    // "BYBE" in little-endian
+    private static final int MAGIC = 0x45425942;
+    private static final short VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // spike times are written with microsecond resolution
+    private static final int TIME_FRACTION_DIGITS = 6;
+    private static final int VALUE_FRACTION_DIGITS = 4;
+
+    private final BufferedChannelWriter writer;
+    private final @ExportFormat int format;
+
+    /**
+     * Creates exporter that writes to specified {@code file}, replacing its current content.
+     *
+     * @throws IOException if file can't be created
+     */
+    public AnalysisExporter(@NonNull File file, @ExportFormat int format) throws IOException {
+        this.writer = new BufferedChannelWriter(new FileOutputStream(file).getChannel(), BUFFER_SIZE);
+        this.format = format;
+
+        if (format == ExportFormat.BINARY) {
+            writer.putInt(MAGIC);
+            writer.putShort(VERSION);
+            writer.putShort((short) 0);
+        }
+    }
+
+    /**
+     * Writes spikes saved in the spikes file of specified {@code recording}. Spikes are read from the mapped file as
+     * they are written, so any number of them can be exported. Returns {@code false} if there are no valid saved
+     * spikes.
+     *
+     * @throws IOException if spikes can't be read or written
+     */
+    public boolean writeSavedSpikes(@NonNull File recording) throws IOException {
+        final SpikesFile.Columns columns = SpikesFile.map(recording);
+        if (columns == null) return false;
+
+        final IntBuffer indices = columns.indices;
+        final FloatBuffer values = columns.values;
+        final int count = indices.remaining();
+        if (format == ExportFormat.BINARY) {
+            writeSectionHeader(BYBAnalysisType.FIND_SPIKES, count);
+            writer.putInt(columns.sampleRate);
+            writer.putInts(indices);
+            values.limit(count);
+            writer.putFloats(values);
+        } else {
+            writeSpikesHeader();
+            for (int i = 0; i < count; i++) {
+                writeSpike(indices.get(i), values.get(i), columns.sampleRate);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes specified {@code spikes} found in a recording with specified {@code sampleRate}.
+     *
+     * @throws IOException if spikes can't be written
+     */
+    public void writeSpikes(@NonNull BYBSpike[] spikes, int sampleRate) throws IOException {
+        if (format == ExportFormat.BINARY) {
+            writeSectionHeader(BYBAnalysisType.FIND_SPIKES, spikes.length);
+            writer.putInt(sampleRate);
+            for (BYBSpike spike : spikes) {
+                writer.putInt(spike.index);
+            }
+            for (BYBSpike spike : spikes) {
+                writer.putFloat(spike.value);
+            }
+        } else {
+            writeSpikesHeader();
+            for (BYBSpike spike : spikes) {
+                writeSpike(spike.index, spike.value, sampleRate);
+            }
+        }
+    }
+
+    /**
+     * Writes specified {@code histograms} produced by analysis of specified {@code type}, one per spike train (or per
+     * pair of spike trains for cross-correlation).
+     *
+     * @throws IOException if histograms can't be written
+     */
+    public void writeHistograms(@BYBAnalysisType int type, @NonNull BYBHistogram[] histograms) throws IOException {
+        if (format == ExportFormat.BINARY) {
+            writeSectionHeader(type, histograms.length);
+            for (BYBHistogram histogram : histograms) {
+                final int binCount = histogram.getBinCount();
+                writer.putInt(binCount);
+                if (binCount == 0) continue;
+
+                for (int i = 0; i <= binCount; i++) {
+                    writer.putFloat(histogram.getBinEdge(i));
+                }
+                for (int i = 0; i < binCount; i++) {
+                    writer.putInt(histogram.getCount(i));
+                }
+            }
+        } else {
+            writer.putAscii("# " + getSectionName(type) + "\nhistogram,bin_start_s,bin_end_s,count\n");
+            for (int h = 0; h < histograms.length; h++) {
+                final BYBHistogram histogram = histograms[h];
+                for (int i = 0; i < histogram.getBinCount(); i++) {
+                    writer.putInteger(h);
+                    writer.putChar(',');
+                    writer.putDecimal(histogram.getBinEdge(i), TIME_FRACTION_DIGITS);
+                    writer.putChar(',');
+                    writer.putDecimal(histogram.getBinEdge(i + 1), TIME_FRACTION_DIGITS);
+                    writer.putChar(',');
+                    writer.putInteger(histogram.getCount(i));
+                    writer.putChar('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes specified {@code averageSpikes}, one per spike train.
+     *
+     * @throws IOException if average spikes can't be written
+     */
+    public void writeAverageSpikes(@NonNull BYBAverageSpike[] averageSpikes) throws IOException {
+        if (format == ExportFormat.BINARY) {
+            writeSectionHeader(BYBAnalysisType.AVERAGE_SPIKE, averageSpikes.length);
+            for (BYBAverageSpike averageSpike : averageSpikes) {
+                final int length = averageSpike.getAverageSpike().length;
+                writer.putInt(length);
+                writer.putFloats(FloatBuffer.wrap(averageSpike.getAverageSpike()));
+                writer.putFloats(FloatBuffer.wrap(averageSpike.getNormAverageSpike(), 0, length));
+                writer.putFloats(FloatBuffer.wrap(averageSpike.getNormTopSTDLine(), 0, length));
+                writer.putFloats(FloatBuffer.wrap(averageSpike.getNormBottomSTDLine(), 0, length));
+            }
+        } else {
+            writer.putAscii("# " + getSectionName(BYBAnalysisType.AVERAGE_SPIKE)
+                + "\ntrain,sample,average,norm_average,norm_top_std,norm_bottom_std\n");
+            for (int t = 0; t < averageSpikes.length; t++) {
+                final BYBAverageSpike averageSpike = averageSpikes[t];
+                for (int i = 0; i < averageSpike.getAverageSpike().length; i++) {
+                    writer.putInteger(t);
+                    writer.putChar(',');
+                    writer.putInteger(i);
+                    writer.putChar(',');
+                    writer.putDecimal(averageSpike.getAverageSpike()[i], VALUE_FRACTION_DIGITS);
+                    writer.putChar(',');
+                    writer.putDecimal(averageSpike.getNormAverageSpike()[i], VALUE_FRACTION_DIGITS);
+                    writer.putChar(',');
+                    writer.putDecimal(averageSpike.getNormTopSTDLine()[i], VALUE_FRACTION_DIGITS);
+                    writer.putChar(',');
+                    writer.putDecimal(averageSpike.getNormBottomSTDLine()[i], VALUE_FRACTION_DIGITS);
+                    writer.putChar('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns number of bytes written so far.
+     */
+    public long getByteCount() {
+        return writer.getByteCount();
+    }
+
+    /**
+     * Writes everything that's still buffered and closes the file.
+     *
+     * @throws IOException if file can't be written
+     */
+    @Override public void close() throws IOException {
+        writer.close();
+    }
+
+    // Writes header of a binary section holding specified number of items
+    private void writeSectionHeader(@BYBAnalysisType int type, int count) throws IOException {
+        writer.putInt(type);
+        writer.putInt(count);
+    }
+
+    // Writes header of CSV spikes section
+    private void writeSpikesHeader() throws IOException {
+        writer.putAscii("# " + getSectionName(BYBAnalysisType.FIND_SPIKES) + "\ntime_s,sample,amplitude\n");
+    }
+
+    // Writes a single spike as a CSV line
+    private void writeSpike(int index, float value, int sampleRate) throws IOException {
+        writer.putDecimal((double) index / sampleRate, TIME_FRACTION_DIGITS);
+        writer.putChar(',');
+        writer.putInteger(index);
+        writer.putChar(',');
+        writer.putDecimal(value, VALUE_FRACTION_DIGITS);
+        writer.putChar('\n');
+    }
+
+    // Returns name of the CSV section holding results of specified analysis
+    private static String getSectionName(@BYBAnalysisType int type) {
+        switch (type) {
+            case BYBAnalysisType.FIND_SPIKES:
+                return "spikes";
+            case BYBAnalysisType.ISI:
+                return "isi";
+            case BYBAnalysisType.AUTOCORRELATION:
+                return "autocorrelation";
+            case BYBAnalysisType.CROSS_CORRELATION:
+                return "cross_correlation";
+            case BYBAnalysisType.AVERAGE_SPIKE:
+                return "average_spike";
+            case BYBAnalysisType.NONE:
+            default:
+                return "unknown";
+        }
+    }
+}
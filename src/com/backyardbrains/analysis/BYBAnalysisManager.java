@@ -4,9 +4,10 @@ import android.annotation.SuppressLint;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.backyardbrains.audio.BYBAudioFile;
-import com.backyardbrains.audio.WavAudioFile;
 import com.backyardbrains.drawing.ThresholdOrientation;
+import com.backyardbrains.events.AnalysisExportedEvent;
 import com.backyardbrains.events.AudioAnalysisDoneEvent;
+import com.backyardbrains.utils.RecordingUtils;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -52,6 +53,8 @@ public class BYBAnalysisManager {
     private boolean bProcessAverageSpike = false;
     private boolean bAverageSpikeDone = false;
 
+    private BYBExportAnalysis exportAnalysis;
+
     public BYBAnalysisManager() {
         // init thresholds, we have one pair of thresholds by default
         thresholds = new ArrayList<>();
@@ -102,7 +105,7 @@ public class BYBAnalysisManager {
         return (getThresholdsSize() > 0 && spikes != null && spikes.length > 0 && bSpikesDone);
     }
 
-    // Loads file with specified file path into WavAudioFile for further processing
+    // Loads file with specified file path into BYBAudioFile for further processing
     private boolean load(@NonNull String filePath) {
         try {
             return load(new File(filePath));
@@ -112,7 +115,7 @@ public class BYBAnalysisManager {
         }
     }
 
-    // Loads specified file into WavAudioFile for further processing
+    // Loads specified file into BYBAudioFile for further processing
     private boolean load(@NonNull File file) throws IOException {
         LOGD(TAG, "load");
 
@@ -122,7 +125,7 @@ public class BYBAnalysisManager {
         }
 
         reset();
-        audioFile = new WavAudioFile(file);
+        audioFile = RecordingUtils.openRecording(file);
 
         findSpikes();
 
@@ -320,9 +323,9 @@ public class BYBAnalysisManager {
     //=================================================
 
     /**
-     * Returns results for the Inter Spike Interval analysis
+     * Returns results for the Inter Spike Interval analysis, one histogram per spike train
      */
-    @Nullable public List<List<BYBInterSpikeInterval>> getISI() {
+    @Nullable public BYBHistogram[] getISI() {
         return isiAnalysis != null ? isiAnalysis.getIsi() : null;
     }
 
@@ -358,9 +361,9 @@ public class BYBAnalysisManager {
     //=================================================
 
     /**
-     * Returns results for the Autocorrelation analysis
+     * Returns results for the Autocorrelation analysis, one histogram per spike train
      */
-    @Nullable public List<List<Integer>> getAutocorrelation() {
+    @Nullable public BYBHistogram[] getAutocorrelation() {
         return autocorrelationAnalysis != null ? autocorrelationAnalysis.getAutoCorrelation() : null;
     }
 
@@ -397,9 +400,9 @@ public class BYBAnalysisManager {
     //=================================================
 
     /**
-     * Returns results for the Cross-Correlation analysis
+     * Returns results for the Cross-Correlation analysis, one histogram per pair of spike trains
      */
-    @Nullable public List<List<Integer>> getCrossCorrelation() {
+    @Nullable public BYBHistogram[] getCrossCorrelation() {
         return crossCorrelationAnalysis != null ? crossCorrelationAnalysis.getCrossCorrelation() : null;
     }
 
@@ -474,6 +477,39 @@ public class BYBAnalysisManager {
         }
     }
 
+    //=================================================
+    //  EXPORT
+    //=================================================
+
+    /**
+     * Exports spikes found in currently loaded audio file, together with the results of all finished analysis, to
+     * specified {@code file} in the background. {@link AnalysisExportedEvent} is posted when export is done. Returns
+     * {@code false} if spikes haven't been found yet or previous export is still running.
+     */
+    public boolean exportAnalysis(@NonNull final File file, @ExportFormat int format) {
+        if (!spikesFound() || exportAnalysis != null) return false;
+
+        exportAnalysis = new BYBExportAnalysis(new File(audioFile.getAbsolutePath()), audioFile.sampleRate(), spikes,
+            bISIDone ? getISI() : null, bAutocorrelationDone ? getAutocorrelation() : null,
+            bCrossCorrelationDone ? getCrossCorrelation() : null, bAverageSpikeDone ? getAverageSpike() : null, file,
+            format, new BYBBaseAnalysis.AnalysisListener() {
+            @Override public void onAnalysisDone() {
+                final boolean success = exportAnalysis != null && exportAnalysis.isSuccess();
+                exportAnalysis = null;
+
+                EventBus.getDefault().post(new AnalysisExportedEvent(success, file.getAbsolutePath()));
+            }
+
+            @Override public void onAnalysisCanceled() {
+                exportAnalysis = null;
+
+                EventBus.getDefault().post(new AnalysisExportedEvent(false, file.getAbsolutePath()));
+            }
+        });
+
+        return true;
+    }
+
     //=================================================
     //  THRESHOLDS
     //=================================================
@@ -1,13 +1,13 @@
 package com.backyardbrains.analysis;
 
 import android.support.annotation.NonNull;
-import java.util.ArrayList;
+import android.support.annotation.Nullable;
 import java.util.List;
 
 class BYBAutocorrelationAnalysis extends BYBBaseAnalysis {
 
     private final List<List<BYBSpike>> trains;
-    private List<List<Integer>> autoCorrelation;
+    private volatile BYBHistogram[] autoCorrelation;
 
     BYBAutocorrelationAnalysis(@NonNull List<List<BYBSpike>> trains, @NonNull AnalysisListener listener) {
         super(listener);
@@ -17,29 +17,41 @@ class BYBAutocorrelationAnalysis extends BYBBaseAnalysis {
         execute();
     }
 
-    List<List<Integer>> getAutoCorrelation() {
+    /**
+     * Returns one autocorrelation histogram per spike train, or {@code null} if analysis is not finished.
+     */
+    @Nullable BYBHistogram[] getAutoCorrelation() {
         return autoCorrelation;
     }
 
     @Override void process() {
+        // results are published only once they are complete
+        autoCorrelation = computeAutocorrelation(trains);
+    }
+
+    /**
+     * Returns one autocorrelation histogram per specified spike train, with 1 ms bins up to 100 ms.
+     */
+    @NonNull static BYBHistogram[] computeAutocorrelation(@NonNull List<List<BYBSpike>> trains) {
         float maxTime = 0.1f;
         float binSize = 0.001f;
 
-        clearAutoCorrelation();
-        autoCorrelation = new ArrayList<>();
+        int n = (int) Math.ceil((maxTime + binSize) / binSize);
+        float minEdge = -binSize * 0.5f;
+        float maxEdge = maxTime + binSize * 0.5f;
+
+        final float[] binEdges = new float[n + 1];
+        for (int x = 0; x <= n; x++) {
+            binEdges[x] = minEdge + x * binSize;
+        }
 
+        final BYBHistogram[] result = new BYBHistogram[trains.size()];
         for (int i = 0; i < trains.size(); i++) {
             BYBSpike firstSpike;
             BYBSpike secondSpike;
-            int n = (int) Math.ceil((maxTime + binSize) / binSize);
 
             int[] histogram = new int[n];
-            for (int x = 0; x < n; x++) {
-                histogram[x] = 0;
-            }
 
-            float minEdge = -binSize * 0.5f;
-            float maxEdge = maxTime + binSize * 0.5f;
             float diff;
             int index;
             int mainIndex;
@@ -70,24 +82,9 @@ class BYBAutocorrelationAnalysis extends BYBBaseAnalysis {
                     }
                 }
             }
-            ArrayList<Integer> temp = new ArrayList<>();
-
-            for (int j = 0; j < n; j++) {
-                temp.add(histogram[j]);
-            }
-            autoCorrelation.add(temp);
+            result[i] = new BYBHistogram(histogram, binEdges);
         }
-    }
 
-    private void clearAutoCorrelation() {
-        if (autoCorrelation != null) {
-            for (int i = 0; i < autoCorrelation.size(); i++) {
-                if (autoCorrelation.get(i) != null) {
-                    autoCorrelation.get(i).clear();
-                }
-            }
-            autoCorrelation.clear();
-            autoCorrelation = null;
-        }
+        return result;
     }
 }
@@ -2,6 +2,7 @@ package com.backyardbrains.analysis;
 
 import android.support.annotation.NonNull;
 import com.backyardbrains.audio.BYBAudioFile;
+import com.backyardbrains.audio.StreamFormat;
 import com.backyardbrains.utils.BYBUtils;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -58,7 +59,9 @@ class BYBAverageSpikeAnalysis extends BYBBaseAnalysis {
 
     @Override void process() {
         try {
-            long numberOfSamples = audioFile.length();
+            // spikes are found in the first channel of multichannel files
+            final StreamFormat format = new StreamFormat(audioFile.sampleRate(), audioFile.numChannels());
+            long numberOfSamples = format.getSampleCount(audioFile.length());
             int sampleRate = audioFile.sampleRate();
             int halfSpikeLength = (int) (sampleRate * AVERAGE_SPIKE_HALF_LENGTH_SECONDS);
             int spikeLength = 2 * halfSpikeLength + 1;
@@ -97,7 +100,7 @@ class BYBAverageSpikeAnalysis extends BYBBaseAnalysis {
                     // add spike to average buffer
                     final int averageSpikeIndexBase = spikeSampleIndex - halfSpikeLength;
                     for (int i = 0; i < spikeLength; i++) {
-                        audioFile.seek((averageSpikeIndexBase + i) * 2);
+                        audioFile.seek(format.getByteCount(averageSpikeIndexBase + i));
                         final byte[] buffer = new byte[2];
                         short[] shortBuffer;
                         ShortBuffer sb;
@@ -170,28 +173,19 @@ class BYBAverageSpikeAnalysis extends BYBBaseAnalysis {
                 }
             }
 
-            // let's populate avr array
-            clearAverageSpike();
-            avr = new BYBAverageSpike[tmpAvr.length];
-
+            // result is published only when it's complete and it's never changed afterwards, because renderers
+            // rebuild their geometry only when they get a different result array
+            final BYBAverageSpike[] result = new BYBAverageSpike[tmpAvr.length];
             int count = 0;
             for (AverageSpikeData asd : tmpAvr) {
-                avr[count++] = new BYBAverageSpike(asd.averageSpike, asd.normAverageSpike, asd.normTopSTDLine,
+                result[count++] = new BYBAverageSpike(asd.averageSpike, asd.normAverageSpike, asd.normTopSTDLine,
                     asd.normBottomSTDLine);
             }
+            avr = result;
         } catch (IOException e) {
             LOGE(TAG,
                 e instanceof FileNotFoundException ? "Error loading file" : "Error reading random access file stream",
                 e);
         }
     }
-
-    private void clearAverageSpike() {
-        if (avr != null) {
-            for (int i = 0; i < avr.length; i++) {
-                avr[i] = null;
-            }
-            avr = null;
-        }
-    }
 }
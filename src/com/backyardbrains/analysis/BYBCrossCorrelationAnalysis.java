@@ -1,18 +1,15 @@
 package com.backyardbrains.analysis;
 
 import android.support.annotation.NonNull;
-import java.util.ArrayList;
+import android.support.annotation.Nullable;
 import java.util.List;
 
-import static com.backyardbrains.utils.LogUtils.LOGD;
-import static com.backyardbrains.utils.LogUtils.makeLogTag;
-
 class BYBCrossCorrelationAnalysis extends BYBBaseAnalysis {
 
-    private static final String TAG = makeLogTag(BYBCrossCorrelationAnalysis.class);
+    private static final BYBHistogram EMPTY = new BYBHistogram(new int[0], new float[0]);
 
     private final List<List<BYBSpike>> trains;
-    private List<List<Integer>> crossCorrelation = new ArrayList<>();
+    private volatile BYBHistogram[] crossCorrelation;
 
     BYBCrossCorrelationAnalysis(@NonNull List<List<BYBSpike>> trains, @NonNull AnalysisListener listener) {
         super(listener);
@@ -22,7 +19,12 @@ class BYBCrossCorrelationAnalysis extends BYBBaseAnalysis {
         execute();
     }
 
-    @NonNull List<List<Integer>> getCrossCorrelation() {
+    /**
+     * Returns cross-correlation histograms for every pair of spike trains, or {@code null} if analysis is not
+     * finished. Histogram for the pair of trains {@code (i, j)} is at index {@code i * trainCount + j}. Histograms of
+     * pairs that don't have enough spikes don't have any bins.
+     */
+    @Nullable BYBHistogram[] getCrossCorrelation() {
         return crossCorrelation;
     }
 
@@ -30,26 +32,28 @@ class BYBCrossCorrelationAnalysis extends BYBBaseAnalysis {
         float maxTime = 0.1f;
         float binSize = 0.001f;
 
-        clearCrossCorrelation();
-        crossCorrelation = new ArrayList<>();
+        int n = (int) Math.ceil((2 * maxTime + binSize) / binSize);
+        float minEdge = -maxTime - binSize * 0.5f;
+        float maxEdge = maxTime + binSize * 0.5f;
+
+        final float[] binEdges = new float[n + 1];
+        for (int x = 0; x <= n; x++) {
+            binEdges[x] = minEdge + x * binSize;
+        }
 
-        for (int fSpikeTrainIndex = 0; fSpikeTrainIndex < trains.size(); fSpikeTrainIndex++) {
-            for (int sSpikeTrainIndex = 0; sSpikeTrainIndex < trains.size(); sSpikeTrainIndex++) {
+        final int trainCount = trains.size();
+        final BYBHistogram[] result = new BYBHistogram[trainCount * trainCount];
+        for (int fSpikeTrainIndex = 0; fSpikeTrainIndex < trainCount; fSpikeTrainIndex++) {
+            for (int sSpikeTrainIndex = 0; sSpikeTrainIndex < trainCount; sSpikeTrainIndex++) {
                 List<BYBSpike> fspikeTrain = trains.get(fSpikeTrainIndex);
                 List<BYBSpike> sspikeTrain = trains.get(sSpikeTrainIndex);
-                ArrayList<Integer> temp = new ArrayList<>();
+                BYBHistogram temp = EMPTY;
                 if (fspikeTrain.size() > 1 && sspikeTrain.size() > 1) {
                     BYBSpike firstSpike;
                     BYBSpike secondSpike;
-                    int n = (int) Math.ceil((2 * maxTime + binSize) / binSize);
 
                     int[] histogram = new int[n];
-                    for (int x = 0; x < n; ++x) {
-                        histogram[x] = 0;
-                    }
 
-                    float minEdge = -maxTime - binSize * 0.5f;
-                    float maxEdge = maxTime + binSize * 0.5f;
                     float diff;
                     int index;
                     int mainIndex;
@@ -74,26 +78,12 @@ class BYBCrossCorrelationAnalysis extends BYBBaseAnalysis {
                         }
                     }
 
-                    for (int j = 0; j < n; j++) {
-                        temp.add(histogram[j]);
-                    }
-                }
-                crossCorrelation.add(temp);
-            }
-        }
-    }
-
-    private void clearCrossCorrelation() {
-        LOGD(TAG, "clearCrossCorrelation()");
-
-        if (crossCorrelation != null) {
-            for (int i = 0; i < crossCorrelation.size(); i++) {
-                if (crossCorrelation.get(i) != null) {
-                    crossCorrelation.get(i).clear();
+                    temp = new BYBHistogram(histogram, binEdges);
                 }
+                result[fSpikeTrainIndex * trainCount + sSpikeTrainIndex] = temp;
             }
-            crossCorrelation.clear();
-            crossCorrelation = null;
         }
+        // results are published only once they are complete
+        crossCorrelation = result;
     }
 }
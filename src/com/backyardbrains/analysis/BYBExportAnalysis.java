@@ -0,0 +1,87 @@
+package com.backyardbrains.analysis;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Exports spikes and analysis results of a recording through {@link AnalysisExporter} in the background. Spikes are
+ * streamed from the spikes file when it's available, found spikes are written from memory otherwise.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class BYBExportAnalysis extends BYBBaseAnalysis {
+
+    private static final String TAG = makeLogTag(BYBExportAnalysis.class);
+
+    private final File recording;
+    private final int sampleRate;
+    private final BYBSpike[] spikes;
+    private final BYBHistogram[] isi;
+    private final BYBHistogram[] autocorrelation;
+    private final BYBHistogram[] crossCorrelation;
+    private final BYBAverageSpike[] averageSpikes;
+    private final File file;
+    private final @ExportFormat int format;
+
+    private volatile boolean success;
+
+    BYBExportAnalysis(@NonNull File recording, int sampleRate, @NonNull BYBSpike[] spikes, @Nullable BYBHistogram[] isi,
+        @Nullable BYBHistogram[] autocorrelation, @Nullable BYBHistogram[] crossCorrelation,
+        @Nullable BYBAverageSpike[] averageSpikes, @NonNull File file, @ExportFormat int format,
+        @NonNull AnalysisListener listener) {
+        super(listener);
+
+        this.recording = recording;
+        this.sampleRate = sampleRate;
+        this.spikes = spikes;
+        this.isi = isi;
+        this.autocorrelation = autocorrelation;
+        this.crossCorrelation = crossCorrelation;
+        this.averageSpikes = averageSpikes;
+        this.file = file;
+        this.format = format;
+
+        execute();
+    }
+
+    /**
+     * Whether results were successfully written.
+     */
+    boolean isSuccess() {
+        return success;
+    }
+
+    @Override void process() {
+        final long start = System.nanoTime();
+        try {
+            final AnalysisExporter exporter = new AnalysisExporter(file, format);
+            try {
+                if (!exporter.writeSavedSpikes(recording)) exporter.writeSpikes(spikes, sampleRate);
+                if (isi != null) exporter.writeHistograms(BYBAnalysisType.ISI, isi);
+                if (autocorrelation != null) exporter.writeHistograms(BYBAnalysisType.AUTOCORRELATION, autocorrelation);
+                if (crossCorrelation != null) {
+                    exporter.writeHistograms(BYBAnalysisType.CROSS_CORRELATION, crossCorrelation);
+                }
+                if (averageSpikes != null) exporter.writeAverageSpikes(averageSpikes);
+            } finally {
+                exporter.close();
+            }
+            success = true;
+
+            final float seconds = (System.nanoTime() - start) / 1e9f;
+            LOGD(TAG, String.format(Locale.US, "%d bytes exported to %s in %.3f s (%.1f MB/s)",
+                exporter.getByteCount(), file.getName(), seconds, exporter.getByteCount() / 1e6f / seconds));
+        } catch (IOException e) {
+            LOGE(TAG, "Error exporting analysis to " + file.getAbsolutePath(), e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.backyardbrains.analysis;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Immutable histogram produced by ISI, autocorrelation and cross-correlation analysis. Bin {@code i} counts values
+ * that fall between bin edges {@code i} and {@code i + 1}, so there is one edge more than there are bins. Edges are
+ * expressed in seconds.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class BYBHistogram {
+
+    private final int[] counts;
+    private final float[] binEdges;
+    private final int maxCount;
+
+    BYBHistogram(@NonNull int[] counts, @NonNull float[] binEdges) {
+        if (counts.length > 0 && binEdges.length != counts.length + 1) {
+            throw new IllegalArgumentException("Histogram needs exactly one bin edge more than bins");
+        }
+
+        this.counts = counts;
+        this.binEdges = binEdges;
+
+        int max = 0;
+        for (int count : counts) {
+            if (count > max) max = count;
+        }
+        this.maxCount = max;
+    }
+
+    /**
+     * Returns number of bins. Histogram without bins means there wasn't enough spikes to do the analysis.
+     */
+    public int getBinCount() {
+        return counts.length;
+    }
+
+    /**
+     * Returns number of values that fall into the bin with specified {@code index}.
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Returns the highest count of all bins.
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Returns bin edge with specified {@code index}. Bin {@code i} is bounded by edges {@code i} and {@code i + 1}.
+     */
+    public float getBinEdge(int index) {
+        return binEdges[index];
+    }
+}
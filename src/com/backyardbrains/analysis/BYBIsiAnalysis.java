@@ -1,19 +1,16 @@
 package com.backyardbrains.analysis;
 
 import android.support.annotation.NonNull;
-import com.backyardbrains.utils.BYBUtils;
-import java.util.ArrayList;
+import android.support.annotation.Nullable;
+import com.backyardbrains.utils.AnalysisUtils;
 import java.util.List;
 
-import static com.backyardbrains.utils.LogUtils.LOGD;
-import static com.backyardbrains.utils.LogUtils.makeLogTag;
-
 class BYBIsiAnalysis extends BYBBaseAnalysis {
 
-    private static final String TAG = makeLogTag(BYBIsiAnalysis.class);
+    private static final int BIN_EDGES_COUNT = 100;
 
-    private List<List<BYBInterSpikeInterval>> isi = new ArrayList<>();
     private final List<List<BYBSpike>> trains;
+    private volatile BYBHistogram[] isi;
 
     BYBIsiAnalysis(@NonNull List<List<BYBSpike>> trains, @NonNull AnalysisListener listener) {
         super(listener);
@@ -23,28 +20,35 @@ class BYBIsiAnalysis extends BYBBaseAnalysis {
         execute();
     }
 
-    @NonNull List<List<BYBInterSpikeInterval>> getIsi() {
+    /**
+     * Returns one histogram of inter spike intervals per spike train, or {@code null} if analysis is not finished.
+     */
+    @Nullable BYBHistogram[] getIsi() {
         return isi;
     }
 
     @Override void process() {
-        int bins = 100;
-        float[] logSpace = BYBUtils.generateLogSpace(-3, 1, bins - 1);
+        // results are published only once they are complete
+        isi = computeIsi(trains);
+    }
 
-        clearIsi();
-        isi = new ArrayList<>();
+    /**
+     * Returns one histogram of inter spike intervals per specified spike train. Bins are logarithmically spaced from
+     * 1 ms to 10 s.
+     */
+    @NonNull static BYBHistogram[] computeIsi(@NonNull List<List<BYBSpike>> trains) {
+        final float[] logSpace = AnalysisUtils.generateLogSpace(-3, 1, BIN_EDGES_COUNT - 1);
+        final int bins = BIN_EDGES_COUNT - 1;
 
+        final BYBHistogram[] result = new BYBHistogram[trains.size()];
         for (int k = 0; k < trains.size(); k++) {
             int[] histogram = new int[bins];
-            for (int x = 0; x < bins; x++) {
-                histogram[x] = 0;
-            }
             if (trains.get(k) != null) {
                 float interSpikeDistance;
                 int spikesCount = trains.get(k).size();
                 for (int i = 1; i < spikesCount; i++) {
                     interSpikeDistance = trains.get(k).get(i).time - trains.get(k).get(i - 1).time;
-                    for (int j = 1; j < bins; j++) {
+                    for (int j = 1; j <= bins; j++) {
                         if (interSpikeDistance >= logSpace[j - 1] && interSpikeDistance < logSpace[j]) {
                             histogram[j - 1]++;
                             break;
@@ -52,23 +56,9 @@ class BYBIsiAnalysis extends BYBBaseAnalysis {
                     }
                 }
             }
-            ArrayList<BYBInterSpikeInterval> temp = new ArrayList<>();
-            for (int i = 0; i < bins; i++) {
-                temp.add(new BYBInterSpikeInterval(logSpace[i], histogram[i]));
-            }
-            isi.add(temp);
+            result[k] = new BYBHistogram(histogram, logSpace);
         }
-    }
-
-    private void clearIsi() {
-        LOGD(TAG, "clearIsi()");
 
-        if (isi != null) {
-            for (int i = 0; i < isi.size(); i++) {
-                if (isi.get(i) != null) isi.get(i).clear();
-            }
-            isi.clear();
-            isi = null;
-        }
+        return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,332 @@
+package com.backyardbrains.analysis;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.backyardbrains.audio.BYBAudioFile;
+import com.backyardbrains.audio.LosslessAudioFile;
+import com.backyardbrains.audio.WavAudioFile;
+import com.backyardbrains.utils.LogUtils;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs spike detection, ISI and autocorrelation analysis over many recordings at once, without any UI. Recordings are
+ * analysed in parallel on a pool of worker threads, one recording per thread, so at most as many recordings as there
+ * are threads are in memory at once. Memory used by each of them is bounded by limiting the number of spikes that can
+ * be found in a single recording. Spikes are taken from and saved to the spikes sidecar files, the same way as during
+ * interactive analysis.
+ *
+ * <p>Results are collected into {@link FileResult}s and can be written to a CSV summary. Analysis can also be run from
+ * the command line, with compiled app classes and {@code android.jar} on the class path:
+ * <pre>
+ * java com.backyardbrains.analysis.BatchAnalysis &lt;recordings directory&gt; [thread count]
+ * </pre>
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class BatchAnalysis {
+
+    /**
+     * Name of the summary file written to the recordings directory when analysis is run from the command line.
+     */
+    public static final String SUMMARY_FILE_NAME = "analysis_summary.csv";
+
+    // approximate memory used per found spike: the spike itself, the reference to it and its copy in a spike train
+    private static final int BYTES_PER_SPIKE = 48;
+
+    /**
+     * Interface definition for a callback to be invoked every time a recording is analysed. Callback is invoked from
+     * the worker thread that analysed the recording.
+     */
+    public interface ProgressListener {
+        /**
+         * Called when analysis of a recording is finished, successfully or not.
+         *
+         * @param result Result of the analysis.
+         * @param doneCount Number of recordings analysed so far.
+         * @param totalCount Total number of recordings that are analysed.
+         */
+        void onProgress(@NonNull FileResult result, int doneCount, int totalCount);
+    }
+
+    private final int threadCount;
+    private final int maxSpikeCount;
+
+    /**
+     * Creates batch analysis that uses a thread per processor core and splits half of the available memory between
+     * them.
+     */
+    public BatchAnalysis() {
+        this(Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().maxMemory() / 2 / Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadCount Number of recordings analysed in parallel.
+     * @param maxFileMemory Maximum number of bytes analysis of a single recording can use. Recordings with more
+     * spikes than fit into this memory are skipped.
+     */
+    public BatchAnalysis(int threadCount, long maxFileMemory) {
+        if (threadCount < 1) throw new IllegalArgumentException("At least one thread is needed");
+
+        this.threadCount = threadCount;
+        this.maxSpikeCount = (int) Math.min(Integer.MAX_VALUE, maxFileMemory / BYTES_PER_SPIKE);
+    }
+
+    /**
+     * Analyses specified {@code recordings} and returns results in the same order. Blocks until all of them are
+     * analysed.
+     *
+     * @throws InterruptedException if interrupted while waiting, analysis of the remaining recordings is stopped
+     */
+    @NonNull public List<FileResult> analyze(@NonNull final List<File> recordings,
+        @Nullable final ProgressListener listener) throws InterruptedException {
+        final FileResult[] results = new FileResult[recordings.size()];
+        final AtomicInteger doneCount = new AtomicInteger();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int i = 0; i < recordings.size(); i++) {
+                final int index = i;
+                executor.execute(new Runnable() {
+                    @Override public void run() {
+                        final FileResult result = analyze(recordings.get(index));
+                        results[index] = result;
+                        if (listener != null) listener.onProgress(result, doneCount.incrementAndGet(), results.length);
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting, interruption is the only way out
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return Arrays.asList(results);
+    }
+
+    // Analyses a single recording
+    @NonNull private FileResult analyze(@NonNull File recording) {
+        try {
+            final BYBAudioFile audioFile = open(recording);
+            try {
+                final int sampleRate = audioFile.sampleRate();
+                final int channelCount = audioFile.numChannels();
+                final long frameCount = audioFile.length() / (channelCount * audioFile.bitsPerSample() / 8);
+
+                final BYBSpike[] spikes =
+                    SpikeDetector.findSpikes(audioFile, SpikeDetector.getChunkSize(sampleRate), maxSpikeCount);
+
+                // without thresholds all the spikes form a single train
+                final List<List<BYBSpike>> trains = Collections.singletonList(Arrays.asList(spikes));
+                return new FileResult(recording, null, sampleRate, channelCount, frameCount, spikes.length,
+                    BYBIsiAnalysis.computeIsi(trains)[0], BYBAutocorrelationAnalysis.computeAutocorrelation(trains)[0]);
+            } finally {
+                audioFile.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            return new FileResult(recording, e.getMessage() != null ? e.getMessage() : e.toString(), 0, 0, 0, 0, null,
+                null);
+        }
+    }
+
+    // Opens specified recording without going through RecordingUtils, which requires external storage
+    private static BYBAudioFile open(@NonNull File recording) throws IOException {
+        return recording.getName().endsWith(LosslessAudioFile.EXTENSION) ? new LosslessAudioFile(recording)
+            : new WavAudioFile(recording);
+    }
+
+    /**
+     * Writes specified {@code results} to specified {@code file} as CSV, one recording per line. Histograms are written
+     * as space separated bin counts.
+     *
+     * @throws IOException if file can't be written
+     */
+    public static void writeSummary(@NonNull List<FileResult> results, @NonNull File file) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write("file,error,sample_rate,channels,duration_s,spike_count,spike_rate_hz,isi_counts,"
+                + "autocorrelation_counts\n");
+            for (FileResult result : results) {
+                writer.write(quote(result.getFile().getName()));
+                writer.write(',');
+                writer.write(result.getError() != null ? quote(result.getError()) : "");
+                writer.write(String.format(Locale.US, ",%d,%d,%.3f,%d,%.3f,", result.getSampleRate(),
+                    result.getChannelCount(), result.getDuration(), result.getSpikeCount(), result.getSpikeRate()));
+                writeCounts(writer, result.getIsi());
+                writer.write(',');
+                writeCounts(writer, result.getAutocorrelation());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Writes bin counts of specified histogram separated by spaces
+    private static void writeCounts(@NonNull Writer writer, @Nullable BYBHistogram histogram) throws IOException {
+        if (histogram == null) return;
+
+        for (int i = 0; i < histogram.getBinCount(); i++) {
+            if (i > 0) writer.write(' ');
+            writer.write(Integer.toString(histogram.getCount(i)));
+        }
+    }
+
+    // Quotes specified CSV value
+    private static String quote(@NonNull String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Analyses all the recordings in the directory passed as the first argument and writes the summary next to them.
+     * Optional second argument is the number of worker threads.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || !new File(args[0]).isDirectory()) {
+            System.err.println("Usage: BatchAnalysis <recordings directory> [thread count]");
+            System.exit(1);
+            return;
+        }
+
+        // Android logging is not available outside of a device
+        LogUtils.LOGGING_ENABLED = false;
+
+        final File directory = new File(args[0]);
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override public boolean accept(File file) {
+                final String name = file.getName();
+                return file.isFile() && (name.endsWith(".wav") || name.endsWith(LosslessAudioFile.EXTENSION));
+            }
+        });
+        final List<File> recordings = new ArrayList<>(Arrays.asList(files != null ? files : new File[0]));
+        Collections.sort(recordings);
+
+        final int threadCount =
+            args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final BatchAnalysis analysis =
+            new BatchAnalysis(threadCount, Runtime.getRuntime().maxMemory() / 2 / threadCount);
+
+        final long start = System.currentTimeMillis();
+        final List<FileResult> results = analysis.analyze(recordings, new ProgressListener() {
+            @Override public void onProgress(@NonNull FileResult result, int doneCount, int totalCount) {
+                final String status = result.getError() != null ? "failed (" + result.getError() + ")"
+                    : result.getSpikeCount() + " spikes";
+                System.out.println(String.format(Locale.US, "[%d/%d] %s: %s", doneCount, totalCount,
+                    result.getFile().getName(), status));
+            }
+        });
+
+        final File summary = new File(directory, SUMMARY_FILE_NAME);
+        writeSummary(results, summary);
+        System.out.println(String.format(Locale.US, "%d recordings analysed in %.1f s, summary written to %s",
+            results.size(), (System.currentTimeMillis() - start) / 1000f, summary.getPath()));
+    }
+
+    /**
+     * Result of the analysis of a single recording.
+     */
+    public static final class FileResult {
+
+        private final File file;
+        private final String error;
+        private final int sampleRate;
+        private final int channelCount;
+        private final long frameCount;
+        private final int spikeCount;
+        private final BYBHistogram isi;
+        private final BYBHistogram autocorrelation;
+
+        FileResult(@NonNull File file, @Nullable String error, int sampleRate, int channelCount, long frameCount,
+            int spikeCount, @Nullable BYBHistogram isi, @Nullable BYBHistogram autocorrelation) {
+            this.file = file;
+            this.error = error;
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.frameCount = frameCount;
+            this.spikeCount = spikeCount;
+            this.isi = isi;
+            this.autocorrelation = autocorrelation;
+        }
+
+        /**
+         * Returns analysed recording.
+         */
+        @NonNull public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns reason why recording couldn't be analysed, or {@code null} if it was analysed successfully.
+         */
+        @Nullable public String getError() {
+            return error;
+        }
+
+        /**
+         * Returns sample rate of the recording.
+         */
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        /**
+         * Returns number of channels in the recording.
+         */
+        public int getChannelCount() {
+            return channelCount;
+        }
+
+        /**
+         * Returns duration of the recording in seconds.
+         */
+        public float getDuration() {
+            return sampleRate > 0 ? (float) frameCount / sampleRate : 0;
+        }
+
+        /**
+         * Returns number of spikes found in the recording.
+         */
+        public int getSpikeCount() {
+            return spikeCount;
+        }
+
+        /**
+         * Returns average number of spikes per second.
+         */
+        public float getSpikeRate() {
+            final float duration = getDuration();
+            return duration > 0 ? spikeCount / duration : 0;
+        }
+
+        /**
+         * Returns histogram of inter spike intervals, or {@code null} if recording couldn't be analysed.
+         */
+        @Nullable public BYBHistogram getIsi() {
+            return isi;
+        }
+
+        /**
+         * Returns autocorrelation histogram, or {@code null} if recording couldn't be analysed.
+         */
+        @Nullable public BYBHistogram getAutocorrelation() {
+            return autocorrelation;
+        }
+    }
+}
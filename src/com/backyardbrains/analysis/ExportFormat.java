@@ -0,0 +1,22 @@
+package com.backyardbrains.analysis;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+@Retention(RetentionPolicy.SOURCE) @IntDef({
+    ExportFormat.CSV, ExportFormat.BINARY
+}) public @interface ExportFormat {
+    /**
+     * Comma separated values, a section per exported result.
+     */
+    int CSV = 0;
+
+    /**
+     * Compact little-endian binary format, see {@link AnalysisExporter}.
+     */
+    int BINARY = 1;
+}
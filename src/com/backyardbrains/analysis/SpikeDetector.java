@@ -0,0 +1,245 @@
+package com.backyardbrains.analysis;
+
+import android.support.annotation.NonNull;
+import com.backyardbrains.audio.BYBAudioFile;
+import com.backyardbrains.audio.MultichannelRingBuffer;
+import com.backyardbrains.audio.StreamFormat;
+import com.backyardbrains.utils.AnalysisUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Finds spikes in the first channel of an audio file. Spikes are peaks that exceed twice the standard deviation of
+ * the signal (taken at the 40th percentile of the chunk deviations), found with a Schmitt trigger and filtered with a
+ * 5 ms kill interval.
+ *
+ * <p>Detection only reads the file sequentially and doesn't depend on Android, so it's shared by interactive and
+ * batch analysis.
+ *
+ * <p>Deviations are calculated for chunks of {@link #CHUNK_SECONDS}. Interactive detection used to use chunks of the
+ * device's audio output buffer size, so thresholds, and with them spikes found in existing recordings, can differ
+ * from the ones found before. Spikes files save the chunk size they were found with, so the ones saved with the old
+ * chunk size are discarded and spikes are found again.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+final class SpikeDetector {
+
+    private static final String TAG = makeLogTag(SpikeDetector.class);
+
+    private static final int SCHMITT_ON = 1;
+    private static final int SCHMITT_OFF = 2;
+    private static final float MIN_TOTAL_SECONDS = 0.2f;
+
+    // channel of multichannel files in which spikes are found
+    static final int CHANNEL = 0;
+    // spikes are values that exceed standard deviation at this percentile (of the highest ones) multiplied by 2
+    static final float DEVIATION_PERCENTILE = 0.4f;
+    static final float DEVIATION_MULTIPLIER = 2f;
+    // of two spikes closer than this (in seconds) only the bigger one is kept
+    static final float KILL_INTERVAL = 0.005f;
+    // duration of the chunks for which standard deviations are calculated, fixed so found spikes don't depend on the
+    // device and saved spikes are reused by both interactive and batch analysis
+    static final float CHUNK_SECONDS = 0.1f;
+
+    private SpikeDetector() {
+    }
+
+    /**
+     * Returns number of bytes of a single channel for which standard deviation is calculated in audio of specified
+     * {@code sampleRate}.
+     */
+    static int getChunkSize(int sampleRate) {
+        return Math.max(2, (int) (sampleRate * CHUNK_SECONDS) * 2);
+    }
+
+    /**
+     * Returns spikes found in specified {@code audioFile}. Spikes saved in the sidecar file are returned if they were
+     * found with the same parameters and the file hasn't changed since, otherwise spikes are detected and saved.
+     *
+     * @param chunkSize Number of bytes of a single channel for which standard deviation is calculated.
+     * @param maxSpikeCount Maximum number of spikes that can be found, bounds the memory used by detection.
+     * @throws IOException if file can't be read or more than {@code maxSpikeCount} spikes are found
+     */
+    @NonNull static BYBSpike[] findSpikes(@NonNull BYBAudioFile audioFile, int chunkSize, int maxSpikeCount)
+        throws IOException {
+        final File file = new File(audioFile.getAbsolutePath());
+        final BYBSpike[] savedSpikes = SpikesFile.read(file, CHANNEL, audioFile.sampleRate(), chunkSize);
+        if (savedSpikes != null) return savedSpikes;
+
+        final BYBSpike[] spikes = detect(audioFile, chunkSize, maxSpikeCount);
+        try {
+            SpikesFile.write(file, CHANNEL, audioFile.sampleRate(), chunkSize, spikes);
+        } catch (IOException e) {
+            LOGE(TAG, "Error saving found spikes", e);
+        }
+
+        return spikes;
+    }
+
+    /**
+     * Detects spikes in specified {@code audioFile}, sorted by sample index. Returns no spikes if the file is shorter
+     * than {@link #MIN_TOTAL_SECONDS}.
+     *
+     * @param chunkSize Number of bytes of a single channel for which standard deviation is calculated.
+     * @param maxSpikeCount Maximum number of spikes that can be found, bounds the memory used by detection.
+     * @throws IOException if file can't be read or more than {@code maxSpikeCount} spikes are found
+     */
+    @NonNull static BYBSpike[] detect(@NonNull BYBAudioFile audioFile, int chunkSize, int maxSpikeCount)
+        throws IOException {
+        final StreamFormat format = new StreamFormat(audioFile.sampleRate(), audioFile.numChannels());
+        final int channelCount = format.getChannelCount();
+        final long totalSamples = format.getSampleCount(audioFile.length());
+        if (totalSamples < format.getSampleRate() * MIN_TOTAL_SECONDS) {
+            LOGD(TAG, "File to short! Don't process!");
+            return new BYBSpike[0];
+        }
+
+        long start = System.currentTimeMillis(); // for measuring execution time
+
+        // buffers are reused for all the chunks
+        final byte[] buffer = new byte[chunkSize * channelCount];
+        final ShortBuffer sb = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        final short[] shortBuffer = new short[buffer.length / 2 / channelCount];
+
+        // 1. FIRST LET'S FIND STANDARD DEVIATIONS FOR EVERY CHUNK
+        audioFile.seek(0);
+        final ArrayList<Float> standardDeviations = new ArrayList<>();
+        int read;
+        while ((read = audioFile.read(buffer)) > 0) {
+            final int count = deinterleave(sb, read, channelCount, shortBuffer);
+            standardDeviations.add(AnalysisUtils.STD(shortBuffer, 0, count));
+        }
+        LOGD(TAG, (System.currentTimeMillis() - start) + " - AFTER FINDING DEVIATIONS");
+
+        // 2. SORT DEVIATIONS ASCENDING
+        Collections.sort(standardDeviations);
+        Collections.reverse(standardDeviations);
+        LOGD(TAG, (System.currentTimeMillis() - start) + " - AFTER SORTING AND REVERSING DEVIATIONS");
+
+        // 3. DETERMINE ACCEPTABLE SPIKE VALUES WHICH ARE VALUES GRATER THEN 40% OF SDTs MULTIPLIED BY 2
+        float sig = DEVIATION_MULTIPLIER * standardDeviations.get(
+            (int) Math.ceil(((float) standardDeviations.size()) * DEVIATION_PERCENTILE));
+        float negSig = -1 * sig; // we need it for negative values as well
+
+        int schmittPosState = SCHMITT_OFF;
+        int schmittNegState = SCHMITT_OFF;
+        float maxPeakValue = Float.MIN_VALUE;
+        int maxPeakIndex = 0;
+        float minPeakValue = Float.MAX_VALUE;
+        int minPeakIndex = 0;
+
+        ArrayList<BYBSpike> peaksIndexes = new ArrayList<>();
+        ArrayList<BYBSpike> peaksIndexesNeg = new ArrayList<>();
+
+        // go to beginning of the file cause we need to run through it again to find spikes
+        audioFile.seek(0);
+
+        // 4. NOW THAT WE HAVE BORDER VALUES LET'S FIND THE SPIKES IMPLEMENTING SCHMITT TRIGGER
+        int index = 0;
+        while ((read = audioFile.read(buffer)) > 0) {
+            final int count = deinterleave(sb, read, channelCount, shortBuffer);
+
+            // find peaks
+            for (int s = 0; s < count; s++) {
+                final short aShortBuffer = shortBuffer[s];
+                // determine state of positive schmitt trigger
+                if (schmittPosState == SCHMITT_OFF && aShortBuffer > sig) {
+                    schmittPosState = SCHMITT_ON;
+                    maxPeakValue = Float.MIN_VALUE;
+                } else if (schmittPosState == SCHMITT_ON && aShortBuffer < 0) {
+                    schmittPosState = SCHMITT_OFF;
+                    peaksIndexes.add(
+                        new BYBSpike(maxPeakValue, maxPeakIndex, ((float) maxPeakIndex) / audioFile.sampleRate()));
+                }
+
+                // determine state of negative schmitt trigger
+                if (schmittNegState == SCHMITT_OFF && aShortBuffer < negSig) {
+                    schmittNegState = SCHMITT_ON;
+                    minPeakValue = Float.MAX_VALUE;
+                } else if (schmittNegState == SCHMITT_ON && aShortBuffer > 0) {
+                    schmittNegState = SCHMITT_OFF;
+                    peaksIndexesNeg.add(
+                        new BYBSpike(minPeakValue, minPeakIndex, ((float) minPeakIndex) / audioFile.sampleRate()));
+                }
+
+                // find max in positive peak
+                if (schmittPosState == SCHMITT_ON && aShortBuffer > maxPeakValue) {
+                    maxPeakValue = aShortBuffer;
+                    maxPeakIndex = index;
+                }
+
+                // find min in negative peak
+                else if (schmittNegState == SCHMITT_ON && aShortBuffer < minPeakValue) {
+                    minPeakValue = aShortBuffer;
+                    minPeakIndex = index;
+                }
+
+                index++;
+            }
+
+            if (peaksIndexes.size() + peaksIndexesNeg.size() > maxSpikeCount) {
+                throw new IOException("More than " + maxSpikeCount + " spikes found");
+            }
+        }
+        LOGD(TAG, (System.currentTimeMillis() - start) + " - AFTER FINDING SPIKES");
+
+        // 5. FINALLY WE SHOULD FILTER FOUND SPIKES BY APPLYING KILL INTERVAL OF 5ms
+        filter(peaksIndexes, true);
+        filter(peaksIndexesNeg, false);
+        LOGD(TAG, (System.currentTimeMillis() - start) + " - AFTER FILTERING SPIKES");
+
+        peaksIndexes.addAll(peaksIndexesNeg);
+        Collections.sort(peaksIndexes, new Comparator<BYBSpike>() {
+            @Override public int compare(BYBSpike o1, BYBSpike o2) {
+                return o1.index - o2.index;
+            }
+        });
+
+        return peaksIndexes.toArray(new BYBSpike[peaksIndexes.size()]);
+    }
+
+    // Copies samples of the analysed channel out of the first read bytes of the chunk and returns their number
+    private static int deinterleave(@NonNull ShortBuffer sb, int read, int channelCount, @NonNull short[] dst) {
+        sb.clear();
+        sb.limit(read / 2 - (read / 2) % channelCount);
+        return MultichannelRingBuffer.deinterleave(sb.slice(), channelCount, CHANNEL, dst, 0);
+    }
+
+    // Removes the smaller of every two spikes that are closer than kill interval. For negative spikes smaller means
+    // closer to zero.
+    private static void filter(@NonNull List<BYBSpike> peaks, boolean positive) {
+        int i;
+        if (peaks.size() > 0) {
+            for (i = 0; i < peaks.size() - 1; i++) { // look on the right
+                if (positive ? peaks.get(i).value < peaks.get(i + 1).value
+                    : peaks.get(i).value > peaks.get(i + 1).value) {
+                    if ((peaks.get(i + 1).time - peaks.get(i).time) < KILL_INTERVAL) {
+                        peaks.remove(i);
+                        i--;
+                    }
+                }
+            }
+            for (i = 1; i < peaks.size(); i++) { // look on the left neighbor
+                if (positive ? peaks.get(i).value < peaks.get(i - 1).value
+                    : peaks.get(i).value > peaks.get(i - 1).value) {
+                    if ((peaks.get(i).time - peaks.get(i - 1).time) < KILL_INTERVAL) {
+                        peaks.remove(i);
+                        i--;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.backyardbrains.analysis;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Sidecar file that holds spikes found in a recording, so they don't need to be searched for again every time the
+ * recording is analysed. Besides the spikes the file holds parameters of the detector that found them and fingerprint
+ * of the recording (length, modification time and checksum of its first and last bytes). If any of them doesn't match
+ * the current ones the sidecar is considered stale and is deleted.
+ *
+ * <p>File layout (little-endian): header, sample index of every spike as an int, amplitude of every spike as a float.
+ * Spikes are stored column by column so they can be read straight from the memory-mapped file.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public final class SpikesFile {
+
+    private static final String TAG = makeLogTag(SpikesFile.class);
+
+    /**
+     * Extension that's appended to the recording file name to get the name of its spikes file.
+     */
+    public static final String EXTENSION = ".spikes";
+
+    // "BYBS" in little-endian
+    private static final int MAGIC = 0x53425942;
+    private static final short VERSION = 1;
+    // magic, version, channel, sample rate, detector parameters, fingerprint and spike count
+    private static final int HEADER_SIZE = 4 + 2 + 2 + 4 + 4 * 4 + 8 + 8 + 4 + 4;
+    // offset of the detector parameters that don't depend on the recording format
+    private static final int PARAMETERS_OFFSET = 4 + 2 + 2 + 4 + 4;
+    // number of bytes at the start and at the end of the recording that are included in the checksum
+    private static final int FINGERPRINT_BYTE_COUNT = 4096;
+
+    private SpikesFile() {
+    }
+
+    /**
+     * Returns file that holds spikes found in specified {@code recording}.
+     */
+    @NonNull public static File getFile(@NonNull File recording) {
+        return new File(recording.getPath() + EXTENSION);
+    }
+
+    /**
+     * Reads spikes saved for specified {@code recording} by the detector with specified parameters. Returns {@code
+     * null} if spikes haven't been saved yet, if the recording changed in the meantime or if they were found by the
+     * detector with different parameters.
+     */
+    @Nullable static BYBSpike[] read(@NonNull File recording, int channel, int sampleRate, int chunkSize) {
+        final File file = getFile(recording);
+        if (!file.exists()) return null;
+
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel channelFile = raf.getChannel();
+                final long size = channelFile.size();
+                if (size < HEADER_SIZE) return invalidate(file);
+
+                final MappedByteBuffer mapped = channelFile.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+                // everything but the spike count should be the same as in the header we'd write now
+                final ByteBuffer expected = createHeader(recording, channel, sampleRate, chunkSize, 0);
+                for (int i = 0; i < HEADER_SIZE - 4; i++) {
+                    if (mapped.get(i) != expected.get(i)) return invalidate(file);
+                }
+                final int count = mapped.getInt(HEADER_SIZE - 4);
+                if (count < 0 || size != HEADER_SIZE + 8L * count) return invalidate(file);
+
+                mapped.position(HEADER_SIZE);
+                final IntBuffer indices = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                mapped.position(HEADER_SIZE + 4 * count);
+                final FloatBuffer values = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+                final BYBSpike[] spikes = new BYBSpike[count];
+                for (int i = 0; i < count; i++) {
+                    final int index = indices.get(i);
+                    spikes[i] = new BYBSpike(values.get(i), index, ((float) index) / sampleRate);
+                }
+
+                LOGD(TAG, count + " spikes read from " + file.getName());
+                return spikes;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Error reading spikes file " + file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns number of spikes saved for specified {@code recording}, or {@code -1} if spikes haven't been saved yet,
+     * if the recording changed in the meantime or if they were found by the detector with different parameters. Only
+     * the header is read and stale file is not deleted, so this can be used to describe many recordings at once.
+     */
+    public static int readCount(@NonNull File recording) {
+        final File file = getFile(recording);
+        if (!file.exists()) return -1;
+
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (raf.length() < HEADER_SIZE) return -1;
+                raf.readFully(header.array());
+            } finally {
+                raf.close();
+            }
+
+            return isValid(header, recording, file.length()) ? header.getInt(HEADER_SIZE - 4) : -1;
+        } catch (IOException e) {
+            LOGE(TAG, "Error reading spikes file " + file.getAbsolutePath(), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Maps spikes saved for specified {@code recording} without reading them into memory, so any number of them can be
+     * processed sequentially. Returns {@code null} under the same conditions as {@link #readCount(File)}. Mapping
+     * stays valid until it's garbage collected.
+     *
+     * @throws IOException if file can't be mapped
+     */
+    @Nullable static Columns map(@NonNull File recording) throws IOException {
+        final File file = getFile(recording);
+        if (!file.exists()) return null;
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channelFile = raf.getChannel();
+            final long size = channelFile.size();
+            if (size < HEADER_SIZE) return null;
+
+            final MappedByteBuffer mapped = channelFile.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (!isValid(mapped, recording, size)) return null;
+
+            final int count = mapped.getInt(HEADER_SIZE - 4);
+            mapped.position(HEADER_SIZE);
+            final IntBuffer indices = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            indices.limit(count);
+            mapped.position(HEADER_SIZE + 4 * count);
+            final FloatBuffer values = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+            return new Columns(mapped.getInt(8), indices, values);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Saves specified {@code spikes} found in specified {@code recording} by the detector with specified parameters.
+     * Spikes are first written to a temporary file which then replaces the existing one, so readers never see a
+     * partially written file.
+     *
+     * @throws IOException if file can't be written
+     */
+    static void write(@NonNull File recording, int channel, int sampleRate, int chunkSize, @NonNull BYBSpike[] spikes)
+        throws IOException {
+        final File file = getFile(recording);
+        final File tmp = new File(file.getPath() + ".tmp");
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * spikes.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(createHeader(recording, channel, sampleRate, chunkSize, spikes.length));
+        for (BYBSpike spike : spikes) {
+            buffer.putInt(spike.index);
+        }
+        for (BYBSpike spike : spikes) {
+            buffer.putFloat(spike.value);
+        }
+
+        final FileOutputStream outputStream = new FileOutputStream(tmp);
+        try {
+            outputStream.write(buffer.array());
+        } finally {
+            outputStream.close();
+        }
+        if (!tmp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Can't replace spikes file " + file.getAbsolutePath());
+        }
+
+        LOGD(TAG, spikes.length + " spikes written to " + file.getName());
+    }
+
+    // Creates header for the spikes found in specified recording with specified detector parameters
+    private static ByteBuffer createHeader(@NonNull File recording, int channel, int sampleRate, int chunkSize,
+        int count) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort((short) channel);
+        header.putInt(sampleRate);
+        // detector parameters
+        header.putInt(chunkSize);
+        header.putFloat(SpikeDetector.DEVIATION_PERCENTILE);
+        header.putFloat(SpikeDetector.DEVIATION_MULTIPLIER);
+        header.putFloat(SpikeDetector.KILL_INTERVAL);
+        // recording fingerprint
+        header.putLong(recording.length());
+        header.putLong(recording.lastModified());
+        header.putInt(checksum(recording));
+        header.putInt(count);
+        header.flip();
+
+        return header;
+    }
+
+    // Returns whether specified header belongs to a spikes file of specified size saved for specified recording. Format
+    // of the recording is taken as it is, everything after it should match.
+    private static boolean isValid(@NonNull ByteBuffer header, @NonNull File recording, long fileSize)
+        throws IOException {
+        if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION) return false;
+
+        final ByteBuffer expected =
+            createHeader(recording, header.getShort(6), header.getInt(8), header.getInt(12), 0);
+        for (int i = PARAMETERS_OFFSET; i < HEADER_SIZE - 4; i++) {
+            if (header.get(i) != expected.get(i)) return false;
+        }
+        final int count = header.getInt(HEADER_SIZE - 4);
+        return count >= 0 && fileSize == HEADER_SIZE + 8L * count;
+    }
+
+    // Returns checksum of the first and the last bytes of specified recording
+    private static int checksum(@NonNull File recording) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[FINGERPRINT_BYTE_COUNT];
+        final RandomAccessFile raf = new RandomAccessFile(recording, "r");
+        try {
+            final long length = raf.length();
+            int count = (int) Math.min(length, FINGERPRINT_BYTE_COUNT);
+            raf.readFully(buffer, 0, count);
+            crc.update(buffer, 0, count);
+            if (length > FINGERPRINT_BYTE_COUNT) {
+                count = (int) Math.min(length - FINGERPRINT_BYTE_COUNT, FINGERPRINT_BYTE_COUNT);
+                raf.seek(length - count);
+                raf.readFully(buffer, 0, count);
+                crc.update(buffer, 0, count);
+            }
+        } finally {
+            raf.close();
+        }
+
+        return (int) crc.getValue();
+    }
+
+    // Deletes specified stale spikes file and returns null
+    private static BYBSpike[] invalidate(@NonNull File file) {
+        LOGD(TAG, "Spikes file " + file.getName() + " is stale, deleting it");
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Spikes saved for a recording, one column per spike property.
+     */
+    static final class Columns {
+
+        final int sampleRate;
+        // sample index of every spike
+        final IntBuffer indices;
+        // amplitude of every spike
+        final FloatBuffer values;
+
+        Columns(int sampleRate, @NonNull IntBuffer indices, @NonNull FloatBuffer values) {
+            this.sampleRate = sampleRate;
+            this.indices = indices;
+            this.values = values;
+        }
+    }
+}
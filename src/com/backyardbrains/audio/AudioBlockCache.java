@@ -0,0 +1,140 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+
+/**
+ * Least recently used cache of fixed size, block aligned chunks of an audio file. Reads that fall into already cached
+ * blocks are served from memory, so repeatedly reading windows around nearby positions (e.g. while scrubbing through
+ * the recording) touches the storage only for the blocks that haven't been read recently.
+ *
+ * <p>Blocks are allocated once, when cache is created, and reused on eviction, so reading doesn't allocate anything.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class AudioBlockCache {
+
+    /**
+     * Size of a single cached block in bytes.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final long NO_BLOCK = -1;
+
+    private final BYBAudioFile file;
+
+    private final byte[][] blocks;
+    // index of the file block that's held in each cache slot
+    private final long[] blockIndices;
+    // number of valid bytes in each cache slot, last block of the file can be shorter than BLOCK_SIZE
+    private final int[] blockLengths;
+    // last time (in number of lookups) each cache slot was used
+    private final long[] lastUsed;
+    private long lookupCount;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param file File from which the blocks are read.
+     * @param blockCount Maximum number of blocks the cache holds.
+     */
+    AudioBlockCache(@NonNull BYBAudioFile file, int blockCount) {
+        this.file = file;
+
+        blocks = new byte[blockCount][BLOCK_SIZE];
+        blockIndices = new long[blockCount];
+        blockLengths = new int[blockCount];
+        lastUsed = new long[blockCount];
+        clear();
+    }
+
+    /**
+     * Reads up to {@code len} bytes starting at specified {@code position} of the file and copies them to specified
+     * {@code dst} array starting at {@code off}. Returns number of copied bytes which is smaller than {@code len} only
+     * if end of the file has been reached, or {@code -1} if {@code position} is beyond the end of file.
+     *
+     * @throws IOException if block that isn't cached can't be read from the file.
+     */
+    synchronized int read(long position, @NonNull byte[] dst, int off, int len) throws IOException {
+        int copied = 0;
+        while (copied < len) {
+            final long blockIndex = (position + copied) / BLOCK_SIZE;
+            final int slot = getBlock(blockIndex);
+            final int blockOffset = (int) (position + copied - blockIndex * BLOCK_SIZE);
+            final int count = Math.min(len - copied, blockLengths[slot] - blockOffset);
+            if (count <= 0) break; // end of file
+
+            System.arraycopy(blocks[slot], blockOffset, dst, off + copied, count);
+            copied += count;
+        }
+
+        return copied > 0 || len == 0 ? copied : -1;
+    }
+
+    /**
+     * Returns number of block lookups that were served from memory.
+     */
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns number of block lookups that needed to be read from the file.
+     */
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Evicts all cached blocks.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < blockIndices.length; i++) {
+            blockIndices[i] = NO_BLOCK;
+            blockLengths[i] = 0;
+            lastUsed[i] = 0;
+        }
+    }
+
+    // Returns cache slot that holds block with specified index, reading it from the file into the least recently used
+    // slot if it's not cached.
+    private int getBlock(long blockIndex) throws IOException {
+        lookupCount++;
+
+        int lruSlot = 0;
+        for (int i = 0; i < blockIndices.length; i++) {
+            if (blockIndices[i] == blockIndex) {
+                hitCount++;
+                lastUsed[i] = lookupCount;
+                return i;
+            }
+            if (lastUsed[i] < lastUsed[lruSlot]) lruSlot = i;
+        }
+
+        missCount++;
+        // slot is invalidated first so it's not left holding a partially read block if reading fails
+        blockIndices[lruSlot] = NO_BLOCK;
+        blockLengths[lruSlot] = readBlock(blockIndex, blocks[lruSlot]);
+        blockIndices[lruSlot] = blockIndex;
+        lastUsed[lruSlot] = lookupCount;
+
+        return lruSlot;
+    }
+
+    // Reads block with specified index into specified array and returns number of read bytes
+    private int readBlock(long blockIndex, byte[] block) throws IOException {
+        final long position = blockIndex * BLOCK_SIZE;
+        if (position >= file.length()) return 0;
+
+        file.seek(position);
+        int read = 0;
+        while (read < block.length) {
+            final int count = file.read(block, read, block.length - read);
+            if (count < 0) break;
+            read += count;
+        }
+
+        return read;
+    }
+}
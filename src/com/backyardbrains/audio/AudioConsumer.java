@@ -0,0 +1,18 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Consumers of the captured audio chunks whose latency is tracked by {@link AudioPipelineMetrics}.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+@Retention(RetentionPolicy.SOURCE) @IntDef({
+    AudioConsumer.RING_BUFFER, AudioConsumer.AVERAGER, AudioConsumer.RECORDER
+}) public @interface AudioConsumer {
+    int RING_BUFFER = 0;
+    int AVERAGER = 1;
+    int RECORDER = 2;
+}
@@ -0,0 +1,202 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Core of the live audio processing. Chunks of interleaved frames received from the sample source are added to the
+ * ring buffer, from which they are drawn, and samples of the selected channel are passed to the averager while
+ * threshold is shown. Pipeline doesn't depend on Android, so it can also be driven off the device by {@link
+ * PipelineHarness}.
+ *
+ * <p>Pipeline is not thread-safe. Chunks are added and settings changed while holding the lock of the owner ({@link
+ * AudioService}), while ring buffer and averager can be read from any thread without locking.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class AudioPipeline {
+
+    private final int ringBufferSeconds;
+    private final ThresholdHelper averager;
+    private final AudioPipelineMetrics metrics = AudioPipelineMetrics.get();
+
+    // format of the audio that's currently processed, either by the sample source or the playback
+    private volatile StreamFormat format;
+    private volatile MultichannelRingBuffer audioBuffer;
+    // channel that's drawn, averaged and played when audio has more than one channel
+    private volatile int selectedChannel;
+    // reads selected channel from the audio buffer for the averager
+    private MultichannelRingBuffer.Cursor averagerCursor;
+    // reused chunk of selected channel samples that's passed to the averager
+    private ShortBuffer averagerChunk;
+    private boolean useAverager;
+
+    /**
+     * @param format Initial format of the processed audio.
+     * @param ringBufferSeconds Number of seconds of audio ring buffer holds.
+     */
+    AudioPipeline(@NonNull StreamFormat format, int ringBufferSeconds) {
+        this.format = format;
+        this.ringBufferSeconds = ringBufferSeconds;
+        audioBuffer = new MultichannelRingBuffer(format.getChannelCount(), format.getSampleRate() * ringBufferSeconds);
+        averager = new ThresholdHelper();
+        averager.setSampleRate(format.getSampleRate());
+    }
+
+    /**
+     * Returns format of the audio that's currently processed.
+     */
+    @NonNull StreamFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets format of the processed audio and resizes the ring buffer and the averager to hold the same amount of time.
+     * Returns {@code false} if format didn't change.
+     */
+    boolean setFormat(@NonNull StreamFormat format) {
+        if (format.equals(this.format)) return false;
+
+        final boolean sampleRateChanged = format.getSampleRate() != this.format.getSampleRate();
+        this.format = format;
+        audioBuffer = new MultichannelRingBuffer(format.getChannelCount(), format.getSampleRate() * ringBufferSeconds);
+        if (sampleRateChanged) averager.setSampleRate(format.getSampleRate());
+        // new buffer needs a new cursor, and selected channel might not exist anymore
+        setSelectedChannel(selectedChannel);
+
+        return true;
+    }
+
+    /**
+     * Returns buffer that holds the latest samples of all channels.
+     */
+    @NonNull MultichannelRingBuffer getAudioBuffer() {
+        return audioBuffer;
+    }
+
+    /**
+     * Returns averager of the samples around the threshold hits.
+     */
+    @NonNull ThresholdHelper getAverager() {
+        return averager;
+    }
+
+    /**
+     * Returns channel that's drawn, averaged and played.
+     */
+    int getSelectedChannel() {
+        return selectedChannel;
+    }
+
+    /**
+     * Sets channel that's drawn, averaged and played. Channel is reset to the first one if it doesn't exist in the
+     * current format.
+     */
+    void setSelectedChannel(int channel) {
+        selectedChannel = channel >= 0 && channel < format.getChannelCount() ? channel : 0;
+        // averager continues from the latest sample of the new channel
+        averagerCursor = null;
+    }
+
+    /**
+     * Sets whether received samples should be averaged.
+     */
+    void setUseAverager(boolean useAverager) {
+        this.useAverager = useAverager;
+        averagerCursor = null;
+    }
+
+    /**
+     * Clears the ring buffer.
+     */
+    void clear() {
+        audioBuffer.clear();
+        averagerCursor = null;
+    }
+
+    /**
+     * Adds specified chunk of interleaved little-endian frames received from the sample source.
+     */
+    void add(@NonNull ByteBuffer audioInfo) {
+        if (!useAverager) {
+            audioBuffer.add(audioInfo);
+            onChunkBuffered();
+        } else if (format.getChannelCount() == 1) {
+            averager.push(audioInfo);
+            metrics.onChunkConsumed(AudioConsumer.AVERAGER);
+        } else {
+            audioBuffer.add(audioInfo);
+            onChunkBuffered();
+            pushSelectedChannelToAverager();
+            metrics.onChunkConsumed(AudioConsumer.AVERAGER);
+        }
+    }
+
+    /**
+     * Adds specified chunk of interleaved frames received from the sample source.
+     */
+    void add(@NonNull ShortBuffer audioInfo) {
+        if (!useAverager) {
+            audioBuffer.add(audioInfo);
+            onChunkBuffered();
+        } else if (format.getChannelCount() == 1) {
+            averager.push(audioInfo);
+            metrics.onChunkConsumed(AudioConsumer.AVERAGER);
+        } else {
+            audioBuffer.add(audioInfo);
+            onChunkBuffered();
+            pushSelectedChannelToAverager();
+            metrics.onChunkConsumed(AudioConsumer.AVERAGER);
+        }
+    }
+
+    /**
+     * Passes specified chunk of played interleaved little-endian frames to averager if it's used. Played samples are
+     * drawn straight from the file so they don't need to go through the ring buffer.
+     */
+    void addPlayed(@NonNull ByteBuffer audioInfo) {
+        if (!useAverager) return;
+
+        final int channelCount = format.getChannelCount();
+        if (channelCount == 1) {
+            averager.push(audioInfo);
+        } else {
+            // averager processes only the selected channel
+            audioInfo.clear();
+            final ShortBuffer samples = audioInfo.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            final ShortBuffer chunk = getAveragerChunk(samples.capacity() / channelCount);
+            MultichannelRingBuffer.deinterleave(samples, channelCount, selectedChannel, chunk.array(), 0);
+            averager.push(chunk);
+        }
+    }
+
+    // Records that current chunk was added to the ring buffer, so renderers can find out when it was captured
+    private void onChunkBuffered() {
+        metrics.onChunkBuffered(audioBuffer.getSequence());
+        metrics.onChunkConsumed(AudioConsumer.RING_BUFFER);
+    }
+
+    // Passes samples of the selected channel that were added to the ring buffer since the last call to averager.
+    // After the buffer or the selected channel changes averager starts with the next chunk.
+    private void pushSelectedChannelToAverager() {
+        if (averagerCursor == null) {
+            averagerCursor = audioBuffer.newCursor(selectedChannel);
+            return;
+        }
+
+        final ShortBuffer chunk = getAveragerChunk((int) Math.min(averagerCursor.getAvailable(), audioBuffer.size()));
+        if (averagerCursor.read(chunk.array(), 0) > 0) averager.push(chunk);
+    }
+
+    // Returns chunk that holds exactly specified number of samples. Averager processes whole chunks, so chunk is
+    // reallocated only when chunk size changes, which doesn't happen while the same source is being processed.
+    private ShortBuffer getAveragerChunk(int sampleCount) {
+        if (averagerChunk == null || averagerChunk.capacity() != sampleCount) {
+            averagerChunk = ShortBuffer.wrap(new short[sampleCount]);
+        }
+
+        return averagerChunk;
+    }
+}
@@ -0,0 +1,305 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import com.backyardbrains.utils.LatencyHistogram;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency, jitter and overrun statistics of the live audio pipeline, shared by all sample sources.
+ *
+ * <p>Sample source stamps every chunk it captures with a sample counter, which is the position of the first frame of
+ * the chunk within the captured stream, and with the time when the chunk was captured. Frames the source failed to
+ * capture still advance the counter, so every discontinuity between consecutive chunks is recorded as a gap. Chunks are
+ * passed to consumers synchronously on the capture thread, and each {@link AudioConsumer} records its latency, the time
+ * from capture until it's done with the chunk, once it is. Consumers that queue chunks for another thread also report
+ * depth of their queues. Renderers record capture to render latency when they draw the latest chunk for the first time,
+ * which is measured on the CPU up to the moment drawing commands are issued.
+ *
+ * <p>Jitter is the difference between the actual time between two captured chunks and the duration of the first one.
+ *
+ * <p>Recording doesn't allocate nor block, so it can be done on the audio threads while statistics are read on the main
+ * thread.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class AudioPipelineMetrics {
+
+    private static final AudioPipelineMetrics INSTANCE = new AudioPipelineMetrics();
+
+    private static final int CONSUMER_COUNT = 3;
+    private static final String[] CONSUMER_NAMES = { "ring buffer", "averager", "recorder" };
+    // number of latest chunks whose ring buffer sequence is remembered so renderers can find their capture time
+    private static final int CHUNK_HISTORY_SIZE = 64;
+
+    private final LatencyHistogram jitter = new LatencyHistogram();
+    private final LatencyHistogram[] consumerLatencies = new LatencyHistogram[CONSUMER_COUNT];
+    private final LatencyHistogram renderLatency = new LatencyHistogram();
+    private final AtomicIntegerArray queueDepths = new AtomicIntegerArray(CONSUMER_COUNT);
+    private final AtomicIntegerArray maxQueueDepths = new AtomicIntegerArray(CONSUMER_COUNT);
+    private final AtomicLong chunkCount = new AtomicLong();
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong gapCount = new AtomicLong();
+    private final AtomicLong lostFrameCount = new AtomicLong();
+
+    // ring buffer sequence of the last frame of the latest chunks and their capture times
+    private final AtomicLongArray historySequences = new AtomicLongArray(CHUNK_HISTORY_SIZE);
+    private final AtomicLongArray historyCaptureNanos = new AtomicLongArray(CHUNK_HISTORY_SIZE);
+    private final AtomicLong lastRenderedSequence = new AtomicLong(-1);
+
+    // state of the chunk that's being passed to consumers, accessed only on the capture thread
+    private int sampleRate;
+    private long chunkCaptureNanos;
+    private int chunkFrameCount;
+    private long nextCounter = -1;
+    private int historyIndex;
+
+    private AudioPipelineMetrics() {
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            consumerLatencies[i] = new LatencyHistogram();
+        }
+        clearHistory();
+    }
+
+    /**
+     * Returns metrics of the audio pipeline.
+     */
+    @NonNull public static AudioPipelineMetrics get() {
+        return INSTANCE;
+    }
+
+    //==============================================
+    //  RECORDING
+    //==============================================
+
+    /**
+     * Starts a new captured stream of specified {@code format}. Should be called on the capture thread before the first
+     * chunk is captured.
+     */
+    void start(@NonNull StreamFormat format) {
+        sampleRate = format.getSampleRate();
+        chunkCaptureNanos = 0;
+        nextCounter = -1;
+        clearHistory();
+    }
+
+    /**
+     * Stamps the chunk of {@code frameCount} frames that was just captured with specified sample {@code counter} and
+     * current time. Should be called on the capture thread before the chunk is passed to consumers.
+     */
+    void onChunkCaptured(long counter, int frameCount) {
+        final long now = System.nanoTime();
+        if (nextCounter >= 0 && counter != nextCounter) {
+            gapCount.incrementAndGet();
+            if (counter > nextCounter) lostFrameCount.addAndGet(counter - nextCounter);
+        }
+        if (chunkCaptureNanos > 0 && sampleRate > 0) {
+            final long expectedNanos = chunkFrameCount * 1000000000L / sampleRate;
+            jitter.record(Math.abs(now - chunkCaptureNanos - expectedNanos));
+        }
+
+        chunkCaptureNanos = now;
+        chunkFrameCount = frameCount;
+        nextCounter = counter + frameCount;
+        chunkCount.incrementAndGet();
+        this.frameCount.addAndGet(frameCount);
+    }
+
+    /**
+     * Records latency of specified {@code consumer} that's just done with the current chunk. Should be called on the
+     * capture thread.
+     */
+    void onChunkConsumed(@AudioConsumer int consumer) {
+        if (chunkCaptureNanos > 0) consumerLatencies[consumer].record(System.nanoTime() - chunkCaptureNanos);
+    }
+
+    /**
+     * Remembers that the current chunk ends with the frame with specified ring buffer {@code sequence}, so its capture
+     * time can be found once it's rendered. Should be called on the capture thread.
+     */
+    void onChunkBuffered(long sequence) {
+        if (chunkCaptureNanos == 0) return;
+
+        final int index = historyIndex;
+        historyIndex = (historyIndex + 1) % CHUNK_HISTORY_SIZE;
+        // readers ignore the entry while it's being replaced
+        historySequences.set(index, -1);
+        historyCaptureNanos.set(index, chunkCaptureNanos);
+        historySequences.set(index, sequence);
+    }
+
+    /**
+     * Sets number of chunks waiting in the queue of specified {@code consumer}.
+     */
+    void setQueueDepth(@AudioConsumer int consumer, int depth) {
+        queueDepths.set(consumer, depth);
+        int max;
+        do {
+            max = maxQueueDepths.get(consumer);
+        } while (depth > max && !maxQueueDepths.compareAndSet(consumer, max, depth));
+    }
+
+    /**
+     * Records capture to render latency of the chunk that ends with the frame with specified ring buffer {@code
+     * sequence}. Only the first rendering of every chunk is recorded, and nothing is recorded if chunk is too old to
+     * be remembered. Should be called right after the drawing commands are issued.
+     */
+    public void onRendered(long sequence) {
+        if (sequence < 0 || lastRenderedSequence.getAndSet(sequence) == sequence) return;
+
+        for (int i = 0; i < CHUNK_HISTORY_SIZE; i++) {
+            if (historySequences.get(i) != sequence) continue;
+
+            final long captureNanos = historyCaptureNanos.get(i);
+            // make sure entry wasn't replaced while it was being read
+            if (historySequences.get(i) == sequence) renderLatency.record(System.nanoTime() - captureNanos);
+            return;
+        }
+    }
+
+    // Forgets all remembered chunks
+    private void clearHistory() {
+        for (int i = 0; i < CHUNK_HISTORY_SIZE; i++) {
+            historySequences.set(i, -1);
+        }
+        lastRenderedSequence.set(-1);
+    }
+
+    //==============================================
+    //  READING
+    //==============================================
+
+    /**
+     * Returns number of captured chunks.
+     */
+    public long getChunkCount() {
+        return chunkCount.get();
+    }
+
+    /**
+     * Returns number of captured frames.
+     */
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    /**
+     * Returns number of detected discontinuities of the sample counter.
+     */
+    public long getGapCount() {
+        return gapCount.get();
+    }
+
+    /**
+     * Returns number of frames that were lost in detected gaps.
+     */
+    public long getLostFrameCount() {
+        return lostFrameCount.get();
+    }
+
+    /**
+     * Returns histogram of differences between actual and expected times between captured chunks.
+     */
+    @NonNull public LatencyHistogram getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Returns histogram of capture to consume latencies of specified {@code consumer}.
+     */
+    @NonNull public LatencyHistogram getLatency(@AudioConsumer int consumer) {
+        return consumerLatencies[consumer];
+    }
+
+    /**
+     * Returns histogram of capture to render latencies.
+     */
+    @NonNull public LatencyHistogram getRenderLatency() {
+        return renderLatency;
+    }
+
+    /**
+     * Returns number of chunks currently waiting in the queue of specified {@code consumer}.
+     */
+    public int getQueueDepth(@AudioConsumer int consumer) {
+        return queueDepths.get(consumer);
+    }
+
+    /**
+     * Returns the highest number of chunks that were waiting in the queue of specified {@code consumer}.
+     */
+    public int getMaxQueueDepth(@AudioConsumer int consumer) {
+        return maxQueueDepths.get(consumer);
+    }
+
+    /**
+     * Clears all collected statistics.
+     */
+    public void reset() {
+        jitter.reset();
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            consumerLatencies[i].reset();
+            queueDepths.set(i, 0);
+            maxQueueDepths.set(i, 0);
+        }
+        renderLatency.reset();
+        chunkCount.set(0);
+        frameCount.set(0);
+        gapCount.set(0);
+        lostFrameCount.set(0);
+    }
+
+    /**
+     * Returns human readable summary with chunk and gap counts, and p50/p95/p99 jitter and latencies in milliseconds.
+     */
+    @NonNull public String summary() {
+        final StringBuilder sb = new StringBuilder(
+            String.format(Locale.US, "Audio pipeline (%d chunks, %d gaps, %d frames lost)", getChunkCount(),
+                getGapCount(), getLostFrameCount()));
+        appendHistogram(sb, "jitter", jitter);
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            if (appendHistogram(sb, CONSUMER_NAMES[i], consumerLatencies[i]) && maxQueueDepths.get(i) > 0) {
+                sb.append(String.format(Locale.US, "  queue %d (max %d)", queueDepths.get(i), maxQueueDepths.get(i)));
+            }
+        }
+        appendHistogram(sb, "render", renderLatency);
+        return sb.toString();
+    }
+
+    /**
+     * Writes summary to specified {@code file}, either replacing its content or appending to it.
+     *
+     * @throws IOException if file can't be written
+     */
+    public void dump(@NonNull File file, boolean append) throws IOException {
+        final Writer writer = new FileWriter(file, append);
+        try {
+            writer.write(summary());
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Appends summary line of specified histogram if anything was recorded, and returns whether it was appended
+    private static boolean appendHistogram(@NonNull StringBuilder sb, @NonNull String name,
+        @NonNull LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) return false;
+
+        sb.append('\n')
+            .append(String.format(Locale.US, "%-11s p50 %6.2f  p95 %6.2f  p99 %6.2f  max %6.2f ms", name,
+                toMillis(histogram.getPercentileNanos(50)), toMillis(histogram.getPercentileNanos(95)),
+                toMillis(histogram.getPercentileNanos(99)), toMillis(histogram.getMaxNanos())));
+        return true;
+    }
+
+    private static float toMillis(long nanos) {
+        return nanos / 1000000f;
+    }
+}
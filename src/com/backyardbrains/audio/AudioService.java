@@ -33,11 +33,13 @@ import com.backyardbrains.events.AudioRecordingProgressEvent;
 import com.backyardbrains.events.AudioRecordingStartedEvent;
 import com.backyardbrains.events.AudioRecordingStoppedEvent;
 import com.backyardbrains.utils.ApacheCommonsLang3Utils;
-import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.ViewUtils;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import org.greenrobot.eventbus.EventBus;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
@@ -55,21 +57,27 @@ public class AudioService extends Service implements ReceivesAudio {
 
     private static final String TAG = makeLogTag(AudioService.class);
 
-    private static final int RING_BUFFER_NUM_SAMPLES = AudioUtils.SAMPLE_RATE * 6; // 6 seconds
+    private static final int RING_BUFFER_NUM_SECONDS = 6;
+    // during playback samples are read straight from the file so window can be longer than the ring buffer
+    private static final int PLAYBACK_WINDOW_NUM_SECONDS = 30;
+    // number of chunks per second framed stream samples are passed in (20 ms chunks)
+    private static final int STREAM_CHUNKS_PER_SECOND = 50;
 
     private final IBinder mBinder = new AudioServiceBinder();
 
-    private RingBuffer audioBuffer;
-    private MicListener micThread;
+    // ring buffer and averager, guarded by the service lock
+    private final AudioPipeline pipeline = new AudioPipeline(StreamFormat.DEFAULT, RING_BUFFER_NUM_SECONDS);
+    private SampleSource sampleSource;
     private PlaybackThread playbackThread;
-    private long lastBytePosition;
+    private int playbackReadAheadDepth = PlaybackThread.DEFAULT_READ_AHEAD_DEPTH;
+    private volatile long lastBytePosition;
     private RecordingSaver recordingSaver;
-
-    private ThresholdHelper averager;
-    private boolean useAverager;
+    private boolean recordingCompressed;
 
     private boolean created;
 
+    private final AudioPipelineMetrics metrics = AudioPipelineMetrics.get();
+
     /**
      * Provides a reference to {@link AudioService} to all bound clients.
      */
@@ -95,58 +103,163 @@ public class AudioService extends Service implements ReceivesAudio {
         return isPlaybackMode() && playbackThread.isSeeking();
     }
 
+    /**
+     * Returns format of the audio that's currently processed. All sample counts and positions returned by the service
+     * are in this format's timebase.
+     */
+    @NonNull public StreamFormat getStreamFormat() {
+        return pipeline.getFormat();
+    }
+
+    /**
+     * Returns channel of the processed audio that's drawn, averaged and played.
+     */
+    public int getSelectedChannel() {
+        return pipeline.getSelectedChannel();
+    }
+
+    /**
+     * Sets channel of the processed audio that's drawn, averaged and played. Channel is reset to the first one if it
+     * doesn't exist in the current audio format.
+     */
+    public void setSelectedChannel(int channel) {
+        synchronized (this) {
+            pipeline.setSelectedChannel(channel);
+        }
+        final PlaybackThread playbackThread = this.playbackThread;
+        if (playbackThread != null) playbackThread.setPlayedChannel(pipeline.getSelectedChannel());
+    }
+
     //=================================================
     //  RING BUFFER
     //=================================================
 
     /**
-     * return a byte array with in the appropriate order representing the last
-     * 1.5 seconds of audio or so
+     * Copies latest {@code count} samples of the selected channel of the audio buffer to the end of specified {@code
+     * dst} array, oldest sample first, and returns sequence number of the last copied sample, or {@code -1} if there
+     * is no audio buffer. Copy never contains partially written chunks and blocks audio threads only while it's made.
      *
-     * @return a ordinate-corrected version of the audio buffer
+     * <p>During playback samples are read straight from the played file through a block cache instead of the audio
+     * buffer, and copy ends with the sample that's currently being heard. Sequence numbers are then positions of the
+     * samples within the file.
      */
-    public short[] getAudioBuffer() {
-        return audioBuffer != null ? audioBuffer.getArray() : new short[0];
+    public long copyLatest(@NonNull short[] dst, int count) {
+        return copyLatest(pipeline.getSelectedChannel(), dst, count);
     }
 
-    public short[] getAverageBuffer() {
-        if (averager != null) {
-            return averager.getAveragedSamples();
-        } else {
-            return new short[0];
+    /**
+     * Copies latest {@code count} samples of specified {@code channel} of the audio buffer to the end of specified
+     * {@code dst} array. Returns {@code -1} if there is no audio buffer or the channel doesn't exist.
+     *
+     * @see #copyLatest(short[], int)
+     */
+    public long copyLatest(int channel, @NonNull short[] dst, int count) {
+        count = Math.min(Math.min(count, dst.length), getAudioBufferSize());
+
+        final PlaybackThread playbackThread = this.playbackThread;
+        if (playbackThread != null) {
+            final long endSample = getPlaybackProgress();
+            return playbackThread.copySamples(endSample, channel, dst, dst.length - count, count) ? endSample : -1;
         }
+
+        final MultichannelRingBuffer buffer = pipeline.getAudioBuffer();
+        if (channel < 0 || channel >= buffer.getChannelCount()) return -1;
+
+        return buffer.copyLatest(channel, dst, dst.length - count, count);
+    }
+
+    /**
+     * Returns position within the played file of the sample with specified {@code sequence} number returned by
+     * {@link #copyLatest(short[], int)}, or {@code 0} if audio is not being played.
+     */
+    public long getPlaybackSample(long sequence) {
+        return isPlaybackMode() ? Math.max(0, sequence) : 0;
+    }
+
+    /**
+     * Returns maximum number of samples that can be copied with {@link #copyLatest(short[], int)}.
+     */
+    public int getAudioBufferSize() {
+        if (isPlaybackMode()) return pipeline.getFormat().getSampleRate() * PLAYBACK_WINDOW_NUM_SECONDS;
+
+        return pipeline.getAudioBuffer().size();
+    }
+
+    /**
+     * Returns sequence number of the last sample in the audio buffer. Difference between two sequence numbers is the
+     * number of samples that were added to the buffer in the meantime. During playback this is the position of the
+     * sample that's currently being heard.
+     */
+    public long getAudioBufferSequence() {
+        if (isPlaybackMode()) return getPlaybackProgress();
+
+        return pipeline.getAudioBuffer().getSequence();
+    }
+
+    /**
+     * Returns sequence number that's advanced every time averager processes new audio. Averaged mono audio doesn't go
+     * through the audio buffer, so it doesn't advance audio buffer sequence.
+     */
+    public long getAveragedSequence() {
+        return created ? pipeline.getAverager().getAveragedSequence() : 0;
+    }
+
+    /**
+     * Returns number of samples that are averaged around the threshold hit, or {@code 0} if averager is not available.
+     */
+    public int getAveragedSampleCount() {
+        return created ? pipeline.getAverager().getAveragedSampleCount() : 0;
+    }
+
+    /**
+     * Copies {@code count} averaged samples centered around the threshold hit to the end of specified {@code dst}
+     * array. Copy never contains partially processed chunks and blocks audio threads only while it's made. Returns
+     * {@code false} if averager is not available.
+     */
+    public boolean copyAveragedSamples(@NonNull short[] dst, int count) {
+        if (!created) return false;
+
+        final ThresholdHelper averager = pipeline.getAverager();
+        count = Math.min(Math.min(count, dst.length), averager.getAveragedSampleCount());
+        averager.copyAveragedSamples(dst, dst.length - count, count);
+        return true;
     }
 
-    // Adds specified audio data to ring buffer and saves position of the last added byte (progress)
+    // Passes specified audio data to averager if it's used and saves position of the last added byte (progress).
     private void addToBuffer(ByteBuffer audioInfo, long lastBytePosition) {
-        // add audio data to buffer
-        addToBuffer(audioInfo);
+        pipeline.addPlayed(audioInfo);
         // last played byte position
         this.lastBytePosition = lastBytePosition;
     }
 
     // Adds specified audio data to ring buffer
     private void addToBuffer(ByteBuffer audioInfo) {
-        // add audio data to buffer
-        if (!useAverager) {
-            audioBuffer.add(audioInfo);
-        } else {
-            averager.push(audioInfo);
-        }
+        pipeline.add(audioInfo);
     }
 
     // Adds specified audio data to ring buffer
     private void addToBuffer(ShortBuffer audioInfo) {
-        if (!useAverager) {
-            audioBuffer.add(audioInfo);
-        } else {
-            averager.push(audioInfo);
+        pipeline.add(audioInfo);
+    }
+
+    // Sets format of the processed audio and resizes the ring buffer and the averager to hold the same amount of time
+    private void setFormat(@NonNull StreamFormat format) {
+        // audio threads add samples while holding the service lock
+        synchronized (this) {
+            if (!pipeline.setFormat(format)) return;
         }
+        LOGD(TAG, "Audio format changed to: " + format);
+        // selected channel might not exist anymore
+        final PlaybackThread playbackThread = this.playbackThread;
+        if (playbackThread != null) playbackThread.setPlayedChannel(pipeline.getSelectedChannel());
     }
 
     // Clears the ring buffer and resets last read byte position (progress)
     private void clearBuffer() {
-        audioBuffer.clear();
+        // audio threads add samples while holding the service lock so only one thread writes to the buffer at a time
+        synchronized (this) {
+            pipeline.clear();
+        }
         lastBytePosition = 0;
     }
 
@@ -155,24 +268,22 @@ public class AudioService extends Service implements ReceivesAudio {
     //=================================================
 
     @Nullable public Handler getTriggerHandler() {
-        if (averager != null) {
-            return averager.getHandler();
-        } else {
-            return null;
-        }
+        return created ? pipeline.getAverager().getHandler() : null;
     }
 
     public void setUseAverager(boolean bUse) {
         LOGD(TAG, "setUseAverager: " + (bUse ? "TRUE" : "FALSE"));
-        useAverager = bUse;
+        synchronized (this) {
+            pipeline.setUseAverager(bUse);
+        }
     }
 
     public void setThresholdAveragedSampleCount(int averagedSampleCount) {
-        averager.setMaxsize(averagedSampleCount);
+        pipeline.getAverager().setMaxsize(averagedSampleCount);
     }
 
     public int getThresholdAveragedSampleCount() {
-        return averager != null ? averager.getMaxsize() : ThresholdHelper.DEFAULT_SIZE;
+        return pipeline.getAverager().getMaxsize();
     }
 
     //=================================================
@@ -182,8 +293,6 @@ public class AudioService extends Service implements ReceivesAudio {
     @Override public void onCreate() {
         super.onCreate();
         LOGD(TAG, "onCreate()");
-        audioBuffer = new RingBuffer(RING_BUFFER_NUM_SAMPLES);
-        averager = new ThresholdHelper();
         turnOnMicThread();
 
         created = true;
@@ -199,8 +308,7 @@ public class AudioService extends Service implements ReceivesAudio {
         LOGD(TAG, "onDestroy()");
         turnOffMicThread();
         turnOffPlaybackThread();
-        averager.close();
-        averager = null;
+        pipeline.getAverager().close();
         super.onDestroy();
     }
 
@@ -239,7 +347,7 @@ public class AudioService extends Service implements ReceivesAudio {
     }
 
     @Override public void receiveAudio(ByteBuffer audioInfo, long lastBytePosition) {
-        // add audio to ring buffer
+        // save playback progress and pass audio to averager if needed
         addToBuffer(audioInfo, lastBytePosition);
     }
 
@@ -268,26 +376,79 @@ public class AudioService extends Service implements ReceivesAudio {
 
     private void turnOnMicThread() {
         LOGD(TAG, "turnOnMicThread()");
-        turnOffPlaybackThread();
-        if (micThread == null) {
-            micThread = null;
-            micThread = new MicListener(this);
+        if (sampleSource instanceof MicListener) return;
 
-            // we should clear buffer
-            clearBuffer();
-
-            micThread.start();
-            LOGD(TAG, "Microphone thread started");
-        }
+        turnOnSampleSource(new MicListener(this));
+        LOGD(TAG, "Microphone thread started");
     }
 
+    // Stops microphone, but also any other sample source that's used instead of it
     private void turnOffMicThread() {
         LOGD(TAG, "turnOffMicThread()");
+        turnOffSampleSource();
+    }
+
+    //=================================================
+    //  FRAMED STREAM
+    //=================================================
+
+    /**
+     * Starts processing SpikerBox-style framed stream of {@code channelCount} channels sampled at {@code sampleRate}
+     * with samples of {@code bitsPerSample} resolution that's read from specified {@code channel}. All channels are
+     * stored and recorded, and {@code selectedChannel} is initially selected. Channel can be a device connection, but
+     * also a pipe or a file that holds a recorded stream. Microphone is stopped while stream is being processed.
+     */
+    public void startStream(@NonNull ReadableByteChannel channel, int sampleRate, int channelCount, int bitsPerSample,
+        int selectedChannel) {
+        if (created) {
+            turnOnSampleSource(new FramedStreamSource(this, channel, sampleRate, channelCount, bitsPerSample,
+                Math.max(1, sampleRate / STREAM_CHUNKS_PER_SECOND)));
+            setSelectedChannel(selectedChannel);
+        }
+    }
+
+    /**
+     * Starts processing SpikerBox-style framed stream that's read from specified {@code stream}.
+     *
+     * @see #startStream(ReadableByteChannel, int, int, int, int)
+     */
+    public void startStream(@NonNull InputStream stream, int sampleRate, int channelCount, int bitsPerSample,
+        int selectedChannel) {
+        startStream(Channels.newChannel(stream), sampleRate, channelCount, bitsPerSample, selectedChannel);
+    }
+
+    /**
+     * Stops processing framed stream.
+     */
+    public void stopStream() {
+        if (created && sampleSource instanceof FramedStreamSource) turnOffSampleSource();
+    }
+
+    //=================================================
+    //  SAMPLE SOURCE
+    //=================================================
+
+    // Replaces current sample source with the specified one and starts it
+    private void turnOnSampleSource(@NonNull SampleSource source) {
+        turnOffPlaybackThread();
+        turnOffSampleSource();
+
+        sampleSource = source;
+        // buffers need to hold the same amount of time whatever the source sample rate
+        setFormat(source.getFormat());
+        // we should clear buffer
+        clearBuffer();
+
+        sampleSource.start();
+    }
+
+    // Stops current sample source
+    private void turnOffSampleSource() {
         stopRecording();
-        if (micThread != null) {
-            micThread.requestStop();
-            micThread = null;
-            LOGD(TAG, "Microphone Thread stopped");
+        if (sampleSource != null) {
+            sampleSource.requestStop();
+            sampleSource = null;
+            LOGD(TAG, "Sample source stopped");
 
             // we should clear buffer so that next buffer user doesn't have any residue
             clearBuffer();
@@ -325,25 +486,56 @@ public class AudioService extends Service implements ReceivesAudio {
     }
 
     public void seekPlayback(int position) {
-        if (created && playbackThread != null) playbackThread.seek(AudioUtils.getByteCount(position));
+        if (created && playbackThread != null) playbackThread.seek((int) getStreamFormat().getByteCount(position));
     }
 
     public void stopPlaybackSeek() {
         if (created && playbackThread != null) playbackThread.seek(false);
     }
 
+    /**
+     * Returns position of the sample that's currently being heard if audio is playing, or position of the last sample
+     * that has been read from the file otherwise.
+     */
     public long getPlaybackProgress() {
-        if (isPlaybackMode()) return AudioUtils.getSampleCount(lastBytePosition);
+        final long playingSample = getPlayingSample();
+        if (playingSample >= 0) return playingSample;
+        if (isPlaybackMode()) return getStreamFormat().getSampleCount(lastBytePosition);
 
         return 0;
     }
 
     public long getPlaybackLength() {
-        if (isPlaybackMode()) return AudioUtils.getSampleCount(playbackThread.getLength());
+        if (isPlaybackMode()) return getStreamFormat().getSampleCount(playbackThread.getLength());
+
+        return 0;
+    }
+
+    /**
+     * Sets number of audio chunks that are read from the file ahead of the playback. Deeper read-ahead survives longer
+     * storage stalls at the cost of memory. Takes effect when next playback starts.
+     */
+    public void setPlaybackReadAheadDepth(int depth) {
+        playbackReadAheadDepth = Math.max(1, depth);
+    }
+
+    /**
+     * Returns number of times current playback had to wait for the audio file to be read.
+     */
+    public long getPlaybackUnderrunCount() {
+        if (isPlaybackMode()) return playbackThread.getUnderrunCount();
 
         return 0;
     }
 
+    // Returns position of the sample that's currently being heard, or -1 if audio is not playing or it's not known
+    private long getPlayingSample() {
+        final PlaybackThread playbackThread = this.playbackThread;
+        if (playbackThread == null || !playbackThread.isPlaying()) return -1;
+
+        return playbackThread.getPlayingSample(System.nanoTime());
+    }
+
     private void turnOnPlaybackThread() {
         LOGD(TAG, "turnOnPlaybackThread()");
         if (playbackThread != null) {
@@ -372,34 +564,38 @@ public class AudioService extends Service implements ReceivesAudio {
     private void startPlaybackThread(@NonNull String filePath, boolean autoPlay) {
         if (ApacheCommonsLang3Utils.isNotBlank(filePath)) {
             turnOffPlaybackThread();
-            playbackThread = new PlaybackThread(this, filePath, autoPlay, new PlaybackThread.PlaybackListener() {
-                @Override public void onStart(long length) {
-                    // post event that audio playback has started, but post a sticky event
-                    // because the view might sill not be initialized
-                    EventBus.getDefault().postSticky(new AudioPlaybackStartedEvent(AudioUtils.getSampleCount(length)));
-                }
-
-                @Override public void onResume() {
-                    // post event that audio playback has started
-                    EventBus.getDefault().post(new AudioPlaybackStartedEvent(-1));
-                }
-
-                @Override public void onProgress(long progress) {
-                    EventBus.getDefault().post(new AudioPlaybackProgressEvent(AudioUtils.getSampleCount(progress)));
-                }
-
-                @Override public void onPause() {
-                    // post event that audio playback has started
-                    EventBus.getDefault().post(new AudioPlaybackStoppedEvent(false));
-                }
-
-                @Override public void onStop() {
-                    // we should clear buffer
-                    clearBuffer();
-                    // post event that audio playback has started
-                    EventBus.getDefault().post(new AudioPlaybackStoppedEvent(true));
-                }
-            });
+            playbackThread = new PlaybackThread(this, filePath, autoPlay, playbackReadAheadDepth,
+                new PlaybackThread.PlaybackListener() {
+                    @Override public void onStart(long length, @NonNull StreamFormat format) {
+                        // positions and window sizes are in the timebase of the played file
+                        setFormat(format);
+                        // post event that audio playback has started, but post a sticky event
+                        // because the view might sill not be initialized
+                        EventBus.getDefault().postSticky(new AudioPlaybackStartedEvent(format.getSampleCount(length)));
+                    }
+
+                    @Override public void onResume() {
+                        // post event that audio playback has started
+                        EventBus.getDefault().post(new AudioPlaybackStartedEvent(-1));
+                    }
+
+                    @Override public void onProgress(long progress) {
+                        EventBus.getDefault()
+                            .post(new AudioPlaybackProgressEvent(getStreamFormat().getSampleCount(progress)));
+                    }
+
+                    @Override public void onPause() {
+                        // post event that audio playback has started
+                        EventBus.getDefault().post(new AudioPlaybackStoppedEvent(false));
+                    }
+
+                    @Override public void onStop() {
+                        // we should clear buffer
+                        clearBuffer();
+                        // post event that audio playback has started
+                        EventBus.getDefault().post(new AudioPlaybackStoppedEvent(true));
+                    }
+                });
             turnOnPlaybackThread(); // this will stop the microphone and in progress recording if any
         }
     }
@@ -415,10 +611,12 @@ public class AudioService extends Service implements ReceivesAudio {
         audioInfo.clear();
         try {
             recordingSaver.writeAudio(audioInfo);
+            metrics.onChunkConsumed(AudioConsumer.RECORDER);
+            metrics.setQueueDepth(AudioConsumer.RECORDER, recordingSaver.getQueuedChunkCount());
 
             // post current recording progress
-            EventBus.getDefault()
-                .post(new AudioRecordingProgressEvent(AudioUtils.getSampleCount(recordingSaver.getAudioLength())));
+            final long recordedSampleCount = getStreamFormat().getSampleCount(recordingSaver.getAudioLength());
+            EventBus.getDefault().post(new AudioRecordingProgressEvent(recordedSampleCount));
         } catch (IllegalStateException e) {
             LOGW(TAG, "Ignoring bytes received while not synced: " + e.getMessage());
         }
@@ -429,8 +627,9 @@ public class AudioService extends Service implements ReceivesAudio {
         if (recordingSaver != null) return false;
 
         try {
-            turnOnMicThread();
-            recordingSaver = new RecordingSaver();
+            // any running sample source, like framed stream, is recorded with all of its channels
+            if (sampleSource == null) turnOnMicThread();
+            recordingSaver = new RecordingSaver(getStreamFormat(), recordingCompressed);
 
             // post that recording of audio has started
             EventBus.getDefault().post(new AudioRecordingStartedEvent());
@@ -450,9 +649,15 @@ public class AudioService extends Service implements ReceivesAudio {
         LOGW(TAG, "stop recording");
         if (recordingSaver == null) return false;
 
-        try {
-            recordingSaver.stopRecording();
+        // audio threads pass audio to the saver while holding the service lock, so nothing is written after this
+        final RecordingSaver saver;
+        synchronized (this) {
+            saver = recordingSaver;
             recordingSaver = null;
+        }
+
+        try {
+            saver.stopRecording();
 
             // post that recording of audio has started
             EventBus.getDefault().post(new AudioRecordingStoppedEvent());
@@ -469,4 +674,13 @@ public class AudioService extends Service implements ReceivesAudio {
     public boolean isRecording() {
         return (recordingSaver != null);
     }
+
+    /**
+     * Sets whether recordings should be compressed with lossless codec instead of saved as WAV files. Compressed
+     * recordings take about half the space and are encoded on a background thread while recording. Takes effect when
+     * next recording starts.
+     */
+    public void setRecordingCompressed(boolean compressed) {
+        recordingCompressed = compressed;
+    }
 }
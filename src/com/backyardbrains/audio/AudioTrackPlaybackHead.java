@@ -0,0 +1,37 @@
+package com.backyardbrains.audio;
+
+import android.media.AudioTrack;
+import android.support.annotation.NonNull;
+
+/**
+ * {@link PlaybackHead} backed by the playback head position of an {@link AudioTrack}. Track needs to be released
+ * through {@link #release()} so that clock users on other threads never query a released track.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class AudioTrackPlaybackHead implements PlaybackHead {
+
+    private final AudioTrack track;
+
+    private boolean released;
+    private long playedFrameCount;
+
+    AudioTrackPlaybackHead(@NonNull AudioTrack track) {
+        this.track = track;
+    }
+
+    @Override public synchronized long getPlayedFrameCount() {
+        // head position is an unsigned 32-bit frame count
+        if (!released) playedFrameCount = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+
+        return playedFrameCount;
+    }
+
+    /**
+     * Releases the underlying track. Last played frame count is returned from then on.
+     */
+    synchronized void release() {
+        released = true;
+        track.release();
+    }
+}
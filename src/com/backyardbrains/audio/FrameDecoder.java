@@ -0,0 +1,123 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder of the SpikerBox-style framed byte stream. Every sample is sent as two bytes that carry 7 bits of the value
+ * each, high bits first. Frame holds one sample for each channel and the most significant bit is set only in the very
+ * first byte of the frame, so decoder can find frame boundaries and resynchronize after a corrupted frame by looking
+ * for that bit alone.
+ *
+ * <p>Samples are unsigned and are converted to signed 16-bit values centered around zero. Decoding doesn't allocate
+ * anything, so it can be called for every chunk that's read from the stream.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class FrameDecoder {
+
+    private static final int FRAME_START_FLAG = 0x80;
+    private static final int DATA_MASK = 0x7F;
+
+    private final int channelCount;
+    // value that represents zero and number of bits samples need to be shifted to become 16-bit
+    private final int center;
+    private final int shift;
+
+    // samples of the frame that's being decoded
+    private final short[] frame;
+    // index of the channel whose sample is being decoded, -1 while waiting for the frame start
+    private int channel = -1;
+    // high 7 bits of the sample that's being decoded, -1 while waiting for them
+    private int high = -1;
+
+    private long frameCount;
+    private long droppedFrameCount;
+
+    /**
+     * @param channelCount Number of samples in each frame.
+     * @param bitsPerSample Resolution of the samples (up to 14 bits).
+     */
+    public FrameDecoder(int channelCount, int bitsPerSample) {
+        if (channelCount < 1) throw new IllegalArgumentException("Frame needs to hold at least one channel");
+        if (bitsPerSample < 1 || bitsPerSample > 14) {
+            throw new IllegalArgumentException("Unsupported number of bits per sample: " + bitsPerSample);
+        }
+
+        this.channelCount = channelCount;
+        center = 1 << (bitsPerSample - 1);
+        shift = 16 - bitsPerSample;
+        frame = new short[channelCount];
+    }
+
+    /**
+     * Returns number of samples in each frame.
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Returns number of successfully decoded frames.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns number of frames that were discarded because they were interrupted by the start of another frame.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * Decodes bytes remaining in {@code src} and writes complete frames to {@code dst} starting at {@code dstOffset},
+     * channels interleaved. Decoding stops when {@code src} is exhausted or there is no room left in {@code dst} for
+     * another frame, in which case undecoded bytes are left in {@code src}. Incomplete frame at the end of {@code src}
+     * is remembered and completed by the next call. Returns number of written samples, which is always a multiple of
+     * the channel count.
+     */
+    public int decode(@NonNull ByteBuffer src, @NonNull short[] dst, int dstOffset) {
+        int written = 0;
+        final int capacity = dst.length - dstOffset - channelCount;
+        while (written <= capacity && src.hasRemaining()) {
+            final int b = src.get() & 0xFF;
+
+            if ((b & FRAME_START_FLAG) != 0) {
+                // start of a frame, whatever was decoded of the previous one is incomplete
+                if (channel >= 0) droppedFrameCount++;
+                channel = 0;
+                high = b & DATA_MASK;
+                continue;
+            }
+            // not synchronized with the frames yet
+            if (channel < 0) continue;
+
+            if (high < 0) {
+                high = b;
+                continue;
+            }
+
+            frame[channel] = (short) ((((high << 7) | b) - center) << shift);
+            high = -1;
+            if (++channel == channelCount) {
+                System.arraycopy(frame, 0, dst, dstOffset + written, channelCount);
+                written += channelCount;
+                frameCount++;
+                // next frame needs to start with the flag
+                channel = -1;
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Forgets partially decoded frame so decoding starts from the next frame start.
+     */
+    public void reset() {
+        channel = -1;
+        high = -1;
+    }
+}
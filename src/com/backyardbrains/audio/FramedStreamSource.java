@@ -0,0 +1,120 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * {@link SampleSource} that reads SpikerBox-style framed byte stream from a {@link ReadableByteChannel}, which can be
+ * a device connection, a pipe or a file with a recorded stream, and decodes it with {@link FrameDecoder}. Frames of all
+ * channels are passed to the receiver interleaved, as little-endian 16-bit samples, in chunks of fixed size, so they
+ * can be written to a WAV file as they are.
+ *
+ * <p>All buffers are allocated up front so reading and decoding doesn't allocate anything.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class FramedStreamSource extends Thread implements SampleSource {
+
+    private static final String TAG = makeLogTag(FramedStreamSource.class);
+
+    // number of bytes read from the channel at once
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final ReceivesAudio service;
+    private final ReadableByteChannel channel;
+    private final StreamFormat format;
+    private final FrameDecoder decoder;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // decoded interleaved frames
+    private final short[] frames;
+    // interleaved frames that are passed to the receiver once chunk is full, and view through which they're written
+    private final ByteBuffer chunk;
+    private final ShortBuffer chunkSamples;
+
+    private volatile boolean done;
+
+    /**
+     * @param service the service that implements the {@link ReceivesAudio}
+     * @param channel channel from which the framed stream is read
+     * @param sampleRate sample rate of the stream
+     * @param channelCount number of channels in each frame
+     * @param bitsPerSample resolution of the samples in the stream
+     * @param chunkSize number of frames passed to the receiver at once
+     */
+    FramedStreamSource(@NonNull ReceivesAudio service, @NonNull ReadableByteChannel channel, int sampleRate,
+        int channelCount, int bitsPerSample, int chunkSize) {
+        this.service = service;
+        this.channel = channel;
+        format = new StreamFormat(sampleRate, channelCount);
+
+        decoder = new FrameDecoder(channelCount, bitsPerSample);
+        frames = new short[READ_BUFFER_SIZE / 2];
+        chunk = ByteBuffer.allocate((int) format.getByteCount(chunkSize)).order(ByteOrder.LITTLE_ENDIAN);
+        chunkSamples = chunk.asShortBuffer();
+    }
+
+    @NonNull @Override public StreamFormat getFormat() {
+        return format;
+    }
+
+    @Override public void run() {
+        LOGD(TAG, "Stream source started");
+        final AudioPipelineMetrics metrics = AudioPipelineMetrics.get();
+        metrics.start(format);
+        final int chunkFrameCount = chunkSamples.capacity() / format.getChannelCount();
+        long emittedFrameCount = 0;
+        try {
+            while (!done && channel.read(readBuffer) >= 0) {
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    final int sampleCount = decoder.decode(readBuffer, frames, 0);
+                    // chunk always holds whole frames because it's sized in frames
+                    int written = 0;
+                    while (written < sampleCount) {
+                        final int count = Math.min(sampleCount - written, chunkSamples.remaining());
+                        chunkSamples.put(frames, written, count);
+                        written += count;
+                        if (!chunkSamples.hasRemaining()) {
+                            // dropped frames advance the counter, so they show up as a gap before the chunk
+                            metrics.onChunkCaptured(emittedFrameCount + decoder.getDroppedFrameCount(),
+                                chunkFrameCount);
+                            emittedFrameCount += chunkFrameCount;
+                            synchronized (service) {
+                                service.receiveAudio(chunk);
+                            }
+                            chunkSamples.clear();
+                        }
+                    }
+                }
+                readBuffer.clear();
+            }
+        } catch (IOException e) {
+            if (!done) LOGE(TAG, "Error reading framed stream", e);
+        } finally {
+            LOGD(TAG, "Stream source stopped after " + decoder.getFrameCount() + " frames, " + decoder
+                .getDroppedFrameCount() + " dropped");
+            requestStop();
+        }
+    }
+
+    /**
+     * Stops reading and closes the channel.
+     */
+    @Override public void requestStop() {
+        done = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGE(TAG, "IOException while closing framed stream: " + e.toString());
+        }
+    }
+}
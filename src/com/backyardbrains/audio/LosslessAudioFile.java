@@ -0,0 +1,183 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link BYBAudioFile} that reads audio compressed with {@link LosslessCodec}. File is presented as if it held raw
+ * interleaved 16-bit samples, so positions and lengths are the same as for the equivalent WAV file (without the
+ * header). Seeking only looks up the block in the seek table, and the block is read and decoded once it's actually
+ * read from, so seeks take constant time and only compressed bytes are read from the storage.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class LosslessAudioFile implements BYBAudioFile {
+
+    /**
+     * Extension of the lossless audio files.
+     */
+    public static final String EXTENSION = ".bybl";
+
+    private final RandomAccessFile raf;
+    private final String absolutePath;
+
+    private final int numChannels;
+    private final int sampleRate;
+    private final int bitsPerSample;
+    private final int frameSize;
+    private final int blockFrameCount;
+    private final long length;
+    // file offset of every block, followed by the offset of the seek table which ends the last block
+    private final long[] blockOffsets;
+
+    private final LosslessCodec codec;
+    private final byte[] encoded;
+    private final short[] decodedFrames;
+    // decoded block as raw little-endian bytes and its index
+    private final byte[] decoded;
+    private int decodedLength;
+    private int decodedBlock = -1;
+
+    // position within the raw audio
+    private long position;
+
+    public LosslessAudioFile(@NonNull File file) throws IOException {
+        // save absolute file path
+        absolutePath = file.getAbsolutePath();
+        // create RandomAccessFile
+        raf = new RandomAccessFile(file, "r");
+        try {
+            // read header
+            final ByteBuffer header = ByteBuffer.allocate(LosslessCodec.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            raf.readFully(header.array());
+            check(header.getInt() == LosslessCodec.MAGIC, "Not a lossless audio file");
+            final int version = header.getShort();
+            check(version == LosslessCodec.VERSION, "Unsupported lossless file version: " + version);
+            numChannels = header.getShort();
+            check(numChannels > 0, "Unsupported number of channels: " + numChannels);
+            bitsPerSample = header.getShort();
+            check(bitsPerSample == 16, "Unsupported number of bits per sample: " + bitsPerSample);
+            sampleRate = header.getInt();
+            check(sampleRate > 0, "Unsupported sample rate: " + sampleRate);
+            blockFrameCount = header.getInt();
+            check(blockFrameCount > 0, "Wrong number of frames in a block: " + blockFrameCount);
+            final long totalFrameCount = header.getLong();
+            final long seekTableOffset = header.getLong();
+            // header is completed only after the whole recording is written
+            check(seekTableOffset >= LosslessCodec.HEADER_SIZE, "Lossless file is incomplete");
+
+            frameSize = numChannels * bitsPerSample / 8;
+            length = totalFrameCount * frameSize;
+
+            // read seek table
+            final int blockCount = (int) ((totalFrameCount + blockFrameCount - 1) / blockFrameCount);
+            final ByteBuffer seekTable = ByteBuffer.allocate(blockCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+            raf.seek(seekTableOffset);
+            raf.readFully(seekTable.array());
+            blockOffsets = new long[blockCount + 1];
+            int maxBlockSize = 0;
+            for (int i = 0; i < blockCount; i++) {
+                blockOffsets[i] = seekTable.getLong();
+                if (i > 0) maxBlockSize = (int) Math.max(maxBlockSize, blockOffsets[i] - blockOffsets[i - 1]);
+            }
+            blockOffsets[blockCount] = seekTableOffset;
+            if (blockCount > 0) {
+                maxBlockSize = (int) Math.max(maxBlockSize, seekTableOffset - blockOffsets[blockCount - 1]);
+            }
+            check(maxBlockSize <= LosslessCodec.getMaxBlockSize(numChannels, blockFrameCount), "Corrupted seek table");
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+
+        codec = new LosslessCodec(numChannels, blockFrameCount);
+        encoded = new byte[LosslessCodec.getMaxBlockSize(numChannels, blockFrameCount)];
+        decodedFrames = new short[blockFrameCount * numChannels];
+        decoded = new byte[blockFrameCount * frameSize];
+    }
+
+    @Override public String getAbsolutePath() {
+        return absolutePath;
+    }
+
+    @Override public int numChannels() {
+        return numChannels;
+    }
+
+    @Override public int sampleRate() {
+        return sampleRate;
+    }
+
+    @Override public int bitsPerSample() {
+        return bitsPerSample;
+    }
+
+    @Override public long length() throws IOException {
+        return length;
+    }
+
+    @Override public synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    @Override public synchronized void seek(long offset) throws IOException {
+        position = Math.max(0, Math.min(offset, length));
+    }
+
+    @Override public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (position >= length) return -1;
+
+        final long blockSize = (long) blockFrameCount * frameSize;
+        int read = 0;
+        while (read < len && position < length) {
+            final int block = (int) (position / blockSize);
+            if (block != decodedBlock) decodeBlock(block);
+
+            final int blockPosition = (int) (position - block * blockSize);
+            final int count = Math.min(len - read, decodedLength - blockPosition);
+            if (count <= 0) break;
+            System.arraycopy(decoded, blockPosition, b, off + read, count);
+            read += count;
+            position += count;
+        }
+
+        return read;
+    }
+
+    @Override public synchronized long getFilePointer() throws IOException {
+        return position;
+    }
+
+    // Reads and decodes block with specified index
+    private void decodeBlock(int block) throws IOException {
+        decodedBlock = -1;
+
+        final int encodedLength = (int) (blockOffsets[block + 1] - blockOffsets[block]);
+        raf.seek(blockOffsets[block]);
+        raf.readFully(encoded, 0, encodedLength);
+
+        final int frameCount = codec.decode(encoded, 0, encodedLength, decodedFrames);
+        final int sampleCount = frameCount * numChannels;
+        for (int i = 0; i < sampleCount; i++) {
+            final short sample = decodedFrames[i];
+            decoded[2 * i] = (byte) sample;
+            decoded[2 * i + 1] = (byte) (sample >> 8);
+        }
+        decodedLength = frameCount * frameSize;
+        decodedBlock = block;
+    }
+
+    // Convenience method that throws IOException with specified message if assertion is false
+    private static void check(boolean assertion, String message) throws IOException {
+        if (!assertion) throw new IOException(message);
+    }
+}
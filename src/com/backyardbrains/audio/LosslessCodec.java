@@ -0,0 +1,373 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Lossless codec for blocks of interleaved 16-bit frames. Every channel of the block is predicted with the best of
+ * FLAC's fixed polynomial predictors (orders 0 to 4) and prediction residuals are Rice coded in partitions that each
+ * get their own Rice parameter. Blocks are byte aligned and independent of each other, so any block can be decoded on
+ * its own.
+ *
+ * <p>Codec keeps scratch buffers for the largest block it's created for, so encoding and decoding doesn't allocate
+ * anything. Instance should be used by one thread at a time.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+final class LosslessCodec {
+
+    /**
+     * Identifies lossless files ("BYBL").
+     */
+    static final int MAGIC = 0x4C425942;
+    /**
+     * Version of the file layout.
+     */
+    static final int VERSION = 1;
+    /**
+     * Size of the file header: magic, version, channel count, bits per sample, sample rate, number of frames in a block,
+     * total number of frames and seek table offset.
+     */
+    static final int HEADER_SIZE = 4 + 2 + 2 + 2 + 4 + 4 + 8 + 8;
+    /**
+     * Default number of frames in a block (~93 ms at 44.1 kHz).
+     */
+    static final int DEFAULT_BLOCK_FRAME_COUNT = 4096;
+
+    private static final int MAX_ORDER = 4;
+    private static final int ORDER_BITS = 3;
+    private static final int FRAME_COUNT_BITS = 16;
+    private static final int WARM_UP_BITS = 16;
+    private static final int PARTITION_SIZE = 256;
+    private static final int RICE_PARAMETER_BITS = 5;
+    private static final int MAX_RICE_PARAMETER = 20;
+    // quotient at which residual is stored raw, residuals of 16-bit samples never need more than 21 bits
+    private static final int ESCAPE_QUOTIENT = 32;
+    private static final int ESCAPE_BITS = 22;
+
+    private final int channelCount;
+    private final int blockFrameCount;
+
+    // samples of a single channel and their prediction residuals
+    private final int[] samples;
+    private final int[] residuals;
+
+    // bit writer state
+    private byte[] out;
+    private int outPosition;
+    private long writeCache;
+    private int writeCacheBits;
+
+    // bit reader state, cache is left aligned
+    private byte[] in;
+    private int inPosition;
+    private int inEnd;
+    private long readCache;
+    private int readCacheBits;
+
+    /**
+     * @param channelCount Number of channels in every frame.
+     * @param blockFrameCount Maximum number of frames in a block.
+     */
+    LosslessCodec(int channelCount, int blockFrameCount) {
+        if (blockFrameCount < 1 || blockFrameCount >= 1 << FRAME_COUNT_BITS) {
+            throw new IllegalArgumentException("Unsupported number of frames in a block: " + blockFrameCount);
+        }
+
+        this.channelCount = channelCount;
+        this.blockFrameCount = blockFrameCount;
+
+        samples = new int[blockFrameCount];
+        residuals = new int[blockFrameCount];
+    }
+
+    /**
+     * Returns maximum number of bytes a block of specified number of frames can be encoded to.
+     */
+    static int getMaxBlockSize(int channelCount, int blockFrameCount) {
+        final int partitionCount = (blockFrameCount + PARTITION_SIZE - 1) / PARTITION_SIZE;
+        final long channelBits = ORDER_BITS + MAX_ORDER * WARM_UP_BITS + partitionCount * RICE_PARAMETER_BITS
+            + (long) blockFrameCount * (ESCAPE_QUOTIENT + ESCAPE_BITS);
+        return (int) ((FRAME_COUNT_BITS + channelCount * channelBits + 7) / 8);
+    }
+
+    //=================================================
+    //  HEADER
+    //=================================================
+
+    /**
+     * Returns file header for audio of specified {@code format}. Total frame count and seek table offset are {@code 0}
+     * until recording is finished.
+     */
+    @NonNull static byte[] writeHeader(@NonNull StreamFormat format, int blockFrameCount, long totalFrameCount,
+        long seekTableOffset) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) format.getChannelCount());
+        header.putShort((short) format.getBitsPerSample());
+        header.putInt(format.getSampleRate());
+        header.putInt(blockFrameCount);
+        header.putLong(totalFrameCount);
+        header.putLong(seekTableOffset);
+        return header.array();
+    }
+
+    //=================================================
+    //  ENCODING
+    //=================================================
+
+    /**
+     * Encodes {@code frameCount} interleaved frames from {@code src} to {@code dst}, which needs to hold at least
+     * {@link #getMaxBlockSize(int, int)} bytes, and returns number of written bytes.
+     */
+    int encode(@NonNull short[] src, int frameCount, @NonNull byte[] dst) {
+        out = dst;
+        outPosition = 0;
+        writeCache = 0;
+        writeCacheBits = 0;
+
+        writeBits(frameCount, FRAME_COUNT_BITS);
+        for (int ch = 0; ch < channelCount; ch++) {
+            // pick the channel out of the interleaved frames
+            for (int i = 0, s = ch; i < frameCount; i++, s += channelCount) {
+                samples[i] = src[s];
+            }
+            encodeChannel(frameCount);
+        }
+        // blocks are byte aligned
+        if (writeCacheBits > 0) writeBits(0, 8 - writeCacheBits);
+
+        out = null;
+        return outPosition;
+    }
+
+    // Encodes samples of a single channel
+    private void encodeChannel(int count) {
+        final int order = Math.min(selectOrder(count), count);
+        writeBits(order, ORDER_BITS);
+        for (int i = 0; i < order; i++) {
+            writeBits(samples[i], WARM_UP_BITS);
+        }
+
+        final int residualCount = computeResiduals(order, count);
+        for (int start = 0; start < residualCount; start += PARTITION_SIZE) {
+            final int end = Math.min(start + PARTITION_SIZE, residualCount);
+
+            // Rice parameter that's close to optimal for the mean of the partition
+            long sum = 0;
+            for (int i = start; i < end; i++) {
+                sum += residuals[i];
+            }
+            int k = 0;
+            while (k < MAX_RICE_PARAMETER && ((long) (end - start) << (k + 1)) < sum) k++;
+            writeBits(k, RICE_PARAMETER_BITS);
+
+            for (int i = start; i < end; i++) {
+                final int u = residuals[i];
+                final int q = u >>> k;
+                if (q < ESCAPE_QUOTIENT) {
+                    // unary quotient terminated with 1, followed by the remainder
+                    writeBits(1, q + 1);
+                    if (k > 0) writeBits(u, k);
+                } else {
+                    writeBits(0, ESCAPE_QUOTIENT);
+                    writeBits(u, ESCAPE_BITS);
+                }
+            }
+        }
+    }
+
+    // Returns fixed predictor order with the smallest sum of absolute residuals
+    private int selectOrder(int count) {
+        if (count <= MAX_ORDER) return 0;
+
+        long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+        int last0 = samples[3];
+        int last1 = samples[3] - samples[2];
+        int last2 = last1 - (samples[2] - samples[1]);
+        int last3 = last2 - (samples[2] - samples[1] - (samples[1] - samples[0]));
+        for (int i = MAX_ORDER; i < count; i++) {
+            final int r0 = samples[i];
+            final int r1 = r0 - last0;
+            final int r2 = r1 - last1;
+            final int r3 = r2 - last2;
+            final int r4 = r3 - last3;
+            e0 += Math.abs(r0);
+            e1 += Math.abs(r1);
+            e2 += Math.abs(r2);
+            e3 += Math.abs(r3);
+            e4 += Math.abs(r4);
+            last0 = r0;
+            last1 = r1;
+            last2 = r2;
+            last3 = r3;
+        }
+
+        int order = 0;
+        long min = e0;
+        if (e1 < min) {
+            min = e1;
+            order = 1;
+        }
+        if (e2 < min) {
+            min = e2;
+            order = 2;
+        }
+        if (e3 < min) {
+            min = e3;
+            order = 3;
+        }
+        if (e4 < min) order = 4;
+
+        return order;
+    }
+
+    // Computes zigzag encoded residuals of the specified order and returns their count
+    private int computeResiduals(int order, int count) {
+        int n = 0;
+        for (int i = order; i < count; i++) {
+            final int r = samples[i] - predict(samples, i, order);
+            residuals[n++] = (r << 1) ^ (r >> 31);
+        }
+
+        return n;
+    }
+
+    // Returns prediction of the sample at specified index using fixed predictor of specified order
+    private static int predict(int[] x, int i, int order) {
+        switch (order) {
+            case 1:
+                return x[i - 1];
+            case 2:
+                return 2 * x[i - 1] - x[i - 2];
+            case 3:
+                return 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+            case 4:
+                return 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+            default:
+                return 0;
+        }
+    }
+
+    // Writes specified number (up to 32) of the lowest bits of the value
+    private void writeBits(int value, int bitCount) {
+        writeCache = (writeCache << bitCount) | (value & (0xFFFFFFFFL >>> (32 - bitCount)));
+        writeCacheBits += bitCount;
+        while (writeCacheBits >= 8) {
+            writeCacheBits -= 8;
+            out[outPosition++] = (byte) (writeCache >>> writeCacheBits);
+        }
+    }
+
+    //=================================================
+    //  DECODING
+    //=================================================
+
+    /**
+     * Decodes block of {@code length} bytes from {@code src} starting at {@code offset} to {@code dst} as interleaved
+     * frames and returns number of decoded frames.
+     *
+     * @throws IOException if block is corrupted
+     */
+    int decode(@NonNull byte[] src, int offset, int length, @NonNull short[] dst) throws IOException {
+        in = src;
+        inPosition = offset;
+        inEnd = offset + length;
+        readCache = 0;
+        readCacheBits = 0;
+
+        try {
+            final int frameCount = readBits(FRAME_COUNT_BITS);
+            if (frameCount > blockFrameCount || frameCount * channelCount > dst.length) {
+                throw new IOException("Corrupted block, it holds too many frames: " + frameCount);
+            }
+
+            for (int ch = 0; ch < channelCount; ch++) {
+                decodeChannel(frameCount);
+                // interleave decoded channel
+                for (int i = 0, d = ch; i < frameCount; i++, d += channelCount) {
+                    dst[d] = (short) samples[i];
+                }
+            }
+
+            return frameCount;
+        } finally {
+            in = null;
+        }
+    }
+
+    // Decodes samples of a single channel
+    private void decodeChannel(int count) throws IOException {
+        final int order = readBits(ORDER_BITS);
+        if (order > MAX_ORDER || order > count) throw new IOException("Corrupted block, wrong order: " + order);
+
+        for (int i = 0; i < order; i++) {
+            samples[i] = (short) readBits(WARM_UP_BITS);
+        }
+
+        int i = order;
+        while (i < count) {
+            final int k = readBits(RICE_PARAMETER_BITS);
+            final int end = Math.min(i + PARTITION_SIZE, count);
+            for (; i < end; i++) {
+                final int q = readQuotient();
+                final int u = q < ESCAPE_QUOTIENT ? (q << k) | readBits(k) : readBits(ESCAPE_BITS);
+                samples[i] = ((u >>> 1) ^ -(u & 1)) + predict(samples, i, order);
+            }
+        }
+    }
+
+    // Fills the read cache with as many whole bytes as it can take
+    private void refill() {
+        while (readCacheBits <= 48 && inPosition < inEnd) {
+            readCache |= (long) (in[inPosition++] & 0xFF) << (56 - readCacheBits);
+            readCacheBits += 8;
+        }
+    }
+
+    // Reads specified number (up to 32) of bits
+    private int readBits(int bitCount) throws IOException {
+        if (bitCount == 0) return 0;
+        if (readCacheBits < bitCount) {
+            refill();
+            if (readCacheBits < bitCount) throw new IOException("Corrupted block, unexpected end of data");
+        }
+
+        final int value = (int) (readCache >>> (64 - bitCount));
+        readCache <<= bitCount;
+        readCacheBits -= bitCount;
+        return value;
+    }
+
+    // Reads unary coded quotient, or returns escape quotient if as many zeros are read
+    private int readQuotient() throws IOException {
+        int q = 0;
+        while (true) {
+            if (readCacheBits == 0) {
+                refill();
+                if (readCacheBits == 0) throw new IOException("Corrupted block, unexpected end of data");
+            }
+
+            final int zeros = Math.min(Long.numberOfLeadingZeros(readCache), readCacheBits);
+            if (q + zeros >= ESCAPE_QUOTIENT) {
+                final int skip = ESCAPE_QUOTIENT - q;
+                readCache <<= skip;
+                readCacheBits -= skip;
+                return ESCAPE_QUOTIENT;
+            }
+            if (zeros < readCacheBits) {
+                // skip zeros and the terminating 1
+                readCache <<= zeros + 1;
+                readCacheBits -= zeros + 1;
+                return q + zeros;
+            }
+
+            q += zeros;
+            readCache = 0;
+            readCacheBits = 0;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Writes interleaved 16-bit audio to a file compressed with {@link LosslessCodec}. Audio is encoded block by block as
+ * it arrives and file offset of every block is remembered. When encoder is closed the offsets are appended as a seek
+ * table and the header is completed, so {@link LosslessAudioFile} can find any block without decoding the preceding
+ * ones.
+ *
+ * <p>File layout: header, encoded blocks, seek table (offset of every block as a little-endian long).
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class LosslessEncoder {
+
+    private final File file;
+    private final StreamFormat format;
+    private final int blockFrameCount;
+    private final LosslessCodec codec;
+    private final OutputStream outputStream;
+
+    // interleaved frames of the block that's being filled
+    private final short[] block;
+    private int blockFill;
+    private final byte[] encoded;
+
+    // file offset of every written block
+    private long[] blockOffsets = new long[256];
+    private int blockCount;
+    private long position;
+    private long totalFrameCount;
+
+    /**
+     * @param file File the audio is written to.
+     * @param format Format of the written audio.
+     * @param blockFrameCount Number of frames in a block.
+     * @throws IOException if file can't be created
+     */
+    LosslessEncoder(@NonNull File file, @NonNull StreamFormat format, int blockFrameCount) throws IOException {
+        this.file = file;
+        this.format = format;
+        this.blockFrameCount = blockFrameCount;
+
+        codec = new LosslessCodec(format.getChannelCount(), blockFrameCount);
+        block = new short[blockFrameCount * format.getChannelCount()];
+        encoded = new byte[LosslessCodec.getMaxBlockSize(format.getChannelCount(), blockFrameCount)];
+
+        outputStream = new BufferedOutputStream(new FileOutputStream(file), encoded.length);
+        // header is completed once all the blocks are written
+        outputStream.write(LosslessCodec.writeHeader(format, blockFrameCount, 0, 0));
+        position = LosslessCodec.HEADER_SIZE;
+    }
+
+    /**
+     * Encodes first {@code length} bytes of {@code audio}, which holds interleaved little-endian samples. Incomplete
+     * block is kept until more audio arrives or encoder is closed.
+     *
+     * @throws IOException if encoded block can't be written
+     */
+    void write(@NonNull byte[] audio, int length) throws IOException {
+        for (int i = 0; i + 1 < length; i += 2) {
+            block[blockFill++] = (short) ((audio[i] & 0xFF) | (audio[i + 1] << 8));
+            if (blockFill == block.length) writeBlock();
+        }
+    }
+
+    /**
+     * Writes the remaining audio and the seek table, completes the header and closes the file.
+     *
+     * @throws IOException if file can't be written
+     */
+    void close() throws IOException {
+        try {
+            if (blockFill > 0) writeBlock();
+
+            final long seekTableOffset = position;
+            final ByteBuffer seekTable = ByteBuffer.allocate(blockCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < blockCount; i++) {
+                seekTable.putLong(blockOffsets[i]);
+            }
+            outputStream.write(seekTable.array());
+            outputStream.flush();
+            outputStream.close();
+
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(0);
+                raf.write(LosslessCodec.writeHeader(format, blockFrameCount, totalFrameCount, seekTableOffset));
+            } finally {
+                raf.close();
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    // Encodes and writes the filled part of the block
+    private void writeBlock() throws IOException {
+        final int frameCount = blockFill / format.getChannelCount();
+        if (frameCount == 0) return;
+
+        final int length = codec.encode(block, frameCount, encoded);
+        outputStream.write(encoded, 0, length);
+
+        if (blockCount == blockOffsets.length) blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        blockOffsets[blockCount++] = position;
+        position += length;
+        totalFrameCount += frameCount;
+        blockFill = 0;
+    }
+}
@@ -35,20 +35,27 @@ import static com.backyardbrains.utils.LogUtils.makeLogTag;
 /**
  * A specialized thread to manage Android's {@link AudioRecord} objects and
  * continuously pull out information to an accompanying {@link ReceivesAudio}
- * interface.
+ * interface. This is the default {@link SampleSource}.
  *
  * @author Nathan Dotz <nate@backyardbrains.com>
  */
-class MicListener extends Thread {
+class MicListener extends Thread implements SampleSource {
 
     private static final String TAG = makeLogTag(MicListener.class);
 
+    // read that takes longer than this had to wait for audio, so recorder buffer was empty when it started
+    private static final long BLOCKED_READ_NANOS = 1000000;
+
     private final ReceivesAudio service;
     private final int bufferSize;
     private final ByteBuffer audioInfo;
 
     private AudioRecord recorder;
-    private boolean done;
+    private volatile boolean done;
+
+    // estimated number of frames waiting in the recorder buffer, used to detect overruns
+    private long backlogFrameCount;
+    private long lastReadEndNanos;
 
     /**
      * Find the appropriate buffer size for working on this device and allocate space for the audioInfo {@link
@@ -70,6 +77,10 @@ class MicListener extends Thread {
         return bufferSize;
     }
 
+    @NonNull @Override public StreamFormat getFormat() {
+        return StreamFormat.DEFAULT;
+    }
+
     /**
      * An alternate to {@link Thread#start()}, which allows us to check whether a service which implements {@link
      * ReceivesAudio} is provided then start the thread as normal. This allows for {@link MicListener#run()} to pull the
@@ -112,7 +123,20 @@ class MicListener extends Thread {
             LOGD(TAG, "Recorder Started");
             int readAmt = audioInfo.limit() / readSpeedDivisor;
             //((AudioService) service).setMicListenerBufferSizeInSamples(readAmt/2);
-            while (!done && recorder.read(audioInfo, readAmt) > 0) {
+            final AudioPipelineMetrics metrics = AudioPipelineMetrics.get();
+            metrics.start(getFormat());
+            long sampleCounter = 0;
+            int read;
+            while (!done) {
+                final long readStartNanos = System.nanoTime();
+                if ((read = recorder.read(audioInfo, readAmt)) <= 0) break;
+
+                // frames lost to overrun are skipped so they show up as a gap
+                final int frameCount = (int) getFormat().getSampleCount(read);
+                sampleCounter += estimateLostFrames(readStartNanos, System.nanoTime(), frameCount);
+                metrics.onChunkCaptured(sampleCounter, frameCount);
+                sampleCounter += frameCount;
+
                 audioInfo.clear();
                 byte[] swapper = new byte[readAmt];
                 audioInfo.get(swapper);
@@ -130,6 +154,27 @@ class MicListener extends Thread {
         }
     }
 
+    // Estimates how many frames were overwritten in the recorder buffer because it wasn't read fast enough. Recorder
+    // buffer holds as many bytes as are read at once at most.
+    private long estimateLostFrames(long readStartNanos, long readEndNanos, int frameCount) {
+        long lostFrameCount = 0;
+        if (readEndNanos - readStartNanos > BLOCKED_READ_NANOS || lastReadEndNanos == 0) {
+            backlogFrameCount = 0;
+        } else {
+            final StreamFormat format = getFormat();
+            final long capacity = format.getSampleCount(bufferSize);
+            final long arrived = (readEndNanos - lastReadEndNanos) * format.getSampleRate() / 1000000000L;
+            backlogFrameCount = Math.max(0, backlogFrameCount + arrived - frameCount);
+            if (backlogFrameCount > capacity) {
+                lostFrameCount = backlogFrameCount - capacity;
+                backlogFrameCount = capacity;
+            }
+        }
+        lastReadEndNanos = readEndNanos;
+
+        return lostFrameCount;
+    }
+
     private void stopRecorder() {
         try {
             recorder.stop();
@@ -144,7 +189,7 @@ class MicListener extends Thread {
     /**
      * Clean up {@link AudioRecord} resource before exiting thread.
      */
-    void requestStop() {
+    @Override public void requestStop() {
         done = true;
         if (recorder != null) {
             if (recorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
@@ -0,0 +1,230 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Fixed size ring of the most recent audio frames that stores every channel in its own array. Incoming interleaved
+ * frames are deinterleaved in a single strided pass straight into the preallocated channel arrays, so consumers of a
+ * single channel read contiguous samples and adding channels costs only linearly more work.
+ *
+ * <p>Buffer is guarded by a single lock for all channels, the same way as {@link RingBuffer}: chunks are added and
+ * snapshots of one or all channels are taken while holding it, so readers never see partially written chunks. Lock is
+ * held only for the duration of a single copy.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class MultichannelRingBuffer {
+
+    private final int channelCount;
+    private final int size;
+
+    private final short[][] buffers;
+    // index at which next frame will be written, same for all channels
+    private int head;
+    // total number of frames ever added to the buffer, volatile so it can be polled without taking any locks
+    private volatile long sequence;
+
+    /**
+     * @param channelCount Number of channels in every frame.
+     * @param size Number of frames the buffer can hold.
+     */
+    public MultichannelRingBuffer(int channelCount, int size) {
+        if (channelCount < 1) throw new IllegalArgumentException("Buffer needs to hold at least one channel");
+
+        this.channelCount = channelCount;
+        this.size = size;
+
+        buffers = new short[channelCount][size];
+    }
+
+    /**
+     * Adds interleaved little-endian 16-bit frames held by specified {@code incoming} buffer.
+     */
+    public void add(@NonNull ByteBuffer incoming) {
+        add(incoming.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+    }
+
+    /**
+     * Adds interleaved frames held by specified {@code incoming} buffer. Incomplete frame at the end is ignored.
+     */
+    public synchronized void add(@NonNull ShortBuffer incoming) {
+        incoming.clear();
+
+        final int incomingCount = incoming.capacity() / channelCount;
+        int count = incomingCount;
+        // only the latest frames fit into the buffer
+        int src = 0;
+        if (count > size) {
+            src = (count - size) * channelCount;
+            count = size;
+        }
+
+        if (channelCount == 1) {
+            // nothing to deinterleave, copy in bulk
+            incoming.position(src);
+            final int firstCount = Math.min(count, size - head);
+            incoming.get(buffers[0], head, firstCount);
+            if (count > firstCount) incoming.get(buffers[0], 0, count - firstCount);
+            head = (head + count) % size;
+        } else {
+            int dst = head;
+            for (int i = 0; i < count; i++) {
+                for (int ch = 0; ch < channelCount; ch++) {
+                    buffers[ch][dst] = incoming.get(src++);
+                }
+                if (++dst == size) dst = 0;
+            }
+            head = dst;
+        }
+        sequence += incomingCount;
+    }
+
+    /**
+     * Copies latest {@code count} samples of specified {@code channel} to specified {@code dst} array starting at
+     * {@code dstOffset}, oldest sample first, and returns sequence number of the last copied frame. If {@code count}
+     * is bigger than the buffer only the buffer size samples are copied.
+     */
+    public synchronized long copyLatest(int channel, @NonNull short[] dst, int dstOffset, int count) {
+        if (count > size) count = size;
+
+        copy(buffers[channel], head, dst, dstOffset, count);
+        return sequence;
+    }
+
+    /**
+     * Copies latest {@code count} samples of every channel to the array of {@code dst} with the same index starting at
+     * {@code dstOffset} and returns sequence number of the last copied frame. All channels are copied from the same
+     * frames.
+     */
+    public synchronized long copyLatest(@NonNull short[][] dst, int dstOffset, int count) {
+        if (count > size) count = size;
+
+        final int channels = Math.min(channelCount, dst.length);
+        for (int ch = 0; ch < channels; ch++) {
+            copy(buffers[ch], head, dst[ch], dstOffset, count);
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns new cursor over specified {@code channel} that's positioned at the latest frame.
+     */
+    @NonNull public Cursor newCursor(int channel) {
+        if (channel < 0 || channel >= channelCount) {
+            throw new IllegalArgumentException("Channel doesn't exist: " + channel);
+        }
+
+        return new Cursor(channel, sequence);
+    }
+
+    /**
+     * Returns number of channels in every frame.
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Returns number of frames the buffer can hold.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns sequence number of the last frame in the buffer, which is the total number of frames added to the buffer
+     * since it was created. Clearing the buffer advances the sequence by the buffer size, so the sequence never
+     * decreases.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Clears the buffer as sets all values to zeros
+     */
+    public synchronized void clear() {
+        for (short[] buffer : buffers) {
+            Arrays.fill(buffer, (short) 0);
+        }
+        head = 0;
+        sequence += size;
+    }
+
+    /**
+     * Copies samples of specified {@code channel} out of {@code src} frames of {@code channelCount} interleaved
+     * channels to specified {@code dst} array starting at {@code dstOffset}, and returns number of copied samples.
+     * Copying stops when there is no room left in {@code dst}.
+     */
+    public static int deinterleave(@NonNull ShortBuffer src, int channelCount, int channel, @NonNull short[] dst,
+        int dstOffset) {
+        final int count = Math.min(src.capacity() / channelCount, dst.length - dstOffset);
+        for (int i = 0, s = channel; i < count; i++, s += channelCount) {
+            dst[dstOffset + i] = src.get(s);
+        }
+
+        return count;
+    }
+
+    // Copies latest count samples of specified channel buffer that ends at specified head
+    private void copy(short[] buffer, int head, short[] dst, int dstOffset, int count) {
+        final int start = (head - count + size) % size;
+        final int firstCount = Math.min(count, size - start);
+        System.arraycopy(buffer, start, dst, dstOffset, firstCount);
+        if (count > firstCount) System.arraycopy(buffer, 0, dst, dstOffset + firstCount, count - firstCount);
+    }
+
+    /**
+     * Reads samples of a single channel in the order they were added to the buffer. Every consumer keeps its own
+     * cursor, so consumers never interfere with each other. Cursor should be used by one thread.
+     */
+    public class Cursor {
+
+        private final int channel;
+        // sequence number of the last read frame
+        private long position;
+
+        Cursor(int channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        /**
+         * Returns channel the cursor reads.
+         */
+        public int getChannel() {
+            return channel;
+        }
+
+        /**
+         * Returns number of frames that were added to the buffer since the last read. If cursor fell behind more than
+         * the buffer size the oldest of them are lost.
+         */
+        public long getAvailable() {
+            return sequence - position;
+        }
+
+        /**
+         * Copies up to {@code dst.length - dstOffset} samples that were added since the last read to specified {@code
+         * dst} array starting at {@code dstOffset}, oldest sample first, and returns number of copied samples. Samples
+         * that were overwritten before they could be read are skipped.
+         */
+        public int read(@NonNull short[] dst, int dstOffset) {
+            synchronized (MultichannelRingBuffer.this) {
+                final long lastSequence = sequence;
+                final int available = (int) Math.min(size, lastSequence - position);
+                final int count = Math.min(available, dst.length - dstOffset);
+                // ring ends with the latest frame, samples we read end "available - count" frames before it
+                final int end = (head - (available - count) + size) % size;
+                copy(buffers[channel], end, dst, dstOffset, count);
+
+                position = lastSequence - (available - count);
+                return count;
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.backyardbrains.utils.BYBGlUtils;
+import com.backyardbrains.utils.LatencyHistogram;
+import com.backyardbrains.utils.LogUtils;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Drives the live audio pipeline with samples of a {@link SyntheticSignal} without a device, as fast as it can. Every
+ * chunk goes through the same stages it goes through on a device, all of them on the calling thread:
+ * <ul>
+ * <li>generate - synthetic samples are generated, which stands in for the capture</li>
+ * <li>encode, decode - optionally, samples are encoded to the SpikerBox-style framed stream and decoded back with
+ * {@link FrameDecoder}, the same way {@link FramedStreamSource} decodes them</li>
+ * <li>pipeline - chunk is added to the ring buffer and the averager by {@link AudioPipeline}</li>
+ * <li>render - latest window of the selected channel is copied from the ring buffer at 60 frames per second of audio,
+ * the same way renderers copy it</li>
+ * <li>record - optionally, chunk is compressed by {@link LosslessEncoder} to a temporary file</li>
+ * </ul>
+ *
+ * <p>Every stage reports its throughput, allocation rate and latency of a single chunk, and {@link
+ * AudioPipelineMetrics} reports capture to consume latencies and gaps. Allocations are counted only on JVMs that can
+ * count bytes allocated by a thread. Harness can be run from the command line, with compiled app classes and {@code
+ * android.jar} on the class path:
+ * <pre>
+ * java com.backyardbrains.audio.PipelineHarness [-seconds 60] [-rate 10000] [-channels 2] [-chunk 200] [-noise 300]
+ *     [-spikes rate:amplitude[:channel]]... [-seed 1] [-threshold 2000] [-framed bits] [-no-averager] [-no-record]
+ *     [-warmup 5]
+ * </pre>
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class PipelineHarness {
+
+    private static final int RING_BUFFER_NUM_SECONDS = 6;
+    private static final int RENDER_FPS = 60;
+    private static final int RENDER_WINDOW_SIZE = BYBGlUtils.DEFAULT_GL_WINDOW_HORIZONTAL_SIZE;
+
+    private final SyntheticSignal signal;
+    private final int chunkFrameCount;
+    private final int bitsPerSample;
+    private final int threshold;
+    private final boolean record;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final AllocationCounter allocationCounter = AllocationCounter.create();
+    private long measuredFrameCount;
+    private long measuredSpikeCount;
+    private long measuredNanos;
+
+    /**
+     * @param signal Generator of the processed samples.
+     * @param chunkFrameCount Number of frames passed through the pipeline at once.
+     * @param bitsPerSample Resolution of the framed stream samples go through, or {@code 0} if samples should be
+     * processed as they are generated.
+     * @param threshold Value samples of the selected channel need to cross to be averaged, or {@code 0} if averager
+     * shouldn't be used.
+     * @param record Whether chunks should be recorded.
+     */
+    public PipelineHarness(@NonNull SyntheticSignal signal, int chunkFrameCount, int bitsPerSample, int threshold,
+        boolean record) {
+        this.signal = signal;
+        this.chunkFrameCount = chunkFrameCount;
+        this.bitsPerSample = bitsPerSample;
+        this.threshold = threshold;
+        this.record = record;
+    }
+
+    /**
+     * Processes {@code seconds} of generated audio, after first processing {@code warmupSeconds} that are not measured,
+     * so measured chunks are run by compiled code.
+     *
+     * @throws IOException if recording can't be written
+     */
+    public void run(float seconds, float warmupSeconds) throws IOException {
+        final StreamFormat format = signal.getFormat();
+        final int channelCount = format.getChannelCount();
+        final long warmupFrameCount = (long) (warmupSeconds * format.getSampleRate());
+        final long totalFrameCount = warmupFrameCount + (long) (seconds * format.getSampleRate());
+
+        final Stage generate = addStage("generate");
+        final Stage encode = bitsPerSample > 0 ? addStage("encode") : null;
+        final Stage decode = bitsPerSample > 0 ? addStage("decode") : null;
+        final Stage process = addStage("pipeline");
+        final Stage render = addStage("render");
+        final Stage recorder = record ? addStage("record") : null;
+
+        final AudioPipeline pipeline = new AudioPipeline(format, RING_BUFFER_NUM_SECONDS);
+        pipeline.setUseAverager(threshold != 0);
+        pipeline.getAverager().setThreshold(threshold);
+        final AudioPipelineMetrics metrics = AudioPipelineMetrics.get();
+        metrics.reset();
+        metrics.start(format);
+
+        // all buffers are allocated up front, the same way sample sources allocate them
+        final short[] frames = new short[chunkFrameCount * channelCount];
+        final ByteBuffer chunk =
+            ByteBuffer.allocate((int) format.getByteCount(chunkFrameCount)).order(ByteOrder.LITTLE_ENDIAN);
+        final ShortBuffer chunkSamples = chunk.asShortBuffer();
+        final ByteBuffer stream = ByteBuffer.allocate(frames.length * 2);
+        final FrameDecoder decoder = bitsPerSample > 0 ? new FrameDecoder(channelCount, bitsPerSample) : null;
+        final short[] window = new short[RENDER_WINDOW_SIZE];
+        final File recording = record ? File.createTempFile("harness", LosslessAudioFile.EXTENSION) : null;
+        final LosslessEncoder encoder =
+            recording != null ? new LosslessEncoder(recording, format, LosslessCodec.DEFAULT_BLOCK_FRAME_COUNT) : null;
+
+        long lastRenderFrame = 0;
+        long start = 0;
+        long startSpikeCount = 0;
+        boolean measuring = false;
+        try {
+            while (signal.getFrameCount() < totalFrameCount) {
+                if (!measuring && signal.getFrameCount() >= warmupFrameCount) {
+                    measuring = true;
+                    // nothing that happened during the warmup is reported
+                    for (Stage stage : stages) {
+                        stage.reset();
+                    }
+                    metrics.reset();
+                    startSpikeCount = signal.getSpikeCount();
+                    start = System.nanoTime();
+                }
+
+                generate.begin();
+                signal.fill(frames, chunkFrameCount);
+                generate.end(chunkFrameCount);
+
+                if (decoder != null) {
+                    encode.begin();
+                    encode(frames, stream, channelCount, bitsPerSample);
+                    encode.end(chunkFrameCount);
+
+                    decode.begin();
+                    decoder.decode(stream, frames, 0);
+                    stream.clear();
+                    decode.end(chunkFrameCount);
+                }
+                chunkSamples.clear();
+                chunkSamples.put(frames);
+                metrics.onChunkCaptured(signal.getFrameCount() - chunkFrameCount, chunkFrameCount);
+
+                process.begin();
+                pipeline.add(chunk);
+                process.end(chunkFrameCount);
+
+                if (signal.getFrameCount() - lastRenderFrame >= format.getSampleRate() / RENDER_FPS) {
+                    render.begin();
+                    final MultichannelRingBuffer buffer = pipeline.getAudioBuffer();
+                    final int count = Math.min(window.length, buffer.size());
+                    final long sequence =
+                        buffer.copyLatest(pipeline.getSelectedChannel(), window, window.length - count, count);
+                    metrics.onRendered(sequence);
+                    // rendering keeps up if it's done faster than audio of a single rendering frame is captured
+                    render.end((int) (signal.getFrameCount() - lastRenderFrame));
+                    lastRenderFrame = signal.getFrameCount();
+                }
+
+                if (encoder != null) {
+                    recorder.begin();
+                    encoder.write(chunk.array(), chunk.capacity());
+                    metrics.onChunkConsumed(AudioConsumer.RECORDER);
+                    recorder.end(chunkFrameCount);
+                }
+            }
+            measuredNanos = System.nanoTime() - start;
+            measuredFrameCount = totalFrameCount - warmupFrameCount;
+            measuredSpikeCount = signal.getSpikeCount() - startSpikeCount;
+        } finally {
+            if (encoder != null) encoder.close();
+            //noinspection ResultOfMethodCallIgnored
+            if (recording != null) recording.delete();
+        }
+    }
+
+    /**
+     * Returns human readable report with throughput, allocation rate and latency of every stage, followed by pipeline
+     * metrics. Allocation rates are in bytes per second of processed audio.
+     */
+    @NonNull public String report() {
+        final StreamFormat format = signal.getFormat();
+        final float audioSeconds = (float) measuredFrameCount / format.getSampleRate();
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%.1f s of %s in %d frame chunks, %d spikes\n", audioSeconds, format,
+            chunkFrameCount, measuredSpikeCount));
+        sb.append(String.format(Locale.US, "processed in %.3f s (%.1fx real time)\n", measuredNanos / 1e9f,
+            audioSeconds / (measuredNanos / 1e9f)));
+        sb.append(String.format(Locale.US, "%-9s %8s %14s %12s %12s %9s %9s %9s\n", "stage", "calls", "frames/s",
+            "x realtime", "alloc B/s", "p50 us", "p99 us", "max us"));
+        for (Stage stage : stages) {
+            final float stageSeconds = stage.nanos / 1e9f;
+            final String allocated = allocationCounter != null ? String.format(Locale.US, "%12.0f",
+                Math.max(0, stage.allocatedBytes) / audioSeconds) : String.format(Locale.US, "%12s", "n/a");
+            sb.append(String.format(Locale.US, "%-9s %8d %14.0f %12.1f %s %9.1f %9.1f %9.1f\n", stage.name,
+                stage.latency.getCount(), stage.frameCount / stageSeconds,
+                stage.frameCount / stageSeconds / format.getSampleRate(), allocated,
+                stage.latency.getPercentileNanos(50) / 1e3f, stage.latency.getPercentileNanos(99) / 1e3f,
+                stage.latency.getMaxNanos() / 1e3f));
+        }
+
+        // jitter is not reported because chunks are not captured in real time
+        final AudioPipelineMetrics metrics = AudioPipelineMetrics.get();
+        sb.append(String.format(Locale.US, "%d chunks, %d gaps, %d frames lost\n", metrics.getChunkCount(),
+            metrics.getGapCount(), metrics.getLostFrameCount()));
+        appendLatency(sb, "capture to ring buffer", metrics.getLatency(AudioConsumer.RING_BUFFER));
+        appendLatency(sb, "capture to averager", metrics.getLatency(AudioConsumer.AVERAGER));
+        appendLatency(sb, "capture to recorder", metrics.getLatency(AudioConsumer.RECORDER));
+        appendLatency(sb, "capture to render", metrics.getRenderLatency());
+        return sb.toString();
+    }
+
+    // Creates stage with specified name that's measured and reported
+    private Stage addStage(@NonNull String name) {
+        final Stage stage = new Stage(name, allocationCounter);
+        stages.add(stage);
+        return stage;
+    }
+
+    // Encodes specified interleaved frames as SpikerBox-style framed stream of specified resolution
+    private static void encode(@NonNull short[] frames, @NonNull ByteBuffer dst, int channelCount, int bitsPerSample) {
+        final int shift = 16 - bitsPerSample;
+        final int center = 1 << (bitsPerSample - 1);
+        final int max = (1 << bitsPerSample) - 1;
+        for (int i = 0; i < frames.length; i++) {
+            final int value = Math.max(0, Math.min(max, (frames[i] >> shift) + center));
+            // only the first byte of the frame has the most significant bit set
+            dst.put((byte) (i % channelCount == 0 ? 0x80 | (value >> 7) : value >> 7));
+            dst.put((byte) (value & 0x7F));
+        }
+        dst.flip();
+    }
+
+    // Appends percentiles of specified latency histogram if anything was recorded
+    private static void appendLatency(@NonNull StringBuilder sb, @NonNull String name,
+        @NonNull LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) return;
+
+        sb.append(String.format(Locale.US, "%-22s p50 %8.1f  p99 %8.1f  max %8.1f us\n", name,
+            histogram.getPercentileNanos(50) / 1e3f, histogram.getPercentileNanos(99) / 1e3f,
+            histogram.getMaxNanos() / 1e3f));
+    }
+
+    /**
+     * Runs the harness with the options passed as arguments and prints the report.
+     */
+    public static void main(String[] args) throws Exception {
+        float seconds = 60;
+        float warmupSeconds = 5;
+        int sampleRate = 10000;
+        int channelCount = 2;
+        int chunkFrameCount = 200;
+        float noise = 300;
+        long seed = 1;
+        int threshold = 2000;
+        int bitsPerSample = 0;
+        boolean record = true;
+        final List<float[]> trains = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String option = args[i];
+                if ("-no-averager".equals(option)) {
+                    threshold = 0;
+                } else if ("-no-record".equals(option)) {
+                    record = false;
+                } else if (i + 1 < args.length) {
+                    final String value = args[++i];
+                    if ("-seconds".equals(option)) {
+                        seconds = Float.parseFloat(value);
+                    } else if ("-warmup".equals(option)) {
+                        warmupSeconds = Float.parseFloat(value);
+                    } else if ("-rate".equals(option)) {
+                        sampleRate = Integer.parseInt(value);
+                    } else if ("-channels".equals(option)) {
+                        channelCount = Integer.parseInt(value);
+                    } else if ("-chunk".equals(option)) {
+                        chunkFrameCount = Integer.parseInt(value);
+                    } else if ("-noise".equals(option)) {
+                        noise = Float.parseFloat(value);
+                    } else if ("-seed".equals(option)) {
+                        seed = Long.parseLong(value);
+                    } else if ("-threshold".equals(option)) {
+                        threshold = Integer.parseInt(value);
+                    } else if ("-framed".equals(option)) {
+                        bitsPerSample = Integer.parseInt(value);
+                    } else if ("-spikes".equals(option)) {
+                        final String[] parts = value.split(":");
+                        trains.add(new float[] {
+                            Float.parseFloat(parts[0]), Float.parseFloat(parts[1]),
+                            parts.length > 2 ? Integer.parseInt(parts[2]) : 0
+                        });
+                    } else {
+                        throw new IllegalArgumentException(option);
+                    }
+                } else {
+                    throw new IllegalArgumentException(option);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: PipelineHarness [-seconds 60] [-rate 10000] [-channels 2] [-chunk 200] "
+                + "[-noise 300] [-spikes rate:amplitude[:channel]]... [-seed 1] [-threshold 2000] [-framed bits] "
+                + "[-no-averager] [-no-record] [-warmup 5]");
+            System.exit(1);
+            return;
+        }
+        if (trains.isEmpty()) {
+            trains.add(new float[] { 20, 4000, 0 });
+            trains.add(new float[] { 5, 8000, channelCount - 1 });
+        }
+
+        // Android logging is not available outside of a device
+        LogUtils.LOGGING_ENABLED = false;
+
+        final SyntheticSignal signal = new SyntheticSignal(new StreamFormat(sampleRate, channelCount), noise, seed);
+        for (float[] train : trains) {
+            signal.addSpikeTrain((int) train[2], train[0], train[1]);
+        }
+        final PipelineHarness harness = new PipelineHarness(signal, chunkFrameCount, bitsPerSample, threshold, record);
+        harness.run(seconds, warmupSeconds);
+        System.out.print(harness.report());
+    }
+
+    /**
+     * Single measured stage of the pipeline.
+     */
+    private static final class Stage {
+
+        private final String name;
+        private final AllocationCounter allocationCounter;
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private long nanos;
+        private long frameCount;
+        private long allocatedBytes;
+        private long startNanos;
+        private long startAllocatedBytes;
+
+        private Stage(@NonNull String name, @Nullable AllocationCounter allocationCounter) {
+            this.name = name;
+            this.allocationCounter = allocationCounter;
+        }
+
+        // Marks the start of a chunk processing
+        private void begin() {
+            if (allocationCounter != null) startAllocatedBytes = allocationCounter.get();
+            startNanos = System.nanoTime();
+        }
+
+        // Marks the end of processing of a chunk of specified number of frames
+        private void end(int frameCount) {
+            final long duration = System.nanoTime() - startNanos;
+            if (allocationCounter != null) {
+                allocatedBytes += allocationCounter.get() - startAllocatedBytes - allocationCounter.overhead;
+            }
+            latency.record(duration);
+            nanos += duration;
+            this.frameCount += frameCount;
+        }
+
+        // Forgets everything that was measured
+        private void reset() {
+            latency.reset();
+            nanos = 0;
+            frameCount = 0;
+            allocatedBytes = 0;
+        }
+    }
+
+    /**
+     * Counts bytes allocated by the current thread through {@code com.sun.management.ThreadMXBean}, which is looked up
+     * reflectively because it's not available on Android.
+     */
+    private static final class AllocationCounter {
+
+        private final Object bean;
+        private final Method method;
+        private final Object[] args;
+        // bytes allocated by the counting itself
+        private long overhead;
+
+        private AllocationCounter(@NonNull Object bean, @NonNull Method method) {
+            this.bean = bean;
+            this.method = method;
+            args = new Object[] { Thread.currentThread().getId() };
+        }
+
+        // Returns counter for the current thread, or null if JVM can't count allocated bytes
+        @Nullable static AllocationCounter create() {
+            try {
+                final Object bean =
+                    Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+                final Method method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+                final AllocationCounter counter = new AllocationCounter(bean, method);
+                if (counter.get() < 0) return null;
+
+                // the least amount allocated between two calls is what a call allocates
+                long overhead = Long.MAX_VALUE;
+                for (int i = 0; i < 1000; i++) {
+                    final long before = counter.get();
+                    overhead = Math.min(overhead, counter.get() - before);
+                }
+                counter.overhead = overhead;
+                return counter;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        // Returns number of bytes allocated by the current thread so far
+        long get() {
+            try {
+                return (Long) method.invoke(bean, args);
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Tells which sample of the recording is being heard at a given moment. Writer reports every chunk it writes to the
+ * audio output, and the clock maps number of frames that the output has actually played (reported by {@link
+ * PlaybackHead}) back to the position in the recording.
+ *
+ * <p>Played frame count advances in hardware sized steps, so between two steps position is interpolated using the
+ * sample rate. Interpolated position never goes backwards, never runs ahead of the written frames and never
+ * extrapolates more than the specified number of frames past the last reported step.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class PlaybackClock {
+
+    // number of latest written chunks that are remembered, output buffer never holds more than a few of them
+    private static final int SEGMENT_COUNT = 32;
+
+    private final PlaybackHead head;
+    private final int sampleRate;
+    private final int maxExtrapolation;
+
+    // total number of frames written to the output at the end of each chunk
+    private final long[] segmentFrameEnds = new long[SEGMENT_COUNT];
+    // position of the sample that follows each chunk in the recording
+    private final long[] segmentSampleEnds = new long[SEGMENT_COUNT];
+    private final int[] segmentLengths = new int[SEGMENT_COUNT];
+    // index of the latest chunk
+    private int newestSegment = -1;
+    private int segmentCount;
+    private long writtenFrames;
+
+    private long lastPlayedFrames = -1;
+    private long lastPlayedNanos;
+    private long lastEstimate;
+
+    /**
+     * @param head Source of played frame count.
+     * @param sampleRate Sample rate of the output.
+     * @param maxExtrapolation Maximum number of frames position can be interpolated past the last played frame count.
+     */
+    public PlaybackClock(@NonNull PlaybackHead head, int sampleRate, int maxExtrapolation) {
+        this.head = head;
+        this.sampleRate = sampleRate;
+        this.maxExtrapolation = maxExtrapolation;
+    }
+
+    /**
+     * Needs to be called after {@code sampleCount} samples starting at {@code sample} position of the recording have
+     * been written to the audio output.
+     */
+    public synchronized void onWrite(long sample, int sampleCount) {
+        if (sampleCount <= 0) return;
+
+        writtenFrames += sampleCount;
+        newestSegment = (newestSegment + 1) % SEGMENT_COUNT;
+        segmentFrameEnds[newestSegment] = writtenFrames;
+        segmentSampleEnds[newestSegment] = sample + sampleCount;
+        segmentLengths[newestSegment] = sampleCount;
+        if (segmentCount < SEGMENT_COUNT) segmentCount++;
+    }
+
+    /**
+     * Returns position of the recording sample that's being heard at the specified moment (in {@link
+     * System#nanoTime()} units), or {@code -1} if nothing has been written yet.
+     */
+    public synchronized long getPlayingSample(long nowNanos) {
+        if (segmentCount == 0) return -1;
+
+        final long playedFrames = Math.min(head.getPlayedFrameCount(), writtenFrames);
+        if (playedFrames != lastPlayedFrames) {
+            lastPlayedFrames = playedFrames;
+            lastPlayedNanos = nowNanos;
+        }
+
+        // interpolate between the hardware steps
+        final long elapsedFrames = Math.max(0, (nowNanos - lastPlayedNanos) * sampleRate / 1000000000L);
+        long estimate = playedFrames + Math.min(elapsedFrames, maxExtrapolation);
+        estimate = Math.min(Math.max(estimate, lastEstimate), writtenFrames);
+        lastEstimate = estimate;
+
+        return toSample(estimate);
+    }
+
+    // Maps specified number of played frames to the recording sample position
+    private long toSample(long frames) {
+        int segment = newestSegment;
+        for (int i = 0; i < segmentCount; i++) {
+            final long frameStart = segmentFrameEnds[segment] - segmentLengths[segment];
+            if (frames >= frameStart || i == segmentCount - 1) {
+                // frames that are older than all remembered chunks are mapped to the start of the oldest one
+                final long offset = Math.max(0, segmentFrameEnds[segment] - frames);
+                return segmentSampleEnds[segment] - Math.min(offset, segmentLengths[segment]);
+            }
+            segment = (segment - 1 + SEGMENT_COUNT) % SEGMENT_COUNT;
+        }
+
+        return segmentSampleEnds[newestSegment];
+    }
+}
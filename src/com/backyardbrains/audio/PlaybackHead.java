@@ -0,0 +1,16 @@
+package com.backyardbrains.audio;
+
+/**
+ * Source of the number of audio frames that audio output has actually played. On device it's backed by the {@link
+ * android.media.AudioTrack} that plays the recording, while in tests it can be simulated.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public interface PlaybackHead {
+
+    /**
+     * Returns number of frames played since the output started. Value advances in steps whose size depends on the
+     * audio hardware and stops advancing when output runs out of written frames.
+     */
+    long getPlayedFrameCount();
+}
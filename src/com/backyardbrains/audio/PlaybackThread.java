@@ -4,12 +4,13 @@ import android.media.AudioTrack;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.backyardbrains.utils.AudioUtils;
-import com.backyardbrains.utils.BufferUtils;
+import com.backyardbrains.utils.RecordingUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.LOGE;
@@ -22,6 +23,16 @@ class PlaybackThread {
 
     private static final String TAG = makeLogTag(PlaybackThread.class);
 
+    // Number of blocks kept in the block cache (4 MB), enough for the longest viewport and a seek window
+    private static final int BLOCK_CACHE_BLOCK_COUNT = 64;
+    // How long writer waits for the reader before checking playback state again
+    private static final long READ_AHEAD_TIMEOUT_MS = 100;
+
+    /**
+     * Default number of chunks that are read ahead of the playback.
+     */
+    static final int DEFAULT_READ_AHEAD_DEPTH = 16;
+
     // Service to which we push audio data
     private final ReceivesAudio service;
     // Triggers audio playback events
@@ -30,15 +41,35 @@ class PlaybackThread {
     private final String filePath;
     // Whether file should start playing right away
     private boolean autoPlay;
-    // Size of buffer (chunk) for the audio file reading
-    private final int bufferSize;
-    // Size of buffer (chunk) to read when seeking (6 seconds)
-    private final int seekBufferSize;
-
-    // Audio playback thread
+    // Size of buffer (chunk) for the audio file reading, depends on the file sample rate
+    private int bufferSize;
+    // Number of chunks that are read ahead of the playback
+    private final int readAheadDepth;
+    // Buffer (chunk) that's filled when seeking (6 seconds), reused for every seek
+    private byte[] seekBuffer;
+    private ByteBuffer seekByteBuffer;
+    // Format of the audio file, available once file is opened
+    private volatile StreamFormat format;
+
+    // Audio playback thread, writes read chunks to the audio track and the service
     private Thread thread;
+    // Thread that reads audio file ahead of the playback
+    private Thread readerThread;
+    // Chunks that are read ahead of the playback
+    private volatile ReadAheadBuffer readAheadBuffer;
+    // Tells which sample is being heard, available while audio track is alive
+    private volatile PlaybackClock clock;
     // Random access file stream that holds audio file that's being played
     private BYBAudioFile raf;
+    // Cache of recently read audio file blocks used when seeking and when drawing the viewport
+    private volatile AudioBlockCache blockCache;
+    // Reused buffer for bytes of the samples copied to the viewport, guarded by itself
+    private final Object viewportLock = new Object();
+    private byte[] viewportBytes = new byte[0];
+    // Channel of the multichannel file that's played through the audio track
+    private volatile int playedChannel;
+    // Reused buffer for the played channel samples of a multichannel chunk
+    private byte[] trackBuffer;
     // True if audio is currently being played, false if it's paused or stopped
     private boolean playing;
     // Whether audio is currently being sought.
@@ -46,7 +77,9 @@ class PlaybackThread {
     // Flag that indicates whether thread should be running
     private boolean done;
     // Position of the playback head
-    private long progress;
+    private volatile long progress;
+    // Whether playback head has been moved since the reader was last repositioned
+    private volatile boolean sought;
     // Length of the audio file in bytes
     private long duration;
 
@@ -59,8 +92,9 @@ class PlaybackThread {
          * Triggered on playback start.
          *
          * @param length Length of the playback in bytes.
+         * @param format Format of the played audio file.
          */
-        void onStart(long length);
+        void onStart(long length, @NonNull StreamFormat format);
 
         /**
          * Triggered when playback resumes after pause.
@@ -89,17 +123,16 @@ class PlaybackThread {
      * Class constructor.
      *
      * @param service the service that implements the {@link ReceivesAudio}
+     * @param readAheadDepth number of chunks that are read from the file ahead of the playback
      * @see AudioService#turnOnPlaybackThread()
      */
-    PlaybackThread(@NonNull ReceivesAudio service, @NonNull String filePath, boolean autoPlay,
+    PlaybackThread(@NonNull ReceivesAudio service, @NonNull String filePath, boolean autoPlay, int readAheadDepth,
         @Nullable final PlaybackListener listener) {
         this.service = service;
         this.filePath = filePath;
         this.autoPlay = autoPlay;
+        this.readAheadDepth = Math.max(1, readAheadDepth);
         this.listener = listener;
-
-        bufferSize = AudioUtils.OUT_BUFFER_SIZE;
-        seekBufferSize = AudioUtils.SAMPLE_RATE * 6 * 2;
     }
 
     /**
@@ -123,6 +156,30 @@ class PlaybackThread {
         return progress;
     }
 
+    /**
+     * Returns position of the sample that's being heard at the specified moment (in {@link System#nanoTime()} units)
+     * or {@code -1} if it's not known. Unlike {@link #getProgress()}, which is position of the last byte passed to the
+     * audio track, this accounts for the audio track latency and advances smoothly between written chunks.
+     */
+    long getPlayingSample(long nowNanos) {
+        final PlaybackClock clock = this.clock;
+        return clock != null ? clock.getPlayingSample(nowNanos) : -1;
+    }
+
+    /**
+     * Returns format of the played audio file, or {@code null} if file hasn't been opened yet.
+     */
+    @Nullable StreamFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets channel of the multichannel file that's played. Only one channel is played at a time.
+     */
+    void setPlayedChannel(int channel) {
+        playedChannel = Math.max(0, channel);
+    }
+
     /**
      * Returns length of playback in bytes.
      */
@@ -130,6 +187,71 @@ class PlaybackThread {
         return duration;
     }
 
+    /**
+     * Returns number of block cache lookups that were served from memory.
+     */
+    long getBlockCacheHitCount() {
+        final AudioBlockCache cache = blockCache;
+        return cache != null ? cache.getHitCount() : 0;
+    }
+
+    /**
+     * Returns number of block cache lookups that needed to be read from the audio file.
+     */
+    long getBlockCacheMissCount() {
+        final AudioBlockCache cache = blockCache;
+        return cache != null ? cache.getMissCount() : 0;
+    }
+
+    /**
+     * Copies {@code count} samples of specified {@code channel} of the audio file that end right before the sample at
+     * {@code endSample} position to specified {@code dst} array starting at {@code dstOffset}. Samples that fall
+     * before the beginning or after the end of file are zeros. Samples are read through the block cache so consecutive
+     * frames of a scrolling viewport mostly copy from memory. Returns {@code false} if the audio file is not open.
+     */
+    boolean copySamples(long endSample, int channel, @NonNull short[] dst, int dstOffset, int count) {
+        final AudioBlockCache cache = blockCache;
+        if (cache == null || count <= 0) return cache != null;
+        final StreamFormat format = this.format;
+        if (channel < 0 || channel >= format.getChannelCount()) return false;
+
+        final long startSample = endSample - count;
+        final int zerosPrependCount = (int) Math.min(count, Math.max(0, -startSample));
+        Arrays.fill(dst, dstOffset, dstOffset + zerosPrependCount, (short) 0);
+
+        synchronized (viewportLock) {
+            final int byteCount = (int) format.getByteCount(count - zerosPrependCount);
+            if (viewportBytes.length < byteCount) viewportBytes = new byte[byteCount];
+
+            int readSampleCount = 0;
+            try {
+                final int read = cache.read(format.getByteCount(Math.max(0, startSample)), viewportBytes, 0,
+                    byteCount);
+                readSampleCount = (int) format.getSampleCount(Math.max(0, read));
+            } catch (IOException e) {
+                LOGE(TAG, "Error reading audio file samples", e);
+            }
+
+            // samples are little-endian and interleaved, pick the channel in a single strided pass
+            final int from = dstOffset + zerosPrependCount;
+            final int frameSize = format.getFrameSize();
+            for (int i = 0, b = channel * 2; i < readSampleCount; i++, b += frameSize) {
+                dst[from + i] = (short) ((viewportBytes[b] & 0xFF) | (viewportBytes[b + 1] << 8));
+            }
+            Arrays.fill(dst, from + readSampleCount, dstOffset + count, (short) 0);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns number of times playback had to wait for the audio file to be read.
+     */
+    long getUnderrunCount() {
+        final ReadAheadBuffer buffer = readAheadBuffer;
+        return buffer != null ? buffer.getUnderrunCount() : 0;
+    }
+
     /**
      * Starts/resumes playback.
      */
@@ -176,6 +298,8 @@ class PlaybackThread {
 
         playing = false;
         done = true;
+        // wake up both stages so they can exit
+        if (readAheadBuffer != null) readAheadBuffer.close();
 
         LOGD(TAG, "Playback stopped");
 
@@ -189,9 +313,11 @@ class PlaybackThread {
         if (thread == null) return;
 
         progress = position;
+        // reader is repositioned by the writer once it doesn't hold any chunk
+        sought = true;
 
         try {
-            seekToPosition(new byte[seekBufferSize]);
+            seekToPosition();
         } catch (IOException e) {
             LOGE(TAG, "Error reading random access file stream", e);
         }
@@ -209,7 +335,7 @@ class PlaybackThread {
         seeking = start;
 
         try {
-            seekToPosition(new byte[seekBufferSize]);
+            seekToPosition();
         } catch (IOException e) {
             LOGE(TAG, "Error reading random access file stream", e);
         }
@@ -219,60 +345,106 @@ class PlaybackThread {
     private void start() {
         try {
             raf = newRandomAccessFile();
+            if (raf == null) return;
             LOGD(TAG, "RandomAccessFile created");
 
+            final StreamFormat format = new StreamFormat(raf.sampleRate(), raf.numChannels());
+            LOGD(TAG, "Audio file format is: " + format);
+            // buffers are sized for the file format, every chunk holds the same number of frames whatever the channels
+            final int outBufferSize = AudioUtils.getOutBufferSize(format.getSampleRate());
+            bufferSize = outBufferSize * format.getChannelCount();
+            if (format.getChannelCount() > 1) trackBuffer = new byte[outBufferSize];
+            seekBuffer = new byte[(int) format.getByteCount(format.getSampleRate() * 6)];
+            seekByteBuffer = ByteBuffer.wrap(seekBuffer);
+            this.format = format;
+            // seeking and viewport are enabled once cache is available
+            blockCache = new AudioBlockCache(raf, BLOCK_CACHE_BLOCK_COUNT);
+
             duration = (int) raf.length();
             LOGD(TAG, "Audio file byte count is: " + duration);
 
             // setup audio track
-            final AudioTrack track = AudioUtils.createAudioTrack();
+            final AudioTrack track = AudioUtils.createAudioTrack(format.getSampleRate());
             track.play();
+            final AudioTrackPlaybackHead head = new AudioTrackPlaybackHead(track);
+            final PlaybackClock clock =
+                new PlaybackClock(head, format.getSampleRate(), (int) format.getSampleCount(bufferSize));
+            this.clock = clock;
             LOGD(TAG, "AudioTrack created");
 
             if (autoPlay) playing = true;
 
             LOGD(TAG, "Playback started");
 
-            if (listener != null) listener.onStart(duration);
+            if (listener != null) listener.onStart(duration, format);
+
+            // start reading the file ahead of the playback
+            final ReadAheadBuffer buffer = new ReadAheadBuffer(readAheadDepth, bufferSize);
+            readAheadBuffer = buffer;
+            if (done) buffer.close(); // stopped while we were setting up
+            readerThread = new Thread(new Runnable() {
+                @Override public void run() {
+                    readAhead(buffer);
+                }
+            });
+            readerThread.start();
 
-            final byte[] buffer = new byte[bufferSize];
             while (!done && raf != null) {
                 if (playing) {
-                    // if we are playing after seek we need to fix it because of the different buffer sizes
-                    // when playing and seeking
-                    if (Math.abs(raf.getFilePointer() - progress) > bufferSize) raf.seek(progress);
+                    // reader might have stopped at the end of file, so it needs to be repositioned before taking
+                    if (sought) {
+                        sought = false;
+                        buffer.reset(progress);
+                    }
 
-                    if (raf.read(buffer) < 0) { // audio playback reached end
-                        // reset input stream
-                        rewind();
+                    final int chunk = buffer.take(READ_AHEAD_TIMEOUT_MS);
+                    if (chunk < 0) {
+                        if (buffer.isEndOfFile()) { // audio playback reached end
+                            // reset input stream and make reader start over so file can be played again
+                            rewind();
+                            buffer.reset(progress);
 
-                        LOGD(TAG, "Playback completed");
+                            LOGD(TAG, "Playback completed");
 
-                        if (listener != null) listener.onStop();
+                            if (listener != null) listener.onStop();
+                        }
+
+                        continue;
+                    }
 
+                    // if audio has been sought in the meantime reader needs to continue from the new position
+                    if (buffer.getPosition(chunk) != progress) {
+                        buffer.reset(progress);
                         continue;
                     }
 
                     // save progress
-                    progress = (int) raf.getFilePointer();
+                    progress = buffer.getPosition(chunk) + buffer.getLength(chunk);
 
                     synchronized (service) {
-                        service.receiveAudio(ByteBuffer.wrap(buffer), progress);
+                        service.receiveAudio(buffer.getData(chunk), progress);
                     }
 
                     // trigger progress listener
                     if (listener != null) listener.onProgress(progress);
 
                     // play audio data if we're not seeking
-                    track.write(buffer, 0, buffer.length);
+                    writeToTrack(track, format, buffer.getChunk(chunk), buffer.getLength(chunk));
+                    clock.onWrite(format.getSampleCount(buffer.getPosition(chunk)),
+                        (int) format.getSampleCount(buffer.getLength(chunk)));
+
+                    buffer.release();
                 } else if (seeking) {
-                    seekToPosition(new byte[seekBufferSize]);
+                    seekToPosition();
                 }
             }
 
             // release resources
+            buffer.close();
+            LOGD(TAG, "Playback underruns: " + buffer.getUnderrunCount());
             if (raf != null) closeRaf();
-            track.release();
+            this.clock = null;
+            head.release();
 
             LOGD(TAG, "AudioTrack released");
         } catch (IOException e) {
@@ -284,6 +456,69 @@ class PlaybackThread {
         }
     }
 
+    // Reads the audio file chunk by chunk ahead of the playback until specified buffer is closed. Reader uses its own
+    // file stream so it never moves file pointer of the stream that's used for seeking.
+    private void readAhead(@NonNull ReadAheadBuffer buffer) {
+        BYBAudioFile file = null;
+        try {
+            file = RecordingUtils.openRecording(new File(filePath));
+            final long length = file.length();
+            long filePointer = 0;
+
+            int chunk;
+            while ((chunk = buffer.awaitFreeChunk()) >= 0) {
+                final long position = buffer.getFillPosition();
+                if (position >= length) {
+                    buffer.publish(chunk, -1);
+                    continue;
+                }
+                if (position != filePointer) file.seek(position);
+
+                final byte[] data = buffer.getChunk(chunk);
+                int read = 0;
+                while (read < data.length) {
+                    final int count = file.read(data, read, data.length - read);
+                    if (count < 0) break;
+                    read += count;
+                }
+                filePointer = position + read;
+
+                buffer.publish(chunk, read);
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Error reading audio file ahead of the playback", e);
+
+            stop();
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    LOGE(TAG, "IOException while closing read-ahead file: " + e.toString());
+                }
+            }
+        }
+    }
+
+    // Writes specified chunk of the audio file to the audio track, only the played channel if file is multichannel
+    private void writeToTrack(@NonNull AudioTrack track, @NonNull StreamFormat format, @NonNull byte[] data,
+        int length) {
+        final int channelCount = format.getChannelCount();
+        if (channelCount == 1) {
+            track.write(data, 0, length);
+            return;
+        }
+
+        final int frameSize = format.getFrameSize();
+        final int frameCount = length / frameSize;
+        final int channel = Math.min(playedChannel, channelCount - 1);
+        for (int i = 0, b = channel * 2; i < frameCount; i++, b += frameSize) {
+            trackBuffer[2 * i] = data[b];
+            trackBuffer[2 * i + 1] = data[b + 1];
+        }
+        track.write(trackBuffer, 0, frameCount * 2);
+    }
+
     // Rewinds audio file.
     private void rewind() throws IOException {
         if (thread == null) return;
@@ -291,8 +526,6 @@ class PlaybackThread {
 
         // set playing flag
         playing = false;
-        // seek to file start
-        if (raf != null) raf.seek(0);
         // update progress to 0 and trigger listener
         progress = 0;
         if (listener != null) listener.onProgress(progress);
@@ -300,23 +533,34 @@ class PlaybackThread {
         LOGD(TAG, "Audio file rewind");
     }
 
-    // This represents a single seek loop.
-    private synchronized void seekToPosition(byte[] seekBuffer) throws IOException {
-        final long zerosPrependCount = progress - seekBuffer.length;
-        final long seekPosition = Math.max(0, zerosPrependCount);
-        raf.seek(seekPosition);
-        int readBytesCount = raf.read(seekBuffer);
-        if (readBytesCount > 0) {
-            if (zerosPrependCount < 0) {
-                final int zerosPrependCountAbs = (int) Math.abs(zerosPrependCount);
-                seekBuffer = BufferUtils.shift(seekBuffer, zerosPrependCountAbs);
+    // This represents a single seek loop. Window of audio that ends at current progress is assembled from the block
+    // cache, so while scrubbing only blocks that weren't recently visited are read from the file.
+    private synchronized void seekToPosition() throws IOException {
+        final AudioBlockCache cache = blockCache;
+        if (cache == null) return;
+
+        // if window starts before the file beginning it's prepended with zeros
+        final long windowStart = progress - seekBuffer.length;
+        final int zerosPrependCount = (int) Math.min(seekBuffer.length, Math.max(0, -windowStart));
+        Arrays.fill(seekBuffer, 0, zerosPrependCount, (byte) 0);
+
+        final int readBytesCount = cache.read(Math.max(0, windowStart), seekBuffer, zerosPrependCount,
+            seekBuffer.length - zerosPrependCount);
+        if (readBytesCount >= 0) {
+            // clear whatever is left from the previous seek if we reached end of file
+            Arrays.fill(seekBuffer, zerosPrependCount + readBytesCount, seekBuffer.length, (byte) 0);
+            synchronized (service) {
+                service.receiveAudio(seekByteBuffer, progress);
             }
-            service.receiveAudio(ByteBuffer.wrap(seekBuffer), progress);
         }
     }
 
     // Closes InputStream
     private void closeRaf() {
+        final AudioBlockCache cache = blockCache;
+        if (cache != null) LOGD(TAG, "Block cache hits: " + cache.getHitCount() + ", misses: " + cache.getMissCount());
+        // viewport shouldn't read from the file once it's closed
+        blockCache = null;
         try {
             raf.close();
         } catch (IOException e) {
@@ -331,7 +575,7 @@ class PlaybackThread {
     @Nullable private BYBAudioFile newRandomAccessFile() throws IOException {
         final File file = new File(filePath);
         if (file.exists()) {
-            return new WavAudioFile(file);
+            return RecordingUtils.openRecording(file);
         } else {
             stop();
             LOGE(TAG, "Cant load file " + filePath + ", it doesn't exist!!");
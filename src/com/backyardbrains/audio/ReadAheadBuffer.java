@@ -0,0 +1,213 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded ring of audio chunks that are read from the file ahead of the playback. Single reader thread fills free
+ * chunks with consecutive parts of the file while single writer thread consumes filled chunks in order, so storage
+ * latency is hidden as long as reader stays at least one chunk ahead of the writer.
+ *
+ * <p>All chunks are allocated up front and reused. Writer repositions the reader with {@link #reset(long)}, after
+ * which chunks that were read from the previous position are discarded.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class ReadAheadBuffer {
+
+    private final byte[][] chunks;
+    private final ByteBuffer[] wrappedChunks;
+    // number of valid bytes in each chunk
+    private final int[] lengths;
+    // file position of the first byte of each chunk
+    private final long[] positions;
+
+    // index of the oldest filled chunk
+    private int head;
+    // number of filled chunks
+    private int count;
+
+    // incremented every time buffer is reset so chunks read from the previous position can be recognized
+    private int generation;
+    // position from which next chunk should be read
+    private long readPosition;
+    // generation and position of the chunk that's currently being filled by the reader
+    private int fillGeneration;
+    private long fillPosition;
+
+    private boolean endOfFile;
+    private boolean closed;
+
+    // whether writer consumed a chunk since the last reset so running out of chunks is considered an underrun
+    private boolean underrunPossible;
+    private long underrunCount;
+
+    /**
+     * @param depth Number of chunks that can be read ahead.
+     * @param chunkSize Size of a single chunk in bytes.
+     */
+    ReadAheadBuffer(int depth, int chunkSize) {
+        if (depth < 1) throw new IllegalArgumentException("Read-ahead depth needs to be at least 1");
+
+        chunks = new byte[depth][chunkSize];
+        wrappedChunks = new ByteBuffer[depth];
+        for (int i = 0; i < depth; i++) {
+            wrappedChunks[i] = ByteBuffer.wrap(chunks[i]);
+        }
+        lengths = new int[depth];
+        positions = new long[depth];
+    }
+
+    //=================================================
+    //  READER
+    //=================================================
+
+    /**
+     * Blocks until there is a free chunk to read into and returns its index, or {@code -1} if buffer has been closed.
+     * Chunk should be filled with data read from {@link #getFillPosition()} and then passed to {@link #publish(int,
+     * int)}.
+     */
+    synchronized int awaitFreeChunk() {
+        while (!closed && (endOfFile || count == chunks.length)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return -1;
+            }
+        }
+        if (closed) return -1;
+
+        fillGeneration = generation;
+        fillPosition = readPosition;
+        return (head + count) % chunks.length;
+    }
+
+    /**
+     * Returns file position from which the chunk returned by the last call to {@link #awaitFreeChunk()} should be read.
+     */
+    synchronized long getFillPosition() {
+        return fillPosition;
+    }
+
+    /**
+     * Returns chunk with specified {@code index}.
+     */
+    @NonNull byte[] getChunk(int index) {
+        return chunks[index];
+    }
+
+    /**
+     * Makes chunk with specified {@code index} available to the writer. If {@code length} is not positive end of file
+     * has been reached and reader waits until buffer is reset. Chunk is discarded if buffer has been reset while it was
+     * being read.
+     */
+    synchronized void publish(int index, int length) {
+        if (fillGeneration != generation) return;
+
+        if (length <= 0) {
+            endOfFile = true;
+        } else {
+            lengths[index] = length;
+            positions[index] = fillPosition;
+            readPosition = fillPosition + length;
+            count++;
+        }
+        notifyAll();
+    }
+
+    //=================================================
+    //  WRITER
+    //=================================================
+
+    /**
+     * Waits up to {@code timeoutMs} milliseconds for the oldest filled chunk and returns its index, or {@code -1} if
+     * no chunk has been read in time, end of file has been reached or buffer has been closed. Chunk stays in use by
+     * the writer until {@link #release()} is called.
+     */
+    synchronized int take(long timeoutMs) {
+        if (count == 0 && !endOfFile && !closed) {
+            // writer is waiting for the reader, count it only once per stall
+            if (underrunPossible) {
+                underrunCount++;
+                underrunPossible = false;
+            }
+            try {
+                wait(timeoutMs);
+            } catch (InterruptedException e) {
+                return -1;
+            }
+        }
+        if (count == 0 || closed) return -1;
+
+        underrunPossible = true;
+        return head;
+    }
+
+    /**
+     * Returns filled chunk with specified {@code index} wrapped in a {@link ByteBuffer} that holds only valid bytes.
+     */
+    @NonNull synchronized ByteBuffer getData(int index) {
+        final int length = lengths[index];
+        return length == chunks[index].length ? wrappedChunks[index] : ByteBuffer.wrap(chunks[index], 0, length);
+    }
+
+    /**
+     * Returns number of valid bytes in filled chunk with specified {@code index}.
+     */
+    synchronized int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Returns file position of the first byte of filled chunk with specified {@code index}.
+     */
+    synchronized long getPosition(int index) {
+        return positions[index];
+    }
+
+    /**
+     * Returns the oldest filled chunk to the reader.
+     */
+    synchronized void release() {
+        if (count == 0) return;
+
+        head = (head + 1) % chunks.length;
+        count--;
+        notifyAll();
+    }
+
+    /**
+     * Discards all filled chunks and makes reader continue from specified file {@code position}. Should only be called
+     * by the writer while it doesn't hold any chunk.
+     */
+    synchronized void reset(long position) {
+        count = 0;
+        generation++;
+        readPosition = position;
+        endOfFile = false;
+        underrunPossible = false;
+        notifyAll();
+    }
+
+    /**
+     * Whether all chunks up to the end of file have been consumed.
+     */
+    synchronized boolean isEndOfFile() {
+        return endOfFile && count == 0;
+    }
+
+    /**
+     * Returns number of times writer ran out of read chunks during playback.
+     */
+    synchronized long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    /**
+     * Wakes up and stops both reader and writer.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
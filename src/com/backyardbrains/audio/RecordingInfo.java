@@ -0,0 +1,111 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.io.File;
+
+/**
+ * Description of a recording kept by the {@link RecordingsCatalog}, so recordings can be listed without touching the
+ * files themselves.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public final class RecordingInfo {
+
+    private final File file;
+    private final long size;
+    private final long lastModified;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bitsPerSample;
+    private final long frameCount;
+    private final int spikeCount;
+    private final long spikesLastModified;
+
+    RecordingInfo(@NonNull File file, long size, long lastModified, int sampleRate, int channelCount,
+        int bitsPerSample, long frameCount, int spikeCount, long spikesLastModified) {
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitsPerSample = bitsPerSample;
+        this.frameCount = frameCount;
+        this.spikeCount = spikeCount;
+        this.spikesLastModified = spikesLastModified;
+    }
+
+    /**
+     * Returns the recording file.
+     */
+    @NonNull public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns name of the recording file.
+     */
+    @NonNull public String getName() {
+        return file.getName();
+    }
+
+    /**
+     * Returns size of the recording file in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns time the recording file was last modified at.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns sample rate of the recording, or {@code 0} if recording couldn't be read.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Returns number of channels in the recording, or {@code 0} if recording couldn't be read.
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Returns number of bits per sample, or {@code 0} if recording couldn't be read.
+     */
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /**
+     * Returns number of frames in the recording.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns duration of the recording in milliseconds.
+     */
+    public long getDuration() {
+        return sampleRate > 0 ? frameCount * 1000 / sampleRate : 0;
+    }
+
+    /**
+     * Returns number of spikes found in the recording, or {@code -1} if spikes haven't been searched for yet.
+     */
+    public int getSpikeCount() {
+        return spikeCount;
+    }
+
+    // Time the file with the spikes was last modified at, or 0 if there is no such file
+    long getSpikesLastModified() {
+        return spikesLastModified;
+    }
+}
@@ -19,6 +19,7 @@
 
 package com.backyardbrains.audio;
 
+import android.support.annotation.NonNull;
 import com.backyardbrains.utils.RecordingUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -26,19 +27,62 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 class RecordingSaver {
 
+    private static final String TAG = makeLogTag(RecordingSaver.class);
+
+    // Marks the end of recorded audio in the queue of chunks waiting to be encoded
+    private static final byte[] END_OF_AUDIO = new byte[0];
+
     private final File file;
     private final OutputStream outputStream;
+    private final StreamFormat format;
+    // Number of recorded bytes of raw audio
+    private long audioLength;
 
-    RecordingSaver() throws IOException {
-        file = RecordingUtils.createRecordingFile();
+    // Encodes compressed recording on a background thread so audio thread only copies the chunks
+    private final Thread encoderThread;
+    // Chunks waiting to be encoded, and encoded chunks that can be reused
+    private final BlockingQueue<byte[]> filledChunks;
+    private final BlockingQueue<byte[]> freeChunks;
+    private volatile IOException encodingError;
 
-        try {
-            outputStream = new FileOutputStream(file);
-        } catch (FileNotFoundException e) {
-            throw new IOException("could not build OutputStream from this file: " + file.getAbsolutePath(), e);
+    /**
+     * @param format Format of the recorded audio that's written to the file header.
+     * @param compressed Whether audio should be compressed with lossless codec instead of saved as WAV.
+     */
+    RecordingSaver(@NonNull StreamFormat format, boolean compressed) throws IOException {
+        this.format = format;
+        file = RecordingUtils.createRecordingFile(compressed);
+
+        if (compressed) {
+            outputStream = null;
+            filledChunks = new LinkedBlockingQueue<>();
+            freeChunks = new LinkedBlockingQueue<>();
+            final LosslessEncoder encoder =
+                new LosslessEncoder(file, format, LosslessCodec.DEFAULT_BLOCK_FRAME_COUNT);
+            encoderThread = new Thread(new Runnable() {
+                @Override public void run() {
+                    encode(encoder);
+                }
+            }, "RecordingEncoder");
+            encoderThread.start();
+        } else {
+            encoderThread = null;
+            filledChunks = null;
+            freeChunks = null;
+            try {
+                outputStream = new FileOutputStream(file);
+            } catch (FileNotFoundException e) {
+                throw new IOException("could not build OutputStream from this file: " + file.getAbsolutePath(), e);
+            }
         }
     }
 
@@ -48,18 +92,38 @@ class RecordingSaver {
      * @throws IllegalStateException
      */
     void writeAudio(ByteBuffer audioInfo) throws IllegalStateException {
-        try {
-            outputStream.write(audioInfo.array());
-        } catch (IOException e) {
-            throw new IllegalStateException("Could not write bytes out to file");
+        final byte[] audio = audioInfo.array();
+        audioLength += audio.length;
+
+        if (encoderThread == null) {
+            try {
+                outputStream.write(audio);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write bytes out to file");
+            }
+            return;
         }
+
+        if (encodingError != null) throw new IllegalStateException("Could not encode audio");
+        // chunks are reused once they're encoded, new ones are needed only until encoder catches up
+        byte[] chunk = freeChunks.poll();
+        if (chunk == null || chunk.length != audio.length) chunk = new byte[audio.length];
+        System.arraycopy(audio, 0, chunk, 0, audio.length);
+        filledChunks.add(chunk);
+    }
+
+    /**
+     * Returns number of chunks waiting to be encoded.
+     */
+    int getQueuedChunkCount() {
+        return filledChunks != null ? filledChunks.size() : 0;
     }
 
     /**
      * Returns currently recorder length.
      */
     long getAudioLength() {
-        return file.length();
+        return audioLength;
     }
 
     /**
@@ -68,13 +132,49 @@ class RecordingSaver {
      * @throws IllegalStateException
      */
     void stopRecording() throws IllegalStateException {
+        if (encoderThread != null) {
+            // encoder finishes the file once all the queued chunks are encoded
+            filledChunks.add(END_OF_AUDIO);
+            try {
+                encoderThread.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Interrupted while finishing the recording");
+            }
+            if (encodingError != null) throw new IllegalStateException("Cannot write compressed audio.");
+            return;
+        }
+
         try {
             outputStream.flush();
             outputStream.close();
 
-            WavAudioFile.save(file);
+            WavAudioFile.save(file, format);
         } catch (IOException e) {
             throw new IllegalStateException("Cannot write wav header.");
         }
     }
+
+    // Encodes queued chunks until the end of audio is reached
+    private void encode(@NonNull LosslessEncoder encoder) {
+        try {
+            byte[] chunk;
+            while ((chunk = filledChunks.take()) != END_OF_AUDIO) {
+                encoder.write(chunk, chunk.length);
+                freeChunks.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            encodingError = new IOException("Encoding interrupted");
+        } catch (IOException e) {
+            LOGE(TAG, "Error encoding recording", e);
+            encodingError = e;
+        } finally {
+            try {
+                encoder.close();
+                LOGD(TAG, "Compressed recording saved (" + file.length() + " bytes)");
+            } catch (IOException e) {
+                LOGE(TAG, "Error closing compressed recording", e);
+                if (encodingError == null) encodingError = e;
+            }
+        }
+    }
 }
@@ -0,0 +1,368 @@
+package com.backyardbrains.audio;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.backyardbrains.analysis.SpikesFile;
+import com.backyardbrains.events.RecordingsCatalogChangedEvent;
+import com.backyardbrains.utils.RecordingUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.greenrobot.eventbus.EventBus;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Catalog of all the recordings in the recordings directory. For every recording catalog keeps its size, modification
+ * time, format, duration and number of found spikes, and saves them to an index file, so recordings can be listed
+ * right away without opening or even listing the files.
+ *
+ * <p>Catalog is maintained on a background thread. Once started it loads the index, checks it against the directory
+ * and then watches the directory, so only recordings that were added, changed or removed are read again. Every time
+ * catalog changes {@link RecordingsCatalogChangedEvent} is posted and a new snapshot of recordings is available through
+ * {@link #getRecordings()}.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class RecordingsCatalog {
+
+    private static final String TAG = makeLogTag(RecordingsCatalog.class);
+
+    // "BYBI"
+    private static final int INDEX_MAGIC = 0x42594249;
+    private static final int INDEX_VERSION = 1;
+    // index is saved once catalog stops changing for this long
+    private static final long SAVE_DELAY_MS = 2000;
+    // events after which recordings need to be read again
+    private static final int WATCHED_EVENTS =
+        FileObserver.CLOSE_WRITE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE;
+
+    private static final FileFilter RECORDINGS_FILTER = new FileFilter() {
+        @Override public boolean accept(File file) {
+            return RecordingUtils.isRecording(file);
+        }
+    };
+
+    private static final Comparator<RecordingInfo> NEWEST_FIRST = new Comparator<RecordingInfo>() {
+        @Override public int compare(RecordingInfo o1, RecordingInfo o2) {
+            return o1.getLastModified() < o2.getLastModified() ? 1
+                : (o1.getLastModified() == o2.getLastModified() ? 0 : -1);
+        }
+    };
+
+    private final File directory;
+    private final File indexFile;
+
+    // catalog entries by file name, accessed only from the catalog thread of the current session, which doesn't start
+    // processing until catalog thread of the previous session has finished
+    private final Map<String, RecordingInfo> entries = new HashMap<>();
+    private boolean loaded;
+    private boolean dirty;
+    // recordings from the newest to the oldest, replaced as a whole every time catalog changes
+    private volatile List<RecordingInfo> recordings = Collections.emptyList();
+
+    // thread and handler of the current session, every runnable uses handler of the session it was posted in
+    private HandlerThread thread;
+    private Handler handler;
+    // thread of the last stopped session, which might still be saving the index
+    private HandlerThread stoppedThread;
+    private FileObserver observer;
+
+    private final Runnable saveRunnable = new Runnable() {
+        @Override public void run() {
+            save();
+        }
+    };
+
+    /**
+     * @param directory Directory that holds the recordings.
+     * @param indexFile File to which the catalog is saved.
+     */
+    public RecordingsCatalog(@NonNull File directory, @NonNull File indexFile) {
+        this.directory = directory;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Starts maintaining the catalog. Saved index is loaded (if not already loaded) and published, and then checked
+     * against the recordings directory, which is watched for changes until catalog is stopped.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+
+        LOGD(TAG, "Starting recordings catalog");
+
+        final HandlerThread previousThread = stoppedThread;
+        stoppedThread = null;
+        thread = new HandlerThread("RecordingsCatalog", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        final Handler handler = this.handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override public void run() {
+                // entries can't be touched until previous session is done with them
+                if (previousThread != null) awaitTermination(previousThread);
+                if (!loaded) {
+                    load();
+                    loaded = true;
+                    publish();
+                }
+            }
+        });
+        handler.post(newScanRunnable(handler));
+
+        observer = new FileObserver(directory.getPath(), WATCHED_EVENTS) {
+            @Override public void onEvent(int event, @Nullable final String path) {
+                if (path == null) return;
+
+                handler.post(new Runnable() {
+                    @Override public void run() {
+                        update(handler, new File(directory, path));
+                    }
+                });
+            }
+        };
+        observer.startWatching();
+    }
+
+    /**
+     * Stops watching the recordings directory. Changes that are already queued are processed and saved on the catalog
+     * thread before it finishes.
+     */
+    public synchronized void stop() {
+        if (thread == null) return;
+
+        LOGD(TAG, "Stopping recordings catalog");
+
+        observer.stopWatching();
+        observer = null;
+
+        final HandlerThread thread = this.thread;
+        final Handler handler = this.handler;
+        // index is saved right away, after all the queued changes are processed
+        handler.post(new Runnable() {
+            @Override public void run() {
+                handler.removeCallbacks(saveRunnable);
+                save();
+                thread.quit();
+            }
+        });
+        stoppedThread = thread;
+        this.thread = null;
+        this.handler = null;
+    }
+
+    /**
+     * Checks the catalog against the recordings directory in the background. Needs to be called only when directory
+     * couldn't be watched, e.g. because storage permission has just been granted.
+     */
+    public synchronized void refresh() {
+        if (handler != null) handler.post(newScanRunnable(handler));
+    }
+
+    /**
+     * Returns snapshot of all the recordings from the newest to the oldest. Returned list never changes.
+     */
+    @NonNull public List<RecordingInfo> getRecordings() {
+        return recordings;
+    }
+
+    //=================================================
+    //  CATALOG THREAD
+    //=================================================
+
+    // Returns runnable that scans the directory and schedules saving through specified handler
+    private Runnable newScanRunnable(@NonNull final Handler handler) {
+        return new Runnable() {
+            @Override public void run() {
+                scan(handler);
+            }
+        };
+    }
+
+    // Waits until catalog thread of the previous session finishes
+    private static void awaitTermination(@NonNull HandlerThread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Describes every recording in the directory that was added or changed and removes recordings that no longer exist
+    private void scan(@NonNull Handler handler) {
+        final File[] files = directory.listFiles(RECORDINGS_FILTER);
+        if (files == null) return;
+
+        boolean changed = false;
+        final Set<String> names = new HashSet<>();
+        for (File file : files) {
+            names.add(file.getName());
+            changed |= refresh(file);
+        }
+        final Iterator<String> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!names.contains(iterator.next())) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+
+        if (changed) onChanged(handler);
+    }
+
+    // Updates catalog after specified file in the directory has changed
+    private void update(@NonNull Handler handler, @NonNull File file) {
+        final File recording = RecordingUtils.isRecording(file) ? file : RecordingUtils.getRecordingFile(file);
+        if (recording != null && refresh(recording)) onChanged(handler);
+    }
+
+    // Describes specified recording again if it changed and returns whether it did
+    private boolean refresh(@NonNull File recording) {
+        final String name = recording.getName();
+        final RecordingInfo existing = entries.get(name);
+        if (!recording.exists()) return entries.remove(name) != null;
+
+        if (existing == null || existing.getSize() != recording.length()
+            || existing.getLastModified() != recording.lastModified()) {
+            entries.put(name, describe(recording));
+            return true;
+        }
+        final File spikesFile = RecordingUtils.getSpikesFile(recording);
+        if (existing.getSpikesLastModified() != spikesFile.lastModified()) {
+            entries.put(name, new RecordingInfo(recording, existing.getSize(), existing.getLastModified(),
+                existing.getSampleRate(), existing.getChannelCount(), existing.getBitsPerSample(),
+                existing.getFrameCount(), SpikesFile.readCount(recording), spikesFile.lastModified()));
+            return true;
+        }
+
+        return false;
+    }
+
+    // Reads the description of specified recording
+    private RecordingInfo describe(@NonNull File recording) {
+        final long size = recording.length();
+        final long lastModified = recording.lastModified();
+        int sampleRate = 0, channelCount = 0, bitsPerSample = 0;
+        long frameCount = 0;
+        try {
+            final BYBAudioFile audioFile = RecordingUtils.openRecording(recording);
+            try {
+                sampleRate = audioFile.sampleRate();
+                channelCount = audioFile.numChannels();
+                bitsPerSample = audioFile.bitsPerSample();
+                frameCount = audioFile.length() / (channelCount * bitsPerSample / 8);
+            } finally {
+                audioFile.close();
+            }
+        } catch (IOException e) {
+            // recording might still be written, it's described again once it's closed
+            LOGD(TAG, "Can't read recording " + recording.getName() + ": " + e.getMessage());
+        }
+
+        return new RecordingInfo(recording, size, lastModified, sampleRate, channelCount, bitsPerSample, frameCount,
+            SpikesFile.readCount(recording), RecordingUtils.getSpikesFile(recording).lastModified());
+    }
+
+    // Publishes new snapshot of recordings and schedules saving of the index through specified catalog thread handler
+    private void onChanged(@NonNull Handler handler) {
+        publish();
+
+        dirty = true;
+        handler.removeCallbacks(saveRunnable);
+        handler.postDelayed(saveRunnable, SAVE_DELAY_MS);
+    }
+
+    // Publishes new snapshot of recordings
+    private void publish() {
+        final List<RecordingInfo> list = new ArrayList<>(entries.values());
+        Collections.sort(list, NEWEST_FIRST);
+        recordings = Collections.unmodifiableList(list);
+
+        EventBus.getDefault().post(new RecordingsCatalogChangedEvent());
+    }
+
+    // Loads entries from the index file
+    private void load() {
+        if (!indexFile.exists()) return;
+
+        try {
+            final DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                    LOGD(TAG, "Unsupported recordings index, catalog will be rebuilt");
+                    return;
+                }
+                final int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    final File file = new File(directory, in.readUTF());
+                    entries.put(file.getName(),
+                        new RecordingInfo(file, in.readLong(), in.readLong(), in.readInt(), in.readInt(),
+                            in.readInt(), in.readLong(), in.readInt(), in.readLong()));
+                }
+                LOGD(TAG, count + " recordings loaded from index");
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Error loading recordings index, catalog will be rebuilt", e);
+            entries.clear();
+        }
+    }
+
+    // Saves entries to the index file if they changed since last save
+    private void save() {
+        if (!dirty) return;
+        dirty = false;
+
+        final File tmp = new File(indexFile.getPath() + ".tmp");
+        try {
+            final DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeInt(entries.size());
+                for (RecordingInfo info : entries.values()) {
+                    out.writeUTF(info.getName());
+                    out.writeLong(info.getSize());
+                    out.writeLong(info.getLastModified());
+                    out.writeInt(info.getSampleRate());
+                    out.writeInt(info.getChannelCount());
+                    out.writeInt(info.getBitsPerSample());
+                    out.writeLong(info.getFrameCount());
+                    out.writeInt(info.getSpikeCount());
+                    out.writeLong(info.getSpikesLastModified());
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(indexFile)) throw new IOException("Can't replace " + indexFile.getAbsolutePath());
+        } catch (IOException e) {
+            LOGE(TAG, "Error saving recordings index", e);
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+}
@@ -19,15 +19,29 @@
 
 package com.backyardbrains.audio;
 
+import android.support.annotation.NonNull;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 
+/**
+ * Fixed size ring of the most recent audio samples. Samples are written in place so adding a chunk costs only as much
+ * as the chunk itself, and readers take snapshots of the latest samples through {@link #copyLatest(short[], int, int)}.
+ *
+ * <p>Adding a chunk and copying a snapshot are done while holding the buffer lock, so readers never see partially
+ * written chunks. Lock is held only for the duration of a single copy, so readers and the writer never wait for each
+ * other for long.
+ */
 public class RingBuffer {
 
     private final int size;
 
-    private short[] buffer;
+    private final short[] buffer;
+    // index at which next sample will be written
+    private int head;
+    // total number of samples ever added to the buffer, volatile so it can be polled without taking any locks
+    private volatile long sequence;
 
     public RingBuffer(int size) {
         this.size = size;
@@ -39,24 +53,62 @@ public class RingBuffer {
         add(incoming.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
     }
 
-    public void add(final ShortBuffer incoming) {
+    public synchronized void add(final ShortBuffer incoming) {
         incoming.clear();
 
-        System.arraycopy(buffer, incoming.capacity(), buffer, 0, buffer.length - incoming.capacity());
-        incoming.get(buffer, buffer.length - incoming.capacity(), incoming.capacity());
+        final int incomingCount = incoming.capacity();
+        int count = incomingCount;
+        // only the latest samples fit into the buffer
+        if (count > size) {
+            incoming.position(count - size);
+            count = size;
+        }
+
+        final int firstCount = Math.min(count, size - head);
+        incoming.get(buffer, head, firstCount);
+        if (count > firstCount) incoming.get(buffer, 0, count - firstCount);
+        head = (head + count) % size;
+        sequence += incomingCount;
+    }
+
+    /**
+     * Copies latest {@code count} samples to specified {@code dst} array starting at {@code dstOffset}, oldest sample
+     * first, and returns sequence number of the last copied sample. If {@code count} is bigger than the buffer only
+     * the buffer size samples are copied.
+     */
+    public synchronized long copyLatest(@NonNull short[] dst, int dstOffset, int count) {
+        if (count > size) count = size;
+
+        final int start = (head - count + size) % size;
+        final int firstCount = Math.min(count, size - start);
+        System.arraycopy(buffer, start, dst, dstOffset, firstCount);
+        if (count > firstCount) System.arraycopy(buffer, 0, dst, dstOffset + firstCount, count - firstCount);
+
+        return sequence;
     }
 
     /**
-     * @return an order-adjusted version of the whole buffer
+     * Returns number of samples the buffer can hold.
      */
-    public short[] getArray() {
-        return buffer;
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns sequence number of the last sample in the buffer, which is the total number of samples added to the
+     * buffer since it was created. Clearing the buffer advances the sequence by the buffer size, so the sequence never
+     * decreases.
+     */
+    public long getSequence() {
+        return sequence;
     }
 
     /**
      * Clears the buffer as sets all values to zeros
      */
-    public void clear() {
-        buffer = new short[size];
+    public synchronized void clear() {
+        Arrays.fill(buffer, (short) 0);
+        head = 0;
+        sequence += size;
     }
 }
@@ -0,0 +1,27 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Source of samples that are processed by {@link AudioService}. Source produces samples on its own thread and passes
+ * them to the {@link ReceivesAudio} it's been created with, while holding the lock of the receiver.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public interface SampleSource {
+
+    /**
+     * Returns format of the samples this source produces.
+     */
+    @NonNull StreamFormat getFormat();
+
+    /**
+     * Starts producing samples.
+     */
+    void start();
+
+    /**
+     * Stops producing samples and releases all resources. Source can't be restarted once it's stopped.
+     */
+    void requestStop();
+}
@@ -0,0 +1,105 @@
+package com.backyardbrains.audio;
+
+import com.backyardbrains.utils.AudioUtils;
+
+/**
+ * Immutable description of the processed audio stream: sample rate, number of interleaved channels and 16-bit
+ * samples. It's the single timebase that's carried from the sample source, or the played file, to the ring buffer,
+ * recorder, analyses and renderers, so all conversions between bytes, samples and time go through it.
+ *
+ * <p>Sample count always means number of samples per channel (number of frames).
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public final class StreamFormat {
+
+    /**
+     * Format of the microphone input.
+     */
+    public static final StreamFormat DEFAULT = new StreamFormat(AudioUtils.SAMPLE_RATE, 1);
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final int sampleRate;
+    private final int channelCount;
+
+    public StreamFormat(int sampleRate, int channelCount) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("Unsupported sample rate: " + sampleRate);
+        if (channelCount <= 0) throw new IllegalArgumentException("Unsupported number of channels: " + channelCount);
+
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+    }
+
+    /**
+     * Number of samples per second for each channel.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Number of interleaved channels.
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Number of bits per sample.
+     */
+    public int getBitsPerSample() {
+        return BYTES_PER_SAMPLE * 8;
+    }
+
+    /**
+     * Number of bytes that hold one sample of every channel.
+     */
+    public int getFrameSize() {
+        return BYTES_PER_SAMPLE * channelCount;
+    }
+
+    /**
+     * Returns number of samples per channel that specified number of bytes holds.
+     */
+    public long getSampleCount(long byteCount) {
+        return byteCount / getFrameSize();
+    }
+
+    /**
+     * Returns number of bytes that hold specified number of samples per channel.
+     */
+    public long getByteCount(long sampleCount) {
+        return sampleCount * getFrameSize();
+    }
+
+    /**
+     * Returns number of samples per channel that are captured in specified number of milliseconds.
+     */
+    public int msToSamples(float ms) {
+        return Math.round(ms * sampleRate / 1000f);
+    }
+
+    /**
+     * Returns number of milliseconds it takes to capture specified number of samples per channel.
+     */
+    public float samplesToMs(float sampleCount) {
+        return sampleCount * 1000f / sampleRate;
+    }
+
+    @Override public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final StreamFormat that = (StreamFormat) o;
+        return sampleRate == that.sampleRate && channelCount == that.channelCount;
+    }
+
+    @Override public int hashCode() {
+        return 31 * sampleRate + channelCount;
+    }
+
+    @Override public String toString() {
+        return sampleRate + " Hz, " + channelCount + (channelCount == 1 ? " channel" : " channels");
+    }
+}
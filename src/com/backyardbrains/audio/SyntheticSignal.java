@@ -0,0 +1,165 @@
+package com.backyardbrains.audio;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of synthetic neural recordings. Every channel carries Gaussian noise on top of which spike
+ * trains are added. Spikes of every train are fired as a Poisson process with the train's mean rate, are all of the
+ * same biphasic shape and amplitude, and never overlap within the same train. Noise and every train are driven by
+ * their own random generators derived from the seed, so the same seed always produces the same samples and adding a
+ * train doesn't move spikes of the other ones.
+ *
+ * <p>Samples are generated chunk by chunk as interleaved frames, and generation doesn't allocate once the first chunk
+ * of the largest size has been generated.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class SyntheticSignal {
+
+    // duration of a single spike
+    private static final float SPIKE_MS = 1.5f;
+
+    private final StreamFormat format;
+    private final long seed;
+    private final float noise;
+    private final Random noiseRandom;
+    private final List<SpikeTrain> trains = new ArrayList<>();
+    // normalized spike shape, positive phase first
+    private final float[] spikeShape;
+
+    // mixed samples of the chunk that's being generated, interleaved
+    private float[] mix = new float[0];
+    private long frameCount;
+    private long spikeCount;
+
+    /**
+     * @param format Format of the generated samples.
+     * @param noise Standard deviation of the noise.
+     * @param seed Seed from which all random numbers are derived.
+     */
+    public SyntheticSignal(@NonNull StreamFormat format, float noise, long seed) {
+        this.format = format;
+        this.noise = noise;
+        this.seed = seed;
+        noiseRandom = new Random(seed);
+
+        spikeShape = new float[Math.max(2, format.msToSamples(SPIKE_MS))];
+        float peak = 0;
+        for (int i = 0; i < spikeShape.length; i++) {
+            final double t = (double) i / spikeShape.length;
+            spikeShape[i] = (float) (Math.sin(2 * Math.PI * t) * (1 - t));
+            peak = Math.max(peak, Math.abs(spikeShape[i]));
+        }
+        for (int i = 0; i < spikeShape.length; i++) {
+            spikeShape[i] /= peak;
+        }
+    }
+
+    /**
+     * Adds train of spikes of specified {@code amplitude} fired on specified {@code channel} at mean {@code rate} (in
+     * spikes per second). Trains should be added before the first chunk is generated.
+     */
+    public void addSpikeTrain(int channel, float rate, float amplitude) {
+        if (channel < 0 || channel >= format.getChannelCount()) {
+            throw new IllegalArgumentException("Channel " + channel + " doesn't exist");
+        }
+        if (rate <= 0) throw new IllegalArgumentException("Spike rate needs to be positive");
+
+        final SpikeTrain train = new SpikeTrain(channel, rate, amplitude, new Random(seed + trains.size() + 1));
+        train.nextSpikeFrame = frameCount + train.nextInterval();
+        trains.add(train);
+    }
+
+    /**
+     * Returns format of the generated samples.
+     */
+    @NonNull public StreamFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns number of frames generated so far.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns number of spikes that started so far, in all trains.
+     */
+    public long getSpikeCount() {
+        return spikeCount;
+    }
+
+    /**
+     * Generates next {@code frameCount} frames and writes them to the beginning of specified {@code dst} array,
+     * channels interleaved.
+     */
+    public void fill(@NonNull short[] dst, int frameCount) {
+        final int channelCount = format.getChannelCount();
+        final int sampleCount = frameCount * channelCount;
+        if (mix.length < sampleCount) mix = new float[sampleCount];
+
+        for (int i = 0; i < sampleCount; i++) {
+            mix[i] = (float) noiseRandom.nextGaussian() * noise;
+        }
+        final long endFrame = this.frameCount + frameCount;
+        for (int i = 0; i < trains.size(); i++) {
+            addSpikes(trains.get(i), this.frameCount, endFrame);
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            final float sample = mix[i];
+            dst[i] = sample >= Short.MAX_VALUE ? Short.MAX_VALUE
+                : sample <= Short.MIN_VALUE ? Short.MIN_VALUE : (short) Math.round(sample);
+        }
+
+        this.frameCount = endFrame;
+    }
+
+    // Adds spikes of specified train that fall between specified frames to the mixed samples. Spike that doesn't end
+    // before the end frame is continued in the next chunk.
+    private void addSpikes(@NonNull SpikeTrain train, long startFrame, long endFrame) {
+        final int channelCount = format.getChannelCount();
+        while (train.nextSpikeFrame < endFrame) {
+            final long spikeStart = train.nextSpikeFrame;
+            final long spikeEnd = spikeStart + spikeShape.length;
+            if (spikeStart >= startFrame) spikeCount++;
+
+            final long from = Math.max(spikeStart, startFrame);
+            final long to = Math.min(spikeEnd, endFrame);
+            for (long frame = from; frame < to; frame++) {
+                mix[(int) (frame - startFrame) * channelCount + train.channel] +=
+                    spikeShape[(int) (frame - spikeStart)] * train.amplitude;
+            }
+
+            if (spikeEnd > endFrame) return;
+            // next spike can't start before this one ends
+            train.nextSpikeFrame = spikeEnd + train.nextInterval();
+        }
+    }
+
+    private final class SpikeTrain {
+        private final int channel;
+        private final float rate;
+        private final float amplitude;
+        private final Random random;
+
+        // frame at which next (or current, if it's not finished) spike starts
+        private long nextSpikeFrame;
+
+        private SpikeTrain(int channel, float rate, float amplitude, @NonNull Random random) {
+            this.channel = channel;
+            this.rate = rate;
+            this.amplitude = amplitude;
+            this.random = random;
+        }
+
+        // Returns number of frames until the next spike, exponentially distributed with the mean of the train's rate
+        private long nextInterval() {
+            return (long) (-Math.log(1 - random.nextDouble()) / rate * format.getSampleRate());
+        }
+    }
+}
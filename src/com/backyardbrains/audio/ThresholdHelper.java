@@ -20,7 +20,9 @@
 package com.backyardbrains.audio;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import com.backyardbrains.utils.AudioUtils;
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
@@ -35,9 +37,10 @@ public class ThresholdHelper {
 
     public static final int DEFAULT_SIZE = 30;
 
-    private static final int SAMPLE_COUNT = (int) (44100 * 0.68 * 2); // 680 ms
-    private static final int DEAD_PERIOD = (int) (44100 * 0.005 * 2); // 5 ms
-    private static final int BUFFER_SAMPLE_COUNT = SAMPLE_COUNT / 2; // 340 ms
+    // Sizes of the buffers depend on the sample rate of the processed audio
+    private int sampleCount; // 680 ms
+    private int deadPeriodSampleCount; // 5 ms
+    private int bufferSampleCount; // 340 ms
 
     // Buffer that holds most recent 680 ms of audio
     private RingBuffer buffer;
@@ -51,11 +54,16 @@ public class ThresholdHelper {
     // averagedSamples[0] = (sampleBuffersInAverage.get(0)[0] + sampleBuffersInAverage.get(1)[0] + ...
     //           + sampleBuffersInAverage.get(sampleBuffersInAverage.size() - 1)[0]) / sampleBuffersInAverage.size()
     private short[] averagedSamples;
+    // Guards averaged samples, held while incoming data is being processed and while averaged samples are copied
+    private final Object averagedLock = new Object();
     // Holds samples counts summed at specified position
     private int[] summedSamplesCounts;
+    // Advanced every time a chunk of incoming data is processed
+    private volatile long averagedSequence;
 
     private ArrayList<short[]> samplesForCalculation;
     private ArrayList<Samples> unfinishedSamplesForCalculation;
+    // created when first needed, so averager can also be used where there's no main looper
     private Handler handler;
     private int triggerValue = Integer.MAX_VALUE;
     private int lastTriggeredValue;
@@ -74,17 +82,29 @@ public class ThresholdHelper {
     @SuppressWarnings("WeakerAccess") ThresholdHelper(int size) {
         // set initial number of chunks to use for calculating average
         setMaxsize(size);
+        // size buffers for the default input
+        initSampleCounts(AudioUtils.SAMPLE_RATE);
         // init buffers
         reset();
-        // handler used for setting threshold
-        handler = new TriggerHandler();
     }
 
     /**
      * Clears all data.
      */
     public void close() {
-        reset();
+        synchronized (averagedLock) {
+            reset();
+        }
+    }
+
+    /**
+     * Resizes buffers for the audio of specified {@code sampleRate}. All data is cleared if sample rate changes.
+     */
+    void setSampleRate(int sampleRate) {
+        synchronized (averagedLock) {
+            initSampleCounts(sampleRate);
+            reset();
+        }
     }
 
     /**
@@ -110,16 +130,26 @@ public class ThresholdHelper {
         //buffer.add(incoming);
 
         incoming.clear();
-        processIncomingData(incoming);
+        synchronized (averagedLock) {
+            processIncomingData(incoming);
+        }
+        averagedSequence++;
+    }
+
+    // Calculates sizes of the buffers for the audio of specified sample rate
+    private void initSampleCounts(int sampleRate) {
+        sampleCount = (int) (sampleRate * 0.68 * 2);
+        deadPeriodSampleCount = (int) (sampleRate * 0.005 * 2);
+        bufferSampleCount = sampleCount / 2;
     }
 
     // Resets all the fields used for calculations
     private void reset() {
-        buffer = new RingBuffer(BUFFER_SAMPLE_COUNT);
+        buffer = new RingBuffer(bufferSampleCount);
         samplesForCalculation = new ArrayList<>(maxsize * 2);
         summedSamples = null;
         summedSamplesCounts = null;
-        averagedSamples = new short[SAMPLE_COUNT];
+        averagedSamples = new short[sampleCount];
         unfinishedSamplesForCalculation = new ArrayList<>();
         prevSample = 0;
         deadPeriodSampleCounter = 0;
@@ -188,11 +218,12 @@ public class ThresholdHelper {
                 //deadPeriod = true;
 
                 // create new samples for current threshold
-                final short[] centeredWave = new short[SAMPLE_COUNT];
-                final int copyLength = Math.min(BUFFER_SAMPLE_COUNT, incomingAsArray.length);
-                System.arraycopy(buffer.getArray(), i, centeredWave, 0, buffer.getArray().length - i);
-                System.arraycopy(incomingAsArray, 0, centeredWave, buffer.getArray().length - i, copyLength);
-                final Samples samples = new Samples(centeredWave, buffer.getArray().length - i + copyLength);
+                final short[] centeredWave = new short[sampleCount];
+                final int copyLength = Math.min(bufferSampleCount, incomingAsArray.length);
+                final int bufferedCount = buffer.size() - i;
+                buffer.copyLatest(centeredWave, 0, bufferedCount);
+                System.arraycopy(incomingAsArray, 0, centeredWave, bufferedCount, copyLength);
+                final Samples samples = new Samples(centeredWave, bufferedCount + copyLength);
 
                 unfinishedSamplesForCalculation.add(samples);
 
@@ -200,7 +231,7 @@ public class ThresholdHelper {
             }
             //} else {
             //    //LOGD(TAG, "Dead period");
-            //    if (++deadPeriodSampleCounter > DEAD_PERIOD) {
+            //    if (++deadPeriodSampleCounter > deadPeriodSampleCount) {
             //        deadPeriodSampleCounter = 0;
             //        deadPeriod = false;
             //    }
@@ -232,8 +263,8 @@ public class ThresholdHelper {
         }
         //LOGD(TAG, "6. AFTER removing finished samples:" + (System.currentTimeMillis() - start));
 
-        //if (summedSamples == null) summedSamples = new int[SAMPLE_COUNT];
-        //if (summedSamplesCounts == null) summedSamplesCounts = new int[SAMPLE_COUNT];
+        //if (summedSamples == null) summedSamples = new int[sampleCount];
+        //if (summedSamplesCounts == null) summedSamplesCounts = new int[sampleCount];
         //// save averages only if we have samples to read from
         //final int sLen = summedSamples.length;
         //if (draw) {
@@ -250,8 +281,8 @@ public class ThresholdHelper {
         long start = System.currentTimeMillis();
         // init summed samples array
         if (summedSamples == null || summedSamplesCounts == null) {
-            summedSamples = new int[SAMPLE_COUNT];
-            summedSamplesCounts = new int[SAMPLE_COUNT];
+            summedSamples = new int[sampleCount];
+            summedSamplesCounts = new int[sampleCount];
 
             for (int i = samples.lastAveragedIndex + 1; i < samples.nextSampleIndex; i++) {
                 summedSamples[i] = samples.samples[i];
@@ -288,8 +319,29 @@ public class ThresholdHelper {
     }
 
     // ---------------------------------------------------------------------------------------------
-    short[] getAveragedSamples() {
-        return averagedSamples;
+    int getAveragedSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Copies {@code count} averaged samples centered around the threshold hit to specified {@code dst} array starting
+     * at {@code dstOffset}. Copy waits for the chunk that's being processed, so it never contains partially processed
+     * chunks.
+     */
+    void copyAveragedSamples(@NonNull short[] dst, int dstOffset, int count) {
+        synchronized (averagedLock) {
+            // samples are reallocated when sample rate changes
+            final short[] samples = averagedSamples;
+            final int copyCount = Math.min(count, samples.length);
+            System.arraycopy(samples, (samples.length - copyCount) / 2, dst, dstOffset, copyCount);
+        }
+    }
+
+    /**
+     * Returns sequence number that's advanced every time averaged samples are recalculated.
+     */
+    long getAveragedSequence() {
+        return averagedSequence;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -302,15 +354,29 @@ public class ThresholdHelper {
     }
 
     // ---------------------------------------------------------------------------------------------
-    Handler getHandler() {
+    synchronized Handler getHandler() {
+        // handler used for setting threshold from the main thread
+        if (handler == null) handler = new TriggerHandler(Looper.getMainLooper());
+
         return handler;
     }
 
+    /**
+     * Sets value samples need to cross to be averaged.
+     */
+    void setThreshold(int threshold) {
+        triggerValue = threshold;
+    }
+
     // ---------------------------------------------------------------------------------------------
     public class TriggerHandler extends Handler {
+        TriggerHandler(@NonNull Looper looper) {
+            super(looper);
+        }
+
         public void setThreshold(float y) {
             LOGD(TAG, "setThreshold: " + y);
-            triggerValue = (int) y;
+            ThresholdHelper.this.setThreshold((int) y);
         }
     }
 }
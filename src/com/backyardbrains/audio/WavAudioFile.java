@@ -1,6 +1,5 @@
 package com.backyardbrains.audio;
 
-import android.media.AudioFormat;
 import android.support.annotation.NonNull;
 import com.backyardbrains.utils.WavUtils;
 import java.io.ByteArrayInputStream;
@@ -30,11 +29,11 @@ public class WavAudioFile implements BYBAudioFile {
     }
 
     /**
-     * Saves specified {@code file} as a WAV file and closes it.
+     * Saves specified {@code file} as a WAV file of specified {@code format} and closes it.
      *
      * @throws IOException
      */
-    public static boolean save(@NonNull File file) throws IOException {
+    public static boolean save(@NonNull File file, @NonNull StreamFormat format) throws IOException {
         // create RandomAccessFile
         final RandomAccessFile raf;
         try {
@@ -45,8 +44,8 @@ public class WavAudioFile implements BYBAudioFile {
 
         try {
             raf.seek(0);
-            raf.write(WavUtils.writeHeader(file.length(), 44100, AudioFormat.CHANNEL_IN_MONO,
-                AudioFormat.ENCODING_PCM_16BIT));
+            raf.write(WavUtils.writeHeader(file.length(), format.getSampleRate(), format.getChannelCount(),
+                format.getBitsPerSample()));
             raf.close();
         } catch (IOException e) {
             return false;
@@ -0,0 +1,310 @@
+package com.backyardbrains.audio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+import com.backyardbrains.utils.RecordingUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Loads waveform thumbnails of recordings in the background. Thumbnail is the minimum and the maximum of the first
+ * channel within each of {@link #COLUMN_COUNT} equally long parts of the recording, held in a single array as {@code
+ * [min0, max0, min1, max1, ...]}.
+ *
+ * <p>Thumbnails are computed by a small pool of threads, each reading the whole recording once from start to end.
+ * Thumbnails requested last are computed first, so rows that just scrolled into view don't wait for the ones that
+ * scrolled away, and requests that are no longer needed can be canceled. Computed thumbnails are kept in a memory LRU
+ * cache and in a disk cache, so they are available right away when requested again, even after restart.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class WaveformThumbnailLoader {
+
+    private static final String TAG = makeLogTag(WaveformThumbnailLoader.class);
+
+    /**
+     * Number of columns in every thumbnail.
+     */
+    public static final int COLUMN_COUNT = 96;
+
+    // number of threads computing the thumbnails
+    private static final int THREAD_COUNT = 2;
+    // number of thumbnails held in memory
+    private static final int MEMORY_CACHE_SIZE = 256;
+    // number of thumbnails held on disk, least recently written are deleted first
+    private static final int DISK_CACHE_SIZE = 1000;
+    private static final String DISK_CACHE_EXT = ".thumb";
+    // number of bytes read from the recording at once
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Interface definition for a callback to be invoked on the main thread when thumbnail is loaded.
+     */
+    public interface Callback {
+        /**
+         * Called when thumbnail of specified {@code recording} is loaded. Not called if request was canceled.
+         */
+        void onThumbnailLoaded(@NonNull RecordingInfo recording, @NonNull short[] thumbnail);
+    }
+
+    /**
+     * Pending thumbnail request.
+     */
+    public interface Request {
+        /**
+         * Cancels the request. If thumbnail is already being computed it's stopped at the next read.
+         */
+        void cancel();
+    }
+
+    private final File cacheDirectory;
+    private final LruCache<String, short[]> memoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor;
+    // requests are ordered by this counter, last one has the highest priority
+    private long requestCounter;
+
+    /**
+     * @param cacheDirectory Directory in which computed thumbnails are saved.
+     */
+    public WaveformThumbnailLoader(@NonNull File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        //noinspection ResultOfMethodCallIgnored
+        cacheDirectory.mkdirs();
+
+        executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override public Thread newThread(@NonNull final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "WaveformThumbnail-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Returns thumbnail of specified {@code recording} if it's in the memory cache, {@code null} otherwise.
+     */
+    @Nullable public short[] getCached(@NonNull RecordingInfo recording) {
+        return memoryCache.get(getKey(recording));
+    }
+
+    /**
+     * Loads thumbnail of specified {@code recording} in the background and passes it to specified {@code callback} on
+     * the main thread. Should be called from the main thread.
+     */
+    @NonNull public Request load(@NonNull RecordingInfo recording, @NonNull Callback callback) {
+        final ThumbnailTask task = new ThumbnailTask(recording, callback, ++requestCounter);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancels all pending requests and stops the background threads. Thumbnails that are being computed are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    // Returns key under which thumbnail of specified recording is cached, it changes every time recording changes
+    private static String getKey(@NonNull RecordingInfo recording) {
+        return Integer.toHexString(recording.getFile().getAbsolutePath().hashCode()) + "_" + recording.getSize() + "_"
+            + recording.getLastModified();
+    }
+
+    /**
+     * Computes thumbnail of a single recording, or reads it from the disk cache.
+     */
+    private class ThumbnailTask implements Runnable, Comparable<ThumbnailTask>, Request {
+
+        private final RecordingInfo recording;
+        private final Callback callback;
+        private final long order;
+        private volatile boolean canceled;
+
+        ThumbnailTask(@NonNull RecordingInfo recording, @NonNull Callback callback, long order) {
+            this.recording = recording;
+            this.callback = callback;
+            this.order = order;
+        }
+
+        @Override public void cancel() {
+            canceled = true;
+            executor.remove(this);
+        }
+
+        @Override public int compareTo(@NonNull ThumbnailTask other) {
+            // later requests first
+            return order > other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+
+        @Override public void run() {
+            if (canceled) return;
+
+            final String key = getKey(recording);
+            short[] thumbnail = memoryCache.get(key);
+            if (thumbnail == null) {
+                final File cacheFile = new File(cacheDirectory, key + DISK_CACHE_EXT);
+                thumbnail = readCached(cacheFile);
+                if (thumbnail == null) {
+                    try {
+                        thumbnail = compute();
+                    } catch (IOException e) {
+                        LOGE(TAG, "Error computing thumbnail of " + recording.getName(), e);
+                    }
+                    // canceled before it was computed
+                    if (thumbnail == null) return;
+
+                    writeCached(cacheFile, thumbnail);
+                }
+                memoryCache.put(key, thumbnail);
+            }
+
+            final short[] result = thumbnail;
+            mainHandler.post(new Runnable() {
+                @Override public void run() {
+                    if (!canceled) callback.onThumbnailLoaded(recording, result);
+                }
+            });
+        }
+
+        // Reads the whole recording and returns its thumbnail, or null if request was canceled in the meantime
+        @Nullable private short[] compute() throws IOException {
+            final long frameCount = recording.getFrameCount();
+            final int channelCount = recording.getChannelCount();
+            if (frameCount == 0 || channelCount == 0 || recording.getBitsPerSample() != 16) {
+                return new short[COLUMN_COUNT * 2];
+            }
+
+            final short[] thumbnail = new short[COLUMN_COUNT * 2];
+            final byte[] buffer = new byte[READ_BUFFER_SIZE - READ_BUFFER_SIZE % (channelCount * 2)];
+            final ByteBuffer bb = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+
+            final BYBAudioFile audioFile = RecordingUtils.openRecording(recording.getFile());
+            try {
+                long frame = 0;
+                int column = -1;
+                short min = 0, max = 0;
+                int read;
+                while ((read = audioFile.read(buffer)) > 0) {
+                    if (canceled) return null;
+
+                    final int frames = read / (channelCount * 2);
+                    for (int i = 0; i < frames; i++, frame++) {
+                        final int c = (int) (frame * COLUMN_COUNT / frameCount);
+                        final short sample = bb.getShort(i * channelCount * 2);
+                        if (c != column) {
+                            if (column >= 0 && column < COLUMN_COUNT) {
+                                thumbnail[2 * column] = min;
+                                thumbnail[2 * column + 1] = max;
+                            }
+                            column = c;
+                            min = max = sample;
+                        } else if (sample < min) {
+                            min = sample;
+                        } else if (sample > max) {
+                            max = sample;
+                        }
+                    }
+                }
+                if (column >= 0 && column < COLUMN_COUNT) {
+                    thumbnail[2 * column] = min;
+                    thumbnail[2 * column + 1] = max;
+                }
+            } finally {
+                audioFile.close();
+            }
+
+            return thumbnail;
+        }
+    }
+
+    //=================================================
+    //  DISK CACHE
+    //=================================================
+
+    // Reads thumbnail from specified cache file, returns null if it's not cached
+    @Nullable private static short[] readCached(@NonNull File cacheFile) {
+        if (!cacheFile.exists()) return null;
+
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+            try {
+                final byte[] bytes = new byte[COLUMN_COUNT * 4];
+                if (raf.length() != bytes.length) return null;
+                raf.readFully(bytes);
+
+                final short[] thumbnail = new short[COLUMN_COUNT * 2];
+                ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(thumbnail);
+                return thumbnail;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Error reading cached thumbnail " + cacheFile.getName(), e);
+            return null;
+        }
+    }
+
+    // Writes thumbnail to specified cache file and deletes oldest cached thumbnails if there's too many of them
+    private void writeCached(@NonNull File cacheFile, @NonNull short[] thumbnail) {
+        final ByteBuffer bytes = ByteBuffer.allocate(thumbnail.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asShortBuffer().put(thumbnail);
+        try {
+            final FileOutputStream outputStream = new FileOutputStream(cacheFile);
+            try {
+                outputStream.write(bytes.array());
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Error caching thumbnail " + cacheFile.getName(), e);
+            //noinspection ResultOfMethodCallIgnored
+            cacheFile.delete();
+        }
+
+        trimDiskCache();
+    }
+
+    // Deletes least recently written thumbnails until there's no more than DISK_CACHE_SIZE of them
+    private synchronized void trimDiskCache() {
+        final File[] files = cacheDirectory.listFiles();
+        if (files == null || files.length <= DISK_CACHE_SIZE) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override public int compare(File f1, File f2) {
+                return f1.lastModified() < f2.lastModified() ? -1 : (f1.lastModified() == f2.lastModified() ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - DISK_CACHE_SIZE; i++) {
+            //noinspection ResultOfMethodCallIgnored
+            files[i].delete();
+        }
+        LOGD(TAG, (files.length - DISK_CACHE_SIZE) + " cached thumbnails deleted");
+    }
+}
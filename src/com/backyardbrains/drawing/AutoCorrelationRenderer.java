@@ -2,7 +2,6 @@ package com.backyardbrains.drawing;
 
 import android.support.annotation.NonNull;
 import com.backyardbrains.BaseFragment;
-import java.util.List;
 import javax.microedition.khronos.opengles.GL10;
 
 public class AutoCorrelationRenderer extends BYBAnalysisBaseRenderer {
@@ -15,21 +14,7 @@ public class AutoCorrelationRenderer extends BYBAnalysisBaseRenderer {
     // ----------------------------------------------------------------------------------------
     @Override protected void drawingHandler(GL10 gl) {
         initGL(gl);
-        makeThumbAndMainRectangles();
-        if (getAnalysisManager() != null) {
-            List<List<Integer>> AC = getAnalysisManager().getAutocorrelation();
-            if (AC != null) {
-                for (int i = 0; i < AC.size(); i++) {
-                    graphIntegerList(gl, AC.get(i), thumbRects[i], BYBColors.getColorAsGlById(i), true);
-                }
-                if (AC.size() > 0) {
-                    int s = selected;
-                    if (selected >= AC.size() || selected < 0) {
-                        s = 0;
-                    }
-                    graphIntegerList(gl, AC.get(s), mainRect, BYBColors.getColorAsGlById(s), true);
-                }
-            }
-        }
+
+        if (getAnalysisManager() != null) drawHistograms(gl, getAnalysisManager().getAutocorrelation(), true);
     }
 }
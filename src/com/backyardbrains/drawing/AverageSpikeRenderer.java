@@ -7,79 +7,90 @@ import javax.microedition.khronos.opengles.GL10;
 
 public class AverageSpikeRenderer extends BYBAnalysisBaseRenderer {
 
+    private static final int MARGIN = 20;
+    private static final float[][] TRAIN_COLORS = {
+        { 1.0f, 0.0f, 0.0f, 1.0f }, { 1.0f, 1.0f, 0.0f, 1.0f }, { 0.0f, 1.0f, 1.0f, 1.0f }
+    };
+    private static final float[] DEFAULT_TRAIN_COLOR = { 0.0f, 0.0f, 0.0f, 1.0f };
+    private static final float[] RECT_COLOR = { 0.2f, 0.2f, 0.2f, 1.0f };
+
+    // geometry is built once per analysis result and surface size and then just redrawn
+    private BYBAverageSpike[] averageSpike;
+    private BYBMesh[] stdMeshes;
+    private BYBMesh[] lineMeshes;
+    private final BYBMesh rectsMesh = new BYBMesh(BYBMesh.LINES);
+
     public AverageSpikeRenderer(@NonNull BaseFragment fragment) {
         super(fragment);
     }
 
     @Override protected void drawingHandler(GL10 gl) {
-        int margin = 20;
-
         initGL(gl);
         if (getAnalysisManager() != null) {
             BYBAverageSpike[] avg = getAnalysisManager().getAverageSpike();
             if (avg != null) {
-                float aw = width - margin * avg.length;
-                float ah = (height - margin * (avg.length + 1)) / (float) avg.length;
+                if (geometryDirty || avg != averageSpike) {
+                    beginStage(FrameStage.BUILD_GEOMETRY);
+                    buildGeometry(avg);
+                    endStage(FrameStage.BUILD_GEOMETRY);
+                }
 
-                BYBMesh rectsMesh = new BYBMesh(BYBMesh.LINES);
+                beginStage(FrameStage.DRAW);
                 for (int i = 0; i < avg.length; i++) {
-
-                    BYBMesh line = new BYBMesh(BYBMesh.LINE_STRIP);
-                    float xInc = aw / avg[i].getAverageSpike().length;
-                    float yOffSet = ((margin + ah) * (i + 1));
-
-                    float[] lc = new float[4];
-                    lc[3] = 1.0f;
-                    switch (i) {
-                        case 0:
-                            lc[0] = 1.0f;
-                            lc[1] = 0.0f;
-                            lc[2] = 0.0f;
-                            break;
-                        case 1:
-                            lc[0] = 1.0f;
-                            lc[1] = 1.0f;
-                            lc[2] = 0.0f;
-                            break;
-                        case 2:
-                            lc[0] = 0.0f;
-                            lc[1] = 1.0f;
-                            lc[2] = 1.0f;
-                            break;
-                    }
-                    if (avg[i].getNormTopSTDLine().length > 0) {
-                        float v0x = (margin * 2);
-                        float v0y = yOffSet - avg[i].getNormTopSTDLine()[0] * ah;
-                        float v1y = yOffSet - avg[i].getNormBottomSTDLine()[0] * ah;
-                        BYBMesh mesh = new BYBMesh(BYBMesh.TRIANGLES);
-                        for (int j = 1; j < avg[i].getNormTopSTDLine().length; j++) {
-
-                            float x = xInc * j + (margin * 2);
-                            float yTop = yOffSet - avg[i].getNormTopSTDLine()[j] * ah;
-                            float yBot = yOffSet - avg[i].getNormBottomSTDLine()[j] * ah;
-
-                            mesh.addQuadSmooth(v0x, v0y, v0x, v1y, x, yTop, x, yBot, lc);
-
-                            v0x = x;
-                            v0y = yTop;
-                            v1y = yBot;
-                        }
-                        mesh.draw(gl);
-                    }
-
-                    for (int j = 0; j < avg[i].getAverageSpike().length; j++) {
-                        line.addVertex(xInc * j + (margin * 2), yOffSet - avg[i].getNormAverageSpike()[j] * ah);
-                    }
+                    if (stdMeshes[i].getNumVertices() > 0) stdMeshes[i].draw(gl);
 
                     gl.glColor4f(0.0f, 0.0f, 0.0f, 1.0f);
-                    line.draw(gl);
-
-                    float[] c = { 0.2f, 0.2f, 0.2f, 1.0f };
-                    rectsMesh.addRectangle(margin * 2, margin + (ah + margin) * i, aw, ah, c);
+                    lineMeshes[i].draw(gl);
                 }
 
                 rectsMesh.draw(gl);
+                endStage(FrameStage.DRAW);
             }
         }
     }
+
+    // Builds meshes for all spike trains of the specified average spike analysis result
+    private void buildGeometry(@NonNull BYBAverageSpike[] avg) {
+        float aw = width - MARGIN * avg.length;
+        float ah = (height - MARGIN * (avg.length + 1)) / (float) avg.length;
+
+        stdMeshes = new BYBMesh[avg.length];
+        lineMeshes = new BYBMesh[avg.length];
+        rectsMesh.clear();
+        for (int i = 0; i < avg.length; i++) {
+            stdMeshes[i] = new BYBMesh(BYBMesh.TRIANGLES);
+            lineMeshes[i] = new BYBMesh(BYBMesh.LINE_STRIP);
+
+            float xInc = aw / avg[i].getAverageSpike().length;
+            float yOffSet = ((MARGIN + ah) * (i + 1));
+
+            final float[] lc = i < TRAIN_COLORS.length ? TRAIN_COLORS[i] : DEFAULT_TRAIN_COLOR;
+            if (avg[i].getNormTopSTDLine().length > 0) {
+                float v0x = (MARGIN * 2);
+                float v0y = yOffSet - avg[i].getNormTopSTDLine()[0] * ah;
+                float v1y = yOffSet - avg[i].getNormBottomSTDLine()[0] * ah;
+                for (int j = 1; j < avg[i].getNormTopSTDLine().length; j++) {
+
+                    float x = xInc * j + (MARGIN * 2);
+                    float yTop = yOffSet - avg[i].getNormTopSTDLine()[j] * ah;
+                    float yBot = yOffSet - avg[i].getNormBottomSTDLine()[j] * ah;
+
+                    stdMeshes[i].addQuadSmooth(v0x, v0y, v0x, v1y, x, yTop, x, yBot, lc);
+
+                    v0x = x;
+                    v0y = yTop;
+                    v1y = yBot;
+                }
+            }
+
+            for (int j = 0; j < avg[i].getAverageSpike().length; j++) {
+                lineMeshes[i].addVertex(xInc * j + (MARGIN * 2), yOffSet - avg[i].getNormAverageSpike()[j] * ah);
+            }
+
+            rectsMesh.addRectangle(MARGIN * 2, MARGIN + (ah + MARGIN) * i, aw, ah, RECT_COLOR);
+        }
+
+        averageSpike = avg;
+        geometryDirty = false;
+    }
 }
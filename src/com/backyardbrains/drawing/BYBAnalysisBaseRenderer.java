@@ -1,12 +1,14 @@
 package com.backyardbrains.drawing;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.view.MotionEvent;
 import com.backyardbrains.BaseFragment;
+import com.backyardbrains.analysis.BYBHistogram;
 import com.backyardbrains.events.RedrawAudioAnalysisEvent;
 import com.backyardbrains.utils.BYBGlUtils;
+import com.backyardbrains.utils.DirectBufferArena;
 import com.backyardbrains.view.ofRectangle;
-import java.util.List;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 import org.greenrobot.eventbus.EventBus;
@@ -24,6 +26,16 @@ public class BYBAnalysisBaseRenderer extends BaseRenderer {
 
     private int touchDownRect = -1;
 
+    // whether geometry cached by subclasses needs to be rebuilt before drawing because layout changed. Analyses publish
+    // every result as a new array that's never changed afterwards, so subclasses detect new results by identity.
+    boolean geometryDirty = true;
+
+    // histograms last drawn by drawHistograms() and bar graphs built from them
+    private BYBHistogram[] graphedHistograms;
+    private BYBBarGraph[] thumbGraphs;
+    private BYBBarGraph mainGraph;
+    private int mainGraphIndex = -1;
+
     // ----------------------------------------------------------------------------------------
     BYBAnalysisBaseRenderer(@NonNull BaseFragment fragment) {
         super(fragment);
@@ -80,10 +92,18 @@ public class BYBAnalysisBaseRenderer extends BaseRenderer {
 
     // ----------------------------------------------------------------------------------------
     @Override public void onDrawFrame(GL10 gl) {
-        preDrawingHandler();
-        BYBGlUtils.glClear(gl);
-        drawingHandler(gl);
-        postDrawingHandler(gl);
+        beginFrame();
+        try {
+            // buffers handed out during previous frame can be reused
+            DirectBufferArena.get().reset();
+
+            preDrawingHandler();
+            BYBGlUtils.glClear(gl);
+            drawingHandler(gl);
+            postDrawingHandler(gl);
+        } finally {
+            endFrame();
+        }
     }
 
     // ----------------------------------------------------------------------------------------
@@ -102,6 +122,8 @@ public class BYBAnalysisBaseRenderer extends BaseRenderer {
     @Override public void onSurfaceChanged(GL10 gl, int width, int height) {
         this.width = width;
         this.height = height;
+
+        geometryDirty = true;
     }
 
     // ----------------------------------------------------------------------------------------
@@ -173,35 +195,72 @@ public class BYBAnalysisBaseRenderer extends BaseRenderer {
     }
 
     // ----------------------------------------------------------------------------------------
-    void graphIntegerList(GL10 gl, List<Integer> ac, ofRectangle r, float[] color, boolean bDrawBox) {
-        graphIntegerList(gl, ac, r.x, r.y, r.width, r.height, color, bDrawBox);
+    void drawHistograms(GL10 gl, @Nullable BYBHistogram[] histograms, boolean drawAxes) {
+        drawHistograms(gl, histograms, drawAxes, true, true);
     }
 
-    // ----------------------------------------------------------------------------------------
-    private void graphIntegerList(GL10 gl, List<Integer> ac, float px, float py, float w, float h, float[] color,
-        boolean bDrawBox) {
-        if (ac != null) {
-            if (ac.size() > 0) {
-                int s = ac.size();
-                float[] values = new float[s];
-                int mx = Integer.MIN_VALUE;
-                for (int i = 0; i < s; i++) {
-                    int y = ac.get(i);
-                    if (mx < y) mx = y;
-                }
-                if (mx == 0) mx = 1;// avoid division by zero
-                for (int i = 0; i < s; i++) {
-                    values[i] = ((float) ac.get(i)) / (float) mx;
-                }
-                BYBBarGraph graph = new BYBBarGraph(values, px, py, w, h, color);
-                if (bDrawBox) {
-                    graph.makeBox(BYBColors.getColorAsGlById(BYBColors.white));
-                }
-                graph.setVerticalAxis(0, mx, 5);
-                graph.setHorizontalAxis(0, ac.size(), 6);
-                graph.draw(gl);
+    /**
+     * Draws graphs of specified {@code histograms} into thumb rectangles and graph of the selected histogram into the
+     * main rectangle, both laid out by {@link #makeThumbAndMainRectangles()}. Bar geometry is built once per result
+     * and layout and then redrawn from cache.
+     */
+    void drawHistograms(GL10 gl, @Nullable BYBHistogram[] histograms, boolean drawAxes, boolean drawThumbs,
+        boolean drawMain) {
+        if (histograms == null || histograms.length == 0) return;
+
+        // bar geometry is rebuilt only when results or layout change
+        beginStage(FrameStage.BUILD_GEOMETRY);
+        if (geometryDirty || histograms != graphedHistograms) {
+            makeThumbAndMainRectangles();
+            thumbGraphs = new BYBBarGraph[Math.min(histograms.length, thumbRects.length)];
+            for (int i = 0; i < thumbGraphs.length; i++) {
+                thumbGraphs[i] =
+                    createBarGraph(histograms[i], thumbRects[i], BYBColors.getColorAsGlById(i), true, drawAxes);
             }
+            mainGraphIndex = -1;
+            graphedHistograms = histograms;
+            geometryDirty = false;
+        }
+        // main graph is built only when selected histogram is first drawn
+        if (drawMain) {
+            int s = selected;
+            if (s >= thumbGraphs.length || s < 0) s = 0;
+            if (s != mainGraphIndex) {
+                mainGraph = createBarGraph(histograms[s], mainRect, BYBColors.getColorAsGlById(s), true, drawAxes);
+                mainGraphIndex = s;
+            }
+        }
+        endStage(FrameStage.BUILD_GEOMETRY);
+
+        beginStage(FrameStage.DRAW);
+        if (drawThumbs) {
+            for (BYBBarGraph graph : thumbGraphs) {
+                if (graph != null) graph.draw(gl);
+            }
+        }
+        if (drawMain && mainGraph != null) mainGraph.draw(gl);
+        endStage(FrameStage.DRAW);
+    }
+
+    // ----------------------------------------------------------------------------------------
+    @Nullable BYBBarGraph createBarGraph(@NonNull BYBHistogram histogram, @NonNull ofRectangle r,
+        @NonNull float[] color, boolean drawBox, boolean drawAxes) {
+        final int binCount = histogram.getBinCount();
+        if (binCount == 0) return null;
+
+        int mx = histogram.getMaxCount();
+        if (mx == 0) mx = 1;// avoid division by zero
+        final float[] values = new float[binCount];
+        for (int i = 0; i < binCount; i++) {
+            values[i] = (float) histogram.getCount(i) / (float) mx;
+        }
+        BYBBarGraph graph = new BYBBarGraph(values, r.x, r.y, r.width, r.height, color);
+        if (drawBox) graph.makeBox(BYBColors.getColorAsGlById(BYBColors.white));
+        if (drawAxes) {
+            graph.setVerticalAxis(0, mx, 5);
+            graph.setHorizontalAxis(0, binCount, 6);
         }
+        return graph;
     }
 
     private void setSelected(int s) {
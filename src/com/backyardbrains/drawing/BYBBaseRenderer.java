@@ -2,26 +2,33 @@ package com.backyardbrains.drawing;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.backyardbrains.BaseFragment;
-import com.backyardbrains.utils.AudioUtils;
+import com.backyardbrains.audio.AudioPipelineMetrics;
+import com.backyardbrains.audio.AudioService;
+import com.backyardbrains.audio.StreamFormat;
 import com.backyardbrains.utils.BYBGlUtils;
 import com.backyardbrains.utils.BYBUtils;
+import com.backyardbrains.utils.DirectBufferArena;
 import com.backyardbrains.utils.PrefUtils;
 import java.nio.FloatBuffer;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
-import static com.backyardbrains.utils.LogUtils.LOGE;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 public class BYBBaseRenderer extends BaseRenderer {
 
     private static final String TAG = makeLogTag(BYBBaseRenderer.class);
 
+    private static final float[] WAVEFORM_COLOR = BYBColors.getColorAsGlById(BYBColors.green);
+    private static final float[] SCALING_AREA_COLOR = BYBColors.getHexAsGlColor(0xFFFFFF33);
+
     private int glWindowHorizontalSize = BYBGlUtils.DEFAULT_GL_WINDOW_HORIZONTAL_SIZE;
     private int glWindowVerticalSize = BYBGlUtils.DEFAULT_GL_WINDOW_VERTICAL_SIZE;
 
@@ -35,15 +42,31 @@ public class BYBBaseRenderer extends BaseRenderer {
     private float panningDx;
 
     short[] drawingBuffer;
-    private float[] tempBufferToDraws;
+    // number of latest samples at the end of drawing buffer that were copied for the current frame
+    int drawingSampleCount;
+    // sequence number of the last sample in drawing buffer, negative if buffer doesn't continue the previous one
+    long drawingBufferSequence = -1;
+
+    // whether frame was invalidated by zoom, pan or threshold change since it was last drawn
+    private volatile boolean dirty = true;
+    // sequence number of the last audio sample drawn
+    private volatile long drawnSequence = -1;
+
+    private final WaveformVbo waveformVbo;
+    // sequence number of the last sample uploaded to waveform VBO
+    private long uploadedSequence = -1;
+    final FlatShader flatShader = new FlatShader();
+    final float[] mvpMatrix = new float[16];
 
     protected int height;
     protected int width;
     private boolean autoScaled;
     private static final int PCM_MAXIMUM_VALUE = (Short.MAX_VALUE * 40);
-    private static final int MIN_GL_HORIZONTAL_SIZE = AudioUtils.SAMPLE_RATE / 5000; // 0.2 millis
+    // shortest window that can be drawn, converted to samples at the current sample rate
+    private static final float MIN_GL_HORIZONTAL_MS = 0.2f;
     private static final int MIN_GL_VERTICAL_SIZE = 400;
-    private static final int MAX_SAMPLES_COUNT = AudioUtils.SAMPLE_RATE * 6; // 6 sec
+    // playback windows can be longer than the live audio buffer
+    private static final int MAX_WINDOW_SECONDS = 30;
     private float minimumDetectedPCMValue = BYBGlUtils.DEFAULT_MIN_DETECTED_PCM_VALUE;
 
     private int startIndex;
@@ -56,11 +79,10 @@ public class BYBBaseRenderer extends BaseRenderer {
     private int scalingAreaEndY;
 
     private Callback callback;
+    private volatile OverlayState overlayState;
 
     public interface Callback {
 
-        void onDraw(int drawSurfaceWidth, int drawSurfaceHeight);
-
         void onHorizontalDragStart();
 
         void onHorizontalDrag(float dx);
@@ -70,9 +92,6 @@ public class BYBBaseRenderer extends BaseRenderer {
 
     public static class CallbackAdapter implements Callback {
 
-        @Override public void onDraw(int drawSurfaceWidth, int drawSurfaceHeight) {
-        }
-
         @Override public void onHorizontalDrag(float dx) {
         }
 
@@ -87,19 +106,10 @@ public class BYBBaseRenderer extends BaseRenderer {
     //  CONSTRUCTOR & SETUP
     //==============================================
 
-    public BYBBaseRenderer(@NonNull BaseFragment fragment, @NonNull float[] preparedBuffer) {
+    public BYBBaseRenderer(@NonNull BaseFragment fragment) {
         super(fragment);
 
-        this.tempBufferToDraws = preparedBuffer;
-    }
-
-    public static float[] initTempBuffer() {
-        final float[] buffer = new float[MAX_SAMPLES_COUNT * 2];
-        for (int i = 0; i < buffer.length; i += 2) {
-            buffer[i] = i / 2;
-        }
-
-        return buffer;
+        waveformVbo = new WaveformVbo();
     }
 
     /**
@@ -116,15 +126,22 @@ public class BYBBaseRenderer extends BaseRenderer {
         this.callback = callback;
     }
 
+    /**
+     * Sets overlay state to which current GL window sizes are published on every drawn frame.
+     */
+    public void setOverlayState(@Nullable OverlayState overlayState) {
+        this.overlayState = overlayState;
+    }
+
     public void setGlWindowHorizontalSize(int newSize) {
         if (newSize < 0 || newSize == glWindowHorizontalSize) return;
 
-        if (newSize < MIN_GL_HORIZONTAL_SIZE) newSize = MIN_GL_HORIZONTAL_SIZE;
-        if (drawingBuffer != null) {
-            final int maxLength = Math.min(drawingBuffer.length, MAX_SAMPLES_COUNT);
-            if (maxLength > 0 && newSize > maxLength) newSize = maxLength;
-        }
+        final int minSize = Math.max(1, getStreamFormat().msToSamples(MIN_GL_HORIZONTAL_MS));
+        if (newSize < minSize) newSize = minSize;
+        final int maxSize = getMaxGlWindowHorizontalSize();
+        if (newSize > maxSize) newSize = maxSize;
         glWindowHorizontalSize = newSize;
+        invalidate();
     }
 
     public int getGlWindowHorizontalSize() {
@@ -137,6 +154,7 @@ public class BYBBaseRenderer extends BaseRenderer {
         if (newSize > PCM_MAXIMUM_VALUE) newSize = PCM_MAXIMUM_VALUE;
 
         glWindowVerticalSize = newSize;
+        invalidate();
     }
 
     public int getGlWindowVerticalSize() {
@@ -155,16 +173,58 @@ public class BYBBaseRenderer extends BaseRenderer {
         focusX = fx;
         bZooming = true;
         bPanning = false;
+        invalidate();
+    }
+
+    /**
+     * Marks current frame as invalid so it's redrawn on the next display frame even if no new audio arrived.
+     */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * Whether there is anything new to draw, either because new audio samples arrived since the last drawn frame,
+     * because audio is being played and waveform scrolls with the playback, or because the frame has been invalidated.
+     */
+    public boolean isDirty() {
+        if (dirty) return true;
+
+        final AudioService audioService = getAudioService();
+        return audioService != null && (audioService.isAudioPlaying()
+            || audioService.getAudioBufferSequence() != drawnSequence);
+    }
+
+    // Whether frame has been invalidated since it was last drawn
+    final boolean isInvalidated() {
+        return dirty;
+    }
+
+    // Returns sequence number of the drawing buffer of the last drawn frame
+    final long getDrawnSequence() {
+        return drawnSequence;
+    }
+
+    // Whether sequence number of the drawing buffer is the audio buffer sequence of the last drawn captured frame, so
+    // capture to render latency can be measured for it
+    boolean hasCaptureSequence() {
+        return !getIsPlaybackMode();
     }
 
     /**
-     * Fills buffer with sample data. Returns true if buffer is successfully filled, false otherwise.
+     * Fills buffer with sample data. Only samples visible at current zoom level are copied to the end of the buffer.
+     * Returns true if buffer is successfully filled, false otherwise.
      */
     protected boolean fillBuffer() {
-        if (getAudioService() != null) {
-            if (drawingBuffer == null) drawingBuffer = new short[getAudioService().getAudioBuffer().length];
-            System.arraycopy(getAudioService().getAudioBuffer(), 0, drawingBuffer, 0, drawingBuffer.length);
-            return true;
+        final AudioService audioService = getAudioService();
+        if (audioService != null) {
+            final int size = Math.min(audioService.getAudioBufferSize(), getMaxSamplesCount());
+            if (drawingBuffer == null || drawingBuffer.length != size) drawingBuffer = new short[size];
+            // window could have been set while longer playback window was allowed
+            if (glWindowHorizontalSize > size) setGlWindowHorizontalSize(size);
+            drawingSampleCount = Math.min(glWindowHorizontalSize, size);
+            drawingBufferSequence = audioService.copyLatest(drawingBuffer, drawingSampleCount);
+            return drawingBufferSequence >= 0;
         }
         return false;
     }
@@ -212,9 +272,12 @@ public class BYBBaseRenderer extends BaseRenderer {
     @Override public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         LOGD(TAG, "onSurfaceCreated()");
 
-        gl.glDisable(GL10.GL_DITHER);
-        gl.glHint(GL10.GL_LINE_SMOOTH_HINT, GL10.GL_NICEST);
-        gl.glEnable(GL10.GL_DEPTH_TEST);
+        GLES20.glDisable(GLES20.GL_DITHER);
+
+        // new surface means new GL context so all GL objects need to be recreated and waveform fully uploaded
+        waveformVbo.create();
+        flatShader.create();
+        uploadedSequence = -1;
     }
 
     @Override public void onSurfaceChanged(GL10 gl, int width, int height) {
@@ -222,36 +285,21 @@ public class BYBBaseRenderer extends BaseRenderer {
 
         this.width = width;
         this.height = height;
+        invalidate();
     }
 
     @Override public void onDrawFrame(GL10 gl) {
-        long start = System.currentTimeMillis();
-        //LOGD(TAG, "START");
-        if (!fillBuffer()) {
-            LOGD(TAG, "Can't fill audio buffer!");
-            return;
-        }
-        //LOGD(TAG, (System.currentTimeMillis() - start) + " AFTER getCurrentAudio()");
-        if (!BYBUtils.isValidAudioBuffer(drawingBuffer)) {
-            LOGD(TAG, "Invalid audio buffer!");
-            return;
+        beginFrame();
+        try {
+            drawFrame(gl);
+        } finally {
+            endFrame();
         }
-        //LOGD(TAG, (System.currentTimeMillis() - start) + " AFTER isValidAudioBuffer()");
-
-        preDrawingHandler();
-        //LOGD(TAG, (System.currentTimeMillis() - start) + " AFTER preDrawingHandler()");
-        BYBGlUtils.glClear(gl);
-        //LOGD(TAG, (System.currentTimeMillis() - start) + " AFTER glClear()");
-        drawingHandler(gl);
-        //LOGD(TAG, (System.currentTimeMillis() - start) + " AFTER drawingHandler()");
-        postDrawingHandler(gl);
-        //LOGD(TAG, (System.currentTimeMillis() - start) + " AFTER postDrawingHandler()");
-        //LOGD(TAG, "END");
-        //LOGD(TAG, "================================================");
     }
 
     @CallSuper protected void preDrawingHandler() {
-        if (callback != null) callback.onDraw(glWindowHorizontalSize, glWindowVerticalSize);
+        final OverlayState overlayState = this.overlayState;
+        if (overlayState != null) overlayState.publish(glWindowHorizontalSize, glWindowVerticalSize);
     }
 
     protected void drawingHandler(GL10 gl) {
@@ -266,17 +314,16 @@ public class BYBBaseRenderer extends BaseRenderer {
         //        0x00FFFFFF);
         //}
         if (bShowScalingAreaX || bShowScalingAreaY) {
-            gl.glEnable(GL10.GL_BLEND);
+            GLES20.glEnable(GLES20.GL_BLEND);
             // Specifies pixel arithmetic
-            gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+            GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
             if (bShowScalingAreaX) {
-                BYBGlUtils.drawRectangle(gl, scalingAreaStartX, -getGlWindowVerticalSize(),
-                    scalingAreaEndX - scalingAreaStartX, getGlWindowVerticalSize() * 2, 0xFFFFFF33);
+                drawRectangle(scalingAreaStartX, -getGlWindowVerticalSize(), scalingAreaEndX - scalingAreaStartX,
+                    getGlWindowVerticalSize() * 2, SCALING_AREA_COLOR);
             } else {
-                BYBGlUtils.drawRectangle(gl, 0, scalingAreaStartY, getGlWindowHorizontalSize(), scalingAreaEndY,
-                    0xFFFFFF33);
+                drawRectangle(0, scalingAreaStartY, getGlWindowHorizontalSize(), scalingAreaEndY, SCALING_AREA_COLOR);
             }
-            gl.glDisable(GL10.GL_BLEND);
+            GLES20.glDisable(GLES20.GL_BLEND);
         }
     }
 
@@ -284,6 +331,35 @@ public class BYBBaseRenderer extends BaseRenderer {
     //  PRIVATE AND PACKAGE-PRIVATE METHODS
     //==============================================
 
+    // Fills the buffer and draws the frame
+    private void drawFrame(GL10 gl) {
+        // buffers handed out during previous frame can be reused
+        DirectBufferArena.get().reset();
+        // cleared before drawing so invalidations that happen while frame is being drawn are not lost
+        dirty = false;
+
+        beginStage(FrameStage.FILL_BUFFER);
+        final boolean filled = fillBuffer();
+        endStage(FrameStage.FILL_BUFFER);
+        if (!filled) {
+            LOGD(TAG, "Can't fill audio buffer!");
+            return;
+        }
+        drawnSequence = drawingBufferSequence;
+        if (!BYBUtils.isValidAudioBuffer(drawingBuffer)) {
+            LOGD(TAG, "Invalid audio buffer!");
+            return;
+        }
+
+        preDrawingHandler();
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        drawingHandler(gl);
+        postDrawingHandler(gl);
+
+        // played audio is drawn straight from the file, so only live audio has capture time
+        if (hasCaptureSequence()) AudioPipelineMetrics.get().onRendered(drawingBufferSequence);
+    }
+
     void startAddToGlOffset() {
         if (getIsPlaybackMode() && !getIsPlaying() && !getIsSeeking()) {
             if (callback != null) callback.onHorizontalDragStart();
@@ -320,42 +396,59 @@ public class BYBBaseRenderer extends BaseRenderer {
         endIndex = Math.min(startIndex + glWindowHorizontalSize, arrayLength);
     }
 
-    @Nullable protected FloatBuffer getWaveformBuffer(short[] shortArrayToDraw) {
-        //long start = System.currentTimeMillis();
-        //LOGD(TAG, ".........................................");
-        //LOGD(TAG, "START - " + shortArrayToDraw.length);
-        final boolean clearFront = getIsSeeking();
-        setStartEndIndex(shortArrayToDraw.length);
-        //Log.d(TAG, "AFTER setStartEndIndex():" + (System.currentTimeMillis() - start));
-        int j = 1;
-
-        try {
-            for (int i = startIndex; i < endIndex; i++) {
-                if (i < 0) {
-                    if (clearFront) tempBufferToDraws[j] = 0;
-                } else {
-                    tempBufferToDraws[j] = shortArrayToDraw[i];
-                }
-                //LOGD(TAG, "currentSample: " + tempBufferToDraws[j] + " - " + (System.currentTimeMillis() - start));
-
-                // give subclass a chance to process current sample
-                //onCycle(j);
-
-                j += 2;
-            }
-            //LOGD(TAG, "AFTER for loop2:" + (System.currentTimeMillis() - start));
-        } catch (ArrayIndexOutOfBoundsException e) {
-            LOGE(TAG, "Array size out of sync while building new waveform buffer");
+    /**
+     * Uploads samples of the specified buffer that are not yet in the waveform VBO and returns number of samples that
+     * should be drawn. Only samples that arrived after the previously uploaded {@code sequence} are uploaded. If
+     * {@code sequence} doesn't continue previous one, or VBO doesn't hold enough samples for the whole window, the
+     * whole window is uploaded. VBO is resized to the length of the buffer if it changed.
+     */
+    protected int updateWaveformVbo(@NonNull short[] samples, long sequence) {
+        waveformVbo.setCapacity(samples.length);
+        setStartEndIndex(samples.length);
+        // window could have been enlarged after the buffer was filled
+        final int count = Math.min(endIndex - Math.max(startIndex, 0), drawingSampleCount);
+        if (count <= 0) return 0;
+
+        final long delta = sequence - uploadedSequence;
+        beginStage(FrameStage.UPLOAD);
+        if (sequence < 0 || uploadedSequence < 0 || delta < 0 || delta >= count || waveformVbo.size() < count) {
+            replaceWaveform(samples, samples.length - count, count);
+        } else if (delta > 0) {
+            waveformVbo.write(samples, samples.length - (int) delta, (int) delta);
         }
+        endStage(FrameStage.UPLOAD);
+        uploadedSequence = sequence;
 
-        // subclasses can do some post-processing
-        //postCycle();
-        //Log.d(TAG, "AFTER postCycle():" + (System.currentTimeMillis() - start));
+        return count;
+    }
+
+    /**
+     * Replaces whole content of the waveform VBO with {@code count} samples of specified buffer starting at
+     * {@code from}. VBO is resized to the length of the buffer if it changed.
+     */
+    protected final void replaceWaveform(@NonNull short[] samples, int from, int count) {
+        waveformVbo.setCapacity(samples.length);
+        waveformVbo.clear();
+        waveformVbo.write(samples, from, count);
+        uploadedSequence = -1;
+    }
+
+    /**
+     * Draws latest {@code sampleCount} samples that are held by waveform VBO.
+     */
+    protected void drawWaveform(int sampleCount) {
+        beginStage(FrameStage.DRAW);
+        GLES20.glLineWidth(1f);
+        waveformVbo.draw(WAVEFORM_COLOR, sampleCount, glWindowHorizontalSize, glWindowVerticalSize);
+        endStage(FrameStage.DRAW);
+    }
 
-        final FloatBuffer fb = BYBUtils.getFloatBufferFromFloatArray(tempBufferToDraws, glWindowHorizontalSize * 2);
-        //Log.d(TAG, "AFTER getFloatBufferFromFloatArray():" + (System.currentTimeMillis() - start));
-        //LOGD(TAG, ".........................................");
-        return fb;
+    // Draws rectangle with specified color
+    private void drawRectangle(int x, int y, int w, int h, @NonNull float[] color) {
+        final FloatBuffer rectangleBuffer = DirectBufferArena.get().floats(8);
+        rectangleBuffer.put(x).put(y).put(x + w).put(y).put(x).put(y + h).put(x + w).put(y + h);
+        rectangleBuffer.position(0);
+        flatShader.draw(mvpMatrix, GLES20.GL_TRIANGLE_STRIP, rectangleBuffer, color, 4);
     }
 
     private float getMinimumDetectedPCMValue() {
@@ -372,21 +465,11 @@ public class BYBBaseRenderer extends BaseRenderer {
 
     // ----------------------------------------------------------------------------------------
     void initGL(GL10 gl, float xBegin, float xEnd, float scaledYBegin, float scaledYEnd) {
-        gl.glViewport(0, 0, width, height);
-
-        BYBGlUtils.glClear(gl);
-        gl.glMatrixMode(GL10.GL_PROJECTION);
-        gl.glLoadIdentity();
-        gl.glOrthof(xBegin, xEnd, scaledYBegin, scaledYEnd, -1f, 1f);
-        gl.glRotatef(0f, 0f, 0f, 1f);
+        GLES20.glViewport(0, 0, width, height);
 
-        gl.glClearColor(0f, 0f, 0f, 1.0f);
-        gl.glClearDepthf(1.0f);
-        gl.glEnable(GL10.GL_DEPTH_TEST);
-        gl.glDepthFunc(GL10.GL_LEQUAL);
-        gl.glEnable(GL10.GL_LINE_SMOOTH);
-        gl.glHint(GL10.GL_LINE_SMOOTH_HINT, GL10.GL_NICEST);
-        gl.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT, GL10.GL_NICEST);
+        GLES20.glClearColor(0f, 0f, 0f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        Matrix.orthoM(mvpMatrix, 0, xBegin, xEnd, scaledYBegin, scaledYEnd, -1f, 1f);
     }
 
     // ----------------------------------------------------------------------------------------
@@ -403,18 +486,18 @@ public class BYBBaseRenderer extends BaseRenderer {
     void autoScaleCheck() {
         if (!isAutoScaled() && drawingBuffer != null) {
             if (drawingBuffer.length > 0) {
-                autoSetFrame(drawingBuffer);
+                autoSetFrame(drawingBuffer, drawingBuffer.length - drawingSampleCount);
             }
         }
     }
 
     // ----------------------------------------------------------------------------------------
-    private void autoSetFrame(short[] arrayToScaleTo) {
+    private void autoSetFrame(short[] arrayToScaleTo, int from) {
         //	//Log.d(TAG, "autoSetFrame");
         int theMax = 0;
         int theMin = 0;
 
-        for (int i = 0; i < arrayToScaleTo.length; i++) {
+        for (int i = from; i < arrayToScaleTo.length; i++) {
             if (theMax < arrayToScaleTo[i]) theMax = arrayToScaleTo[i];
             if (theMin > arrayToScaleTo[i]) theMin = arrayToScaleTo[i];
         }
@@ -464,13 +547,32 @@ public class BYBBaseRenderer extends BaseRenderer {
 
     // ----------------------------------------------------------------------------------------
     protected long msToSamples(long timeSince) {
-        return Math.round(44.1 * timeSince);
+        return getStreamFormat().msToSamples(timeSince);
+    }
+
+    // Returns format of the audio that's currently drawn
+    private StreamFormat getStreamFormat() {
+        final AudioService audioService = getAudioService();
+        return audioService != null ? audioService.getStreamFormat() : StreamFormat.DEFAULT;
+    }
+
+    // Returns number of samples in the longest window that can be drawn at the current sample rate
+    private int getMaxSamplesCount() {
+        return getStreamFormat().getSampleRate() * MAX_WINDOW_SECONDS;
     }
 
     private boolean getIsRecording() {
         return getAudioService() != null && getAudioService().isRecording();
     }
 
+    // Returns the longest window that can currently be drawn
+    private int getMaxGlWindowHorizontalSize() {
+        final AudioService audioService = getAudioService();
+        final int size = audioService != null ? audioService.getAudioBufferSize() : 0;
+        final int maxSize = getMaxSamplesCount();
+        return size > 0 ? Math.min(size, maxSize) : maxSize;
+    }
+
     private boolean getIsPlaybackMode() {
         return getAudioService() != null && getAudioService().isPlaybackMode();
     }
@@ -1,11 +1,16 @@
 package com.backyardbrains.drawing;
 
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
 
-import com.backyardbrains.utils.BYBUtils;
-
+/**
+ * Mesh of 2D vertices with optional per-vertex colors and texture coordinates. Data is kept in growable primitive
+ * arrays and copied into direct buffers only when mesh changes, so meshes that are built once can be drawn every
+ * frame without any copying or allocations.
+ */
 public class BYBMesh {
 
 	public static final int			LINES			= 0;
@@ -14,74 +19,94 @@ public class BYBMesh {
 	public static final int			POINTS			= 3;
 	public static final int			LINE_STRIP		= 4;
 
-	protected ArrayList<float[]>	vertices;
-	protected ArrayList<float[]>	colors;
-	protected ArrayList<float[]>	texCoords;
+	private static final int		INITIAL_CAPACITY	= 64;
+	private static final int		BYTES_PER_FLOAT		= 4;
+
+	protected float[]				vertices		= new float[INITIAL_CAPACITY * 2];
+	protected float[]				colors			= new float[INITIAL_CAPACITY * 4];
+	protected float[]				texCoords		= new float[INITIAL_CAPACITY * 2];
+	protected int					verticesLength;
+	protected int					colorsLength;
+	protected int					texCoordsLength;
 
 	protected int					mode			= TRIANGLES;
 
+	// direct buffers are refilled only when mesh changes
+	private FloatBuffer				verticesBuffer;
+	private FloatBuffer				colorsBuffer;
+	private FloatBuffer				texCoordsBuffer;
+	private boolean					dirty;
+
+	// color of the faded edges of smooth quads, reused to avoid allocations
+	private final float[]			fadeColor		= new float[4];
+
 	public BYBMesh(int mode) {
-		vertices = new ArrayList<float[]>();
-		colors = new ArrayList<float[]>();
-		texCoords = new ArrayList<float[]>();
 		this.mode = mode;
 	}
 
 	public void clear() {
-		vertices.clear();
-		colors.clear();
-		texCoords.clear();
+		verticesLength = 0;
+		colorsLength = 0;
+		texCoordsLength = 0;
+		dirty = true;
 	}
 
 	public void addVertex(float[] v) {
-		if (v.length == 2) vertices.add(v);
+		if (v.length == 2) addVertex(v[0], v[1]);
 	}
 
 	public void addVertex(float x, float y) {
-		float[] v = new float[] { x, y };
-		vertices.add(v);
+		vertices = ensureCapacity(vertices, verticesLength + 2);
+		vertices[verticesLength++] = x;
+		vertices[verticesLength++] = y;
+		dirty = true;
 	}
 
 	public void addColor(float[] c) {
 		if (c.length == 4) {
-			colors.add(c);
+			addColor(c[0], c[1], c[2], c[3]);
 		}
 		if (c.length == 3) {
-			float[] nc = new float[4];
-			for (int i = 0; i < 3; i++) {
-				nc[i] = c[i];
-			}
-			nc[3] = 1.0f;
-			colors.add(nc);
+			addColor(c[0], c[1], c[2], 1.0f);
 		}
 	}
 
 	public void addColor(float c) {
-		float[] v = { c, c, c, 1.0f };
-		colors.add(v);
+		addColor(c, c, c, 1.0f);
+	}
+
+	private void addColor(float r, float g, float b, float a) {
+		colors = ensureCapacity(colors, colorsLength + 4);
+		colors[colorsLength++] = r;
+		colors[colorsLength++] = g;
+		colors[colorsLength++] = b;
+		colors[colorsLength++] = a;
+		dirty = true;
 	}
 
 	public void addTexCoord(float u, float v) {
-		float[] t = { u, v };
-		texCoords.add(t);
+		texCoords = ensureCapacity(texCoords, texCoordsLength + 2);
+		texCoords[texCoordsLength++] = u;
+		texCoords[texCoordsLength++] = v;
+		dirty = true;
 	}
 
 	public void addTexCoord(float[] t) {
 		if (t.length == 2) {
-			texCoords.add(t);
+			addTexCoord(t[0], t[1]);
 		}
 	}
 
 	public int getNumVertices() {
-		return vertices.size();
+		return verticesLength / 2;
 	}
 
 	public int getNumColors() {
-		return colors.size();
+		return colorsLength / 4;
 	}
 
 	public int getNumTexCoords() {
-		return texCoords.size();
+		return texCoordsLength / 2;
 	}
 
 	public void addRectangle(float x, float y, float w, float h, float[] color) {
@@ -121,11 +146,11 @@ public class BYBMesh {
 		}
 	}
 	public void addQuadSmooth(float p0x, float p0y, float p1x, float p1y, float p2x, float p2y, float p3x, float p3y, float[] color){
-		float [] c = new float [4];
-		c[0] = color[0];
+		float [] c = fadeColor;
+		c[0] = 0.0f;
 		c[1] = color[1];
 		c[2] = color[2];
-		c[0] = 0.0f;
+		c[3] = 0.0f;
 		addQuad(p0x, p0y-1, p1x, p1y-1, p0x, p0y, p1x, p1y);
 		addColor(c);
 		addColor(c);
@@ -137,7 +162,6 @@ public class BYBMesh {
 		addColor(color);
 		addQuad(p0x, p0y, p1x, p1y, p2x, p2y, p3x, p3y, color);
 
-		
 		addQuad(p2x, p2y, p3x, p3y, p2x, p2y+1, p3x, p3y+1);
 		addColor(color);
 		addColor(color);
@@ -147,9 +171,6 @@ public class BYBMesh {
 		}
 		addColor(c);
 		addColor(c);
-
-		
-		
 	}
 	public void addQuad(float p0x, float p0y, float p1x, float p1y, float p2x, float p2y, float p3x, float p3y){
 		addVertex(p0x, p0y);
@@ -176,34 +197,41 @@ public class BYBMesh {
 	}
 
 	public void draw(GL10 gl) {
-		boolean bDrawVerts = (vertices.size() > 0);
-		boolean bDrawColors = colors.size() > 0;
-		boolean bDrawTexCoords = texCoords.size() > 0;
+		boolean bDrawVerts = verticesLength > 0;
+		boolean bDrawColors = colorsLength > 0;
+		boolean bDrawTexCoords = texCoordsLength > 0;
 
 		if (bDrawVerts) {
+			if (dirty) {
+				verticesBuffer = fillBuffer(verticesBuffer, vertices, verticesLength);
+				colorsBuffer = fillBuffer(colorsBuffer, colors, colorsLength);
+				texCoordsBuffer = fillBuffer(texCoordsBuffer, texCoords, texCoordsLength);
+				dirty = false;
+			}
+
 			gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
 
 			if (bDrawColors) gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
 			if (bDrawTexCoords) gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
 			// gl.glLineWidth(1f);
-			if (bDrawVerts) gl.glVertexPointer(2, GL10.GL_FLOAT, 0, BYBUtils.floatArrayListToFloatBuffer(vertices));
-			if (bDrawColors) gl.glColorPointer(4, GL10.GL_FLOAT, 0, BYBUtils.floatArrayListToFloatBuffer(colors));
-			if (bDrawTexCoords) gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, BYBUtils.floatArrayListToFloatBuffer(texCoords));
+			gl.glVertexPointer(2, GL10.GL_FLOAT, 0, verticesBuffer);
+			if (bDrawColors) gl.glColorPointer(4, GL10.GL_FLOAT, 0, colorsBuffer);
+			if (bDrawTexCoords) gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, texCoordsBuffer);
 			switch (mode) {
 			case TRIANGLES:
-				gl.glDrawArrays(GL10.GL_TRIANGLES, 0, vertices.size());
+				gl.glDrawArrays(GL10.GL_TRIANGLES, 0, getNumVertices());
 				break;
 			case LINE_STRIP:
-				gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, vertices.size());
+				gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, getNumVertices());
 				break;
 			case LINES:
-				gl.glDrawArrays(GL10.GL_LINES, 0, vertices.size());
+				gl.glDrawArrays(GL10.GL_LINES, 0, getNumVertices());
 				break;
 			case TRIANGLE_STRIP:
-				gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, vertices.size());
+				gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, getNumVertices());
 				break;
 			case POINTS:
-				gl.glDrawArrays(GL10.GL_POINTS, 0, vertices.size());
+				gl.glDrawArrays(GL10.GL_POINTS, 0, getNumVertices());
 				break;
 			}
 			if (bDrawColors) gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
@@ -211,4 +239,27 @@ public class BYBMesh {
 			gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
 		}
 	}
+
+	// Returns array that can hold at least specified number of floats, growing the specified one if necessary
+	private static float[] ensureCapacity(float[] array, int length) {
+		if (array.length >= length) return array;
+
+		final float[] grown = new float[Math.max(length, array.length * 2)];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	// Copies first length values of data into direct buffer, reusing the specified buffer if it's large enough
+	private static FloatBuffer fillBuffer(FloatBuffer buffer, float[] data, int length) {
+		if (length == 0) return buffer;
+		if (buffer == null || buffer.capacity() < length) {
+			buffer = ByteBuffer.allocateDirect(data.length * BYTES_PER_FLOAT)
+				.order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+		}
+		buffer.clear();
+		buffer.put(data, 0, length);
+		buffer.position(0);
+		return buffer;
+	}
 }
@@ -20,8 +20,22 @@ abstract class BaseRenderer implements GLSurfaceView.Renderer {
 
     private WeakReference<BaseFragment> fragmentRef;
 
+    private final FrameStats frameStats;
+    // frame stage timing state, accessed only on GL thread
+    private final long[] stageStarts = new long[FrameStats.STAGE_COUNT];
+    private final long[] stageTotals = new long[FrameStats.STAGE_COUNT];
+    private int stagesRun;
+
     BaseRenderer(@NonNull BaseFragment fragment) {
         fragmentRef = new WeakReference<>(fragment);
+        frameStats = FrameStats.forRenderer(getClass());
+    }
+
+    /**
+     * Returns frame timing statistics collected by all renderers of this type.
+     */
+    @NonNull public FrameStats getFrameStats() {
+        return frameStats;
     }
 
     @Nullable protected AudioService getAudioService() {
@@ -38,6 +52,47 @@ abstract class BaseRenderer implements GLSurfaceView.Renderer {
         return fragment.getProvider() != null ? fragment.getProvider().analysisManager() : null;
     }
 
+    //==============================================
+    //  FRAME TIMING
+    //==============================================
+
+    /**
+     * Starts timing of a new frame. Should be called on GL thread at the beginning of every drawn frame.
+     */
+    final void beginFrame() {
+        stagesRun = 0;
+        for (int i = 0; i < FrameStats.STAGE_COUNT; i++) {
+            stageTotals[i] = 0;
+        }
+        beginStage(FrameStage.FRAME);
+    }
+
+    /**
+     * Finishes timing of the current frame and records durations of all the stages that were run.
+     */
+    final void endFrame() {
+        endStage(FrameStage.FRAME);
+        for (int i = 0; i < FrameStats.STAGE_COUNT; i++) {
+            if ((stagesRun & (1 << i)) != 0) frameStats.record(i, stageTotals[i]);
+        }
+    }
+
+    /**
+     * Starts timing of specified frame {@code stage}.
+     */
+    final void beginStage(@FrameStage int stage) {
+        stageStarts[stage] = System.nanoTime();
+    }
+
+    /**
+     * Stops timing of specified frame {@code stage}. Stage can be run multiple times within a frame, in which case
+     * durations are summed.
+     */
+    final void endStage(@FrameStage int stage) {
+        stageTotals[stage] += System.nanoTime() - stageStarts[stage];
+        stagesRun |= 1 << stage;
+    }
+
     // Returns the fragment reference and if reference is lost, logs the calling method.
     @Nullable private BaseFragment getFragment(@NonNull String methodName) {
         final BaseFragment fragment = fragmentRef.get();
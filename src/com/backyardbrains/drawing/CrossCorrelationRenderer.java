@@ -3,7 +3,6 @@ package com.backyardbrains.drawing;
 import android.support.annotation.NonNull;
 import com.backyardbrains.BaseFragment;
 import com.backyardbrains.view.ofRectangle;
-import java.util.List;
 import javax.microedition.khronos.opengles.GL10;
 
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -12,6 +11,9 @@ public class CrossCorrelationRenderer extends BYBAnalysisBaseRenderer {
 
     private static final String TAG = makeLogTag(CrossCorrelationRenderer.class);
 
+    private static final int MARGIN = 20;
+    private static final int MAX_SPIKE_TRAINS = 3;
+
     private boolean thumbsView = true;
 
     public CrossCorrelationRenderer(@NonNull BaseFragment fragment) {
@@ -41,42 +43,26 @@ public class CrossCorrelationRenderer extends BYBAnalysisBaseRenderer {
 
     @Override protected void drawingHandler(GL10 gl) {
         initGL(gl);
-        int margin = 20;
-        int maxSpikeTrains = 3;
         if (getAnalysisManager() != null) {
-            List<List<Integer>> cc = getAnalysisManager().getCrossCorrelation();
-            if (cc != null) {
-                if (thumbsView) {
-
-                    float d = (Math.min(width, height) / (float) (maxSpikeTrains + 1)) * 0.2f;
-                    if (d < margin) {
-                        margin = (int) d;
-                    }
-                    float w = (width - margin * (maxSpikeTrains + 1)) / (float) maxSpikeTrains;
-                    float h = (height - (margin * 1.5f) * (maxSpikeTrains + 1)) / (float) maxSpikeTrains;
-
-                    thumbRects = new ofRectangle[maxSpikeTrains * maxSpikeTrains];
+            drawHistograms(gl, getAnalysisManager().getCrossCorrelation(), true, thumbsView, !thumbsView);
+        }
+    }
 
-                    for (int i = 0; i < maxSpikeTrains; i++) {
-                        for (int j = 0; j < maxSpikeTrains; j++) {
-                            thumbRects[i * maxSpikeTrains + j] =
-                                new ofRectangle(j * (w + margin) + margin, (h + (margin * 1.5f)) * i + (margin * 1.5f),
-                                    w, h);
-                        }
-                    }
+    // Lays out 3x3 grid of thumb rectangles, one for each pair of spike trains, and main rectangle over whole surface
+    @Override void makeThumbAndMainRectangles() {
+        float margin = MARGIN;
+        float d = (Math.min(width, height) / (float) (MAX_SPIKE_TRAINS + 1)) * 0.2f;
+        if (d < margin) margin = (int) d;
+        float w = (width - margin * (MAX_SPIKE_TRAINS + 1)) / (float) MAX_SPIKE_TRAINS;
+        float h = (height - (margin * 1.5f) * (MAX_SPIKE_TRAINS + 1)) / (float) MAX_SPIKE_TRAINS;
 
-                    for (int i = 0; i < cc.size(); i++) {
-                        graphIntegerList(gl, cc.get(i), thumbRects[i], BYBColors.getColorAsGlById(i), true);
-                    }
-                } else {
-                    int s = selected;
-                    if (selected < 0 || selected >= maxSpikeTrains * maxSpikeTrains || selected >= cc.size()) {
-                        s = 0;
-                    }
-                    mainRect = new ofRectangle(margin, margin, width - 2 * margin, height - 2 * margin);
-                    graphIntegerList(gl, cc.get(s), mainRect, BYBColors.getColorAsGlById(s), true);
-                }
+        thumbRects = new ofRectangle[MAX_SPIKE_TRAINS * MAX_SPIKE_TRAINS];
+        for (int i = 0; i < MAX_SPIKE_TRAINS; i++) {
+            for (int j = 0; j < MAX_SPIKE_TRAINS; j++) {
+                thumbRects[i * MAX_SPIKE_TRAINS + j] =
+                    new ofRectangle(j * (w + margin) + margin, (h + (margin * 1.5f)) * i + (margin * 1.5f), w, h);
             }
         }
+        mainRect = new ofRectangle(MARGIN, MARGIN, width - 2 * MARGIN, height - 2 * MARGIN);
     }
 }
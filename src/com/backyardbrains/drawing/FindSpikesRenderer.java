@@ -1,11 +1,13 @@
 package com.backyardbrains.drawing;
 
+import android.opengl.GLES20;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
 import com.backyardbrains.BaseFragment;
 import com.backyardbrains.analysis.BYBSpike;
-import com.backyardbrains.utils.BYBUtils;
+import com.backyardbrains.utils.DirectBufferArena;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -19,12 +21,16 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     private long toSample;
 
     private FloatBuffer spikesBuffer;
-    private FloatBuffer colorsBuffer;
+    private int visibleSpikeCount;
+    // colors of all spikes, recomputed only when spikes, thresholds or selected color change
+    private FloatBuffer spikeColors;
+    private BYBSpike[] coloredSpikes;
+    private volatile boolean colorsDirty = true;
 
     private BYBSpike[] spikes;
     private int[] thresholds = new int[2];
 
-    private float[] currentColor = BYBColors.getColorAsGlById(BYBColors.red);
+    private float[] currentColor = BYBColors.getColorAsGlById(BYBColors.red).clone();
     private float[] whiteColor = BYBColors.getColorAsGlById(BYBColors.white);
 
     private Callback callback;
@@ -38,8 +44,8 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
         }
     }
 
-    public FindSpikesRenderer(@NonNull BaseFragment fragment, @NonNull float[] preparedBuffer) {
-        super(fragment, preparedBuffer);
+    public FindSpikesRenderer(@NonNull BaseFragment fragment) {
+        super(fragment);
 
         updateThresholdHandles();
     }
@@ -67,6 +73,8 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     public void setCurrentColor(float[] color) {
         if (currentColor.length == color.length && currentColor.length == 4) {
             System.arraycopy(color, 0, currentColor, 0, currentColor.length);
+            colorsDirty = true;
+            invalidate();
         }
     }
 
@@ -76,13 +84,15 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
         updateThresholdHandles();
     }
 
-    @Override public void onDrawFrame(GL10 gl) {
-        // let's save start and end sample positions that are being drawn before triggering the actual draw
-        toSample = getAudioService() != null ? getAudioService().getPlaybackProgress() : 0;
+    @Override protected boolean fillBuffer() {
+        final boolean filled = super.fillBuffer();
+
+        // let's save start and end sample positions of the copied samples so spikes are drawn exactly over them
+        toSample = getAudioService() != null ? getAudioService().getPlaybackSample(drawingBufferSequence) : 0;
         fromSample = Math.max(0, toSample - getGlWindowHorizontalSize());
         //LOGD(TAG, "from: " + fromSample + ", to: " + toSample + ", horizontal: " + getGlWindowHorizontalSize());
 
-        super.onDrawFrame(gl);
+        return filled;
     }
 
     @Override public void setGlWindowVerticalSize(int newSize) {
@@ -93,36 +103,16 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
 
     @Override protected void drawingHandler(GL10 gl) {
         if (getSpikes()) {
-            //long start = System.currentTimeMillis();
-
             setGlWindow(gl, getGlWindowHorizontalSize(), drawingBuffer.length);
 
+            beginStage(FrameStage.BUILD_GEOMETRY);
             constructSpikesAndColorsBuffers();
-            final FloatBuffer linesBuffer = getWaveformBuffer(drawingBuffer);
-
-            if (linesBuffer != null && spikesBuffer != null && colorsBuffer != null) {
-                gl.glMatrixMode(GL10.GL_MODELVIEW);
-                gl.glLoadIdentity();
-
-                gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-                gl.glLineWidth(1f);
-                gl.glColor4f(0f, 1f, 0f, 1f);
-                gl.glVertexPointer(2, GL10.GL_FLOAT, 0, linesBuffer);
-                gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, linesBuffer.limit() / 2);
-                gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
-                //LOGD(TAG, (System.currentTimeMillis() - start) + " AFTER DRAWING WAVE");
-
-                gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-                gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-                gl.glPointSize(10.0f);
-                gl.glVertexPointer(2, GL10.GL_FLOAT, 0, spikesBuffer);
-                gl.glColorPointer(4, GL10.GL_FLOAT, 0, colorsBuffer);
-                gl.glDrawArrays(GL10.GL_POINTS, 0, spikesBuffer.limit() / 2);
-                gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
-                gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
-
-                //LOGD(TAG, (System.currentTimeMillis() - start) + " AFTER DRAWING SPIKES");
-            }
+            endStage(FrameStage.BUILD_GEOMETRY);
+            drawWaveform(updateWaveformVbo(drawingBuffer, drawingBufferSequence));
+
+            beginStage(FrameStage.DRAW);
+            flatShader.draw(mvpMatrix, GLES20.GL_POINTS, spikesBuffer, spikeColors, visibleSpikeCount, 10.0f);
+            endStage(FrameStage.DRAW);
         } else {
             super.drawingHandler(gl);
         }
@@ -146,6 +136,8 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     private void setThreshold(int t, @ThresholdOrientation int orientation, boolean bBroadcast) {
         if (orientation == ThresholdOrientation.LEFT || orientation == ThresholdOrientation.RIGHT) {
             thresholds[orientation] = t;
+            colorsDirty = true;
+            invalidate();
             if (bBroadcast) updateThresholdHandle(orientation);
         }
     }
@@ -161,50 +153,59 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
         return false;
     }
 
-    private void constructSpikesAndColorsBuffers() {
-        float[] arr;
-        float[] spikeArr = null;
-        float[] arr1;
-        float[] colorsArr = null;
-        if (spikes != null) {
-            if (spikes.length > 0) {
-                final int min = Math.min(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
-                final int max = Math.max(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
-
-                arr = new float[spikes.length * 2];
-                arr1 = new float[spikes.length * 4];
-                int j = 0, k = 0; // j as index of arr, k as index of arr1
-                try {
-                    long index;
-                    for (BYBSpike spike : spikes) {
-                        if (fromSample < spike.index && spike.index < toSample) {
-                            index = toSample - fromSample < getGlWindowHorizontalSize() ?
-                                spike.index + getGlWindowHorizontalSize() - toSample : spike.index - fromSample;
-                            arr[j++] = index;
-                            arr[j++] = spike.value;
-
-                            float v = spike.value;
-                            float[] colorToSet = whiteColor;
-                            if (v >= min && v < max) colorToSet = currentColor;
-                            for (int l = 0; l < 4; l++) {
-                                arr1[k++] = colorToSet[l];
-                            }
-                        }
-                    }
-
-                    spikeArr = new float[j];
-                    System.arraycopy(arr, 0, spikeArr, 0, spikeArr.length);
-
-                    colorsArr = new float[k];
-                    System.arraycopy(arr1, 0, colorsArr, 0, colorsArr.length);
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    Log.e(TAG, e.getMessage());
-                }
+    // Returns index of the first spike whose sample index is greater than specified index, spikes are sorted by index
+    private int firstSpikeAfter(long sampleIndex) {
+        int low = 0;
+        int high = spikes.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (spikes[mid].index <= sampleIndex) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
-        if (spikeArr == null) spikeArr = new float[0];
-        if (colorsArr == null) colorsArr = new float[0];
-        spikesBuffer = BYBUtils.getFloatBufferFromFloatArray(spikeArr, spikeArr.length);
-        colorsBuffer = BYBUtils.getFloatBufferFromFloatArray(colorsArr, colorsArr.length);
+        return low;
+    }
+
+    // Recomputes colors of all spikes if spikes, thresholds or selected color changed since the last computation
+    private void updateSpikeColors() {
+        if (spikes == coloredSpikes && !colorsDirty) return;
+        colorsDirty = false;
+
+        final int colorCount = spikes.length * 4;
+        if (spikeColors == null || spikeColors.capacity() < colorCount) {
+            spikeColors = ByteBuffer.allocateDirect(colorCount * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        coloredSpikes = spikes;
+
+        final int min = Math.min(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
+        final int max = Math.max(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
+        spikeColors.clear();
+        for (BYBSpike spike : spikes) {
+            spikeColors.put(spike.value >= min && spike.value < max ? currentColor : whiteColor);
+        }
+    }
+
+    // Writes positions of spikes that fall into currently drawn window to reusable buffer and positions cached colors
+    // buffer at the first visible spike
+    private void constructSpikesAndColorsBuffers() {
+        updateSpikeColors();
+
+        final int first = firstSpikeAfter(fromSample);
+        int last = first;
+        while (last < spikes.length && spikes[last].index < toSample) {
+            last++;
+        }
+        visibleSpikeCount = last - first;
+
+        spikesBuffer = DirectBufferArena.get().floats(visibleSpikeCount * 2);
+        final long offset = toSample - getGlWindowHorizontalSize();
+        for (int i = first; i < last; i++) {
+            spikesBuffer.put(spikes[i].index - offset).put(spikes[i].value);
+        }
+        spikesBuffer.position(0);
+
+        spikeColors.limit(last * 4).position(first * 4);
     }
 }
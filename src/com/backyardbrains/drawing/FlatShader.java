@@ -0,0 +1,99 @@
+package com.backyardbrains.drawing;
+
+import android.opengl.GLES20;
+import android.support.annotation.NonNull;
+import com.backyardbrains.utils.BYBGlUtils;
+import java.nio.FloatBuffer;
+
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * GLES 2.0 program for drawing 2D vertices in either single color or with per-vertex colors.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class FlatShader {
+
+    private static final String TAG = makeLogTag(FlatShader.class);
+
+    private static final String VERTEX_SHADER = ""
+        + "uniform mat4 u_MVPMatrix;\n"
+        + "uniform float u_PointSize;\n"
+        + "attribute vec4 a_Position;\n"
+        + "attribute vec4 a_Color;\n"
+        + "varying vec4 v_Color;\n"
+        + "void main() {\n"
+        + "  v_Color = a_Color;\n"
+        + "  gl_PointSize = u_PointSize;\n"
+        + "  gl_Position = u_MVPMatrix * a_Position;\n"
+        + "}\n";
+    private static final String FRAGMENT_SHADER = ""
+        + "precision mediump float;\n"
+        + "varying vec4 v_Color;\n"
+        + "void main() {\n"
+        + "  gl_FragColor = v_Color;\n"
+        + "}\n";
+
+    private static final int COORDS_PER_VERTEX = 2;
+    private static final int COLORS_PER_VERTEX = 4;
+
+    private int program;
+    private int positionHandle;
+    private int colorHandle;
+    private int mvpMatrixHandle;
+    private int pointSizeHandle;
+
+    /**
+     * Creates shader program. Needs to be called on GL thread every time new GL surface is created.
+     */
+    void create() {
+        program = BYBGlUtils.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        if (program == 0) LOGE(TAG, "Flat program could not be created");
+
+        positionHandle = GLES20.glGetAttribLocation(program, "a_Position");
+        colorHandle = GLES20.glGetAttribLocation(program, "a_Color");
+        mvpMatrixHandle = GLES20.glGetUniformLocation(program, "u_MVPMatrix");
+        pointSizeHandle = GLES20.glGetUniformLocation(program, "u_PointSize");
+    }
+
+    /**
+     * Draws {@code count} vertices from the specified direct buffer using specified {@code color}. Buffer is read
+     * starting at it's current position.
+     */
+    void draw(@NonNull float[] mvpMatrix, int mode, @NonNull FloatBuffer vertices, @NonNull float[] color, int count) {
+        if (count <= 0) return;
+
+        use(mvpMatrix, 1f);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, vertices);
+        // color attribute array is disabled so constant attribute value is used for all vertices
+        GLES20.glVertexAttrib4fv(colorHandle, color, 0);
+        GLES20.glDrawArrays(mode, 0, count);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+    }
+
+    /**
+     * Draws {@code count} vertices from the specified direct buffer using per-vertex colors from the {@code colors}
+     * direct buffer. Both buffers are read starting at their current positions.
+     */
+    void draw(@NonNull float[] mvpMatrix, int mode, @NonNull FloatBuffer vertices, @NonNull FloatBuffer colors,
+        int count, float pointSize) {
+        if (count <= 0) return;
+
+        use(mvpMatrix, pointSize);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, vertices);
+        GLES20.glEnableVertexAttribArray(colorHandle);
+        GLES20.glVertexAttribPointer(colorHandle, COLORS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, colors);
+        GLES20.glDrawArrays(mode, 0, count);
+        GLES20.glDisableVertexAttribArray(colorHandle);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+    }
+
+    private void use(@NonNull float[] mvpMatrix, float pointSize) {
+        GLES20.glUseProgram(program);
+        GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
+        GLES20.glUniform1f(pointSizeHandle, pointSize);
+    }
+}
@@ -0,0 +1,20 @@
+package com.backyardbrains.drawing;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Stages of drawing a single frame that are timed by renderers.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+@Retention(RetentionPolicy.SOURCE) @IntDef({
+    FrameStage.FILL_BUFFER, FrameStage.BUILD_GEOMETRY, FrameStage.UPLOAD, FrameStage.DRAW, FrameStage.FRAME
+}) public @interface FrameStage {
+    int FILL_BUFFER = 0;
+    int BUILD_GEOMETRY = 1;
+    int UPLOAD = 2;
+    int DRAW = 3;
+    int FRAME = 4;
+}
@@ -0,0 +1,120 @@
+package com.backyardbrains.drawing;
+
+import android.support.annotation.NonNull;
+import com.backyardbrains.utils.LatencyHistogram;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Frame-stage timing statistics of a single renderer type. Durations of all the {@link FrameStage}s are collected
+ * into lock-free histograms, so they can be recorded on GL thread while they're being read on the main thread.
+ * Statistics are shared by all instances of the same renderer class so they survive renderers being recreated.
+ *
+ * <p>Timings are measured on the CPU. GL commands are executed asynchronously so time GPU spends on them shows up
+ * only once the driver needs to wait for it, usually in the {@link FrameStage#DRAW} or {@link FrameStage#UPLOAD}
+ * stage of one of the following frames.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class FrameStats {
+
+    static final int STAGE_COUNT = 5;
+
+    private static final String[] STAGE_NAMES = { "fill", "geometry", "upload", "draw", "frame" };
+
+    private static final ConcurrentHashMap<String, FrameStats> STATS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_COUNT];
+
+    private FrameStats(@NonNull String name) {
+        this.name = name;
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns statistics shared by all renderers of the specified class.
+     */
+    @NonNull public static FrameStats forRenderer(@NonNull Class<?> rendererClass) {
+        final String name = rendererClass.getSimpleName();
+        FrameStats stats = STATS.get(name);
+        if (stats == null) {
+            stats = new FrameStats(name);
+            final FrameStats existing = STATS.putIfAbsent(name, stats);
+            if (existing != null) stats = existing;
+        }
+        return stats;
+    }
+
+    /**
+     * Writes summaries of all collected renderer statistics to specified {@code file}.
+     */
+    public static void dump(@NonNull File file) throws IOException {
+        final Writer writer = new FileWriter(file);
+        try {
+            for (FrameStats stats : STATS.values()) {
+                writer.write(stats.summary());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns name of the renderer these statistics belong to.
+     */
+    @NonNull public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns histogram of durations of the specified frame {@code stage}.
+     */
+    @NonNull public LatencyHistogram getHistogram(@FrameStage int stage) {
+        return histograms[stage];
+    }
+
+    /**
+     * Clears all collected statistics.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns human readable summary with frame count and p50/p95/p99 durations in milliseconds for every stage.
+     */
+    @NonNull public String summary() {
+        final StringBuilder sb = new StringBuilder(name).append(" (")
+            .append(histograms[FrameStage.FRAME].getCount())
+            .append(" frames)");
+        for (int i = STAGE_COUNT - 1; i >= 0; i--) {
+            final LatencyHistogram histogram = histograms[i];
+            if (histogram.getCount() == 0) continue;
+
+            sb.append('\n')
+                .append(String.format(Locale.US, "%-9s p50 %6.2f  p95 %6.2f  p99 %6.2f  max %6.2f ms", STAGE_NAMES[i],
+                    toMillis(histogram.getPercentileNanos(50)), toMillis(histogram.getPercentileNanos(95)),
+                    toMillis(histogram.getPercentileNanos(99)), toMillis(histogram.getMaxNanos())));
+        }
+        return sb.toString();
+    }
+
+    // Records specified duration of the specified stage
+    void record(@FrameStage int stage, long nanos) {
+        histograms[stage].record(nanos);
+    }
+
+    private static float toMillis(long nanos) {
+        return nanos / 1000000f;
+    }
+}
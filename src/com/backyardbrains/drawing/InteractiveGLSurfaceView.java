@@ -27,6 +27,7 @@ import android.graphics.PixelFormat;
 import android.opengl.GLSurfaceView;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
@@ -70,6 +71,17 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
 
     BYBBaseRenderer renderer;
 
+    // requests render on display frames for which renderer has something new to draw, which also caps the frame rate
+    // at the display refresh rate
+    private final Choreographer.FrameCallback renderScheduler = new Choreographer.FrameCallback() {
+        @Override public void doFrame(long frameTimeNanos) {
+            if (renderer != null && renderer.isDirty()) requestRender();
+
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+    private boolean scheduling;
+
     private boolean bZoomButtonsEnabled = false;
     float scalingFactor = 0.5f;
     float scalingFactorOut;
@@ -116,9 +128,13 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
         scaleDetector = new ScaleGestureDetector(getContext(), scaleListener);
         scrollDetector = new GestureDetector(getContext(), scrollListener);
 
+        // waveform renderers draw using GLES 2.0 shaders and VBOs
+        setEGLContextClientVersion(2);
         setEGLConfigChooser(8, 8, 8, 8, 16, 0);
 
         super.setRenderer(renderer);
+        // frames are rendered only when renderer is dirty, see renderScheduler
+        setRenderMode(RENDERMODE_WHEN_DIRTY);
     }
 
     @Override public final void setRenderer(Renderer renderer) {
@@ -130,6 +146,24 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
         throw new IllegalArgumentException("Renderer needs to be instance of BYBBaseRenderer class");
     }
 
+    @Override public void onResume() {
+        super.onResume();
+
+        startRenderScheduler();
+    }
+
+    @Override public void onPause() {
+        stopRenderScheduler();
+
+        super.onPause();
+    }
+
+    @Override protected void onDetachedFromWindow() {
+        stopRenderScheduler();
+
+        super.onDetachedFromWindow();
+    }
+
     @Override public void surfaceCreated(SurfaceHolder holder) {
         super.surfaceCreated(holder);
         setKeepScreenOn(true);
@@ -189,6 +223,22 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
         }
     }
 
+    // Starts checking on every display frame whether renderer needs to redraw
+    private void startRenderScheduler() {
+        if (scheduling) return;
+
+        scheduling = true;
+        Choreographer.getInstance().postFrameCallback(renderScheduler);
+    }
+
+    // Stops checking whether renderer needs to redraw
+    private void stopRenderScheduler() {
+        if (!scheduling) return;
+
+        scheduling = false;
+        Choreographer.getInstance().removeFrameCallback(renderScheduler);
+    }
+
     private void scaleRenderer(int zoomMode) {
         if (renderer != null) {
             scaleRenderer(renderer.getSurfaceWidth() * 0.5f, zoomMode);
@@ -0,0 +1,66 @@
+package com.backyardbrains.drawing;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Channel through which renderer publishes current GL window sizes to the UI overlay (time and signal scale labels).
+ * Renderer can publish on every frame without allocating anything, while the consumer is invoked on the main thread
+ * only when sizes actually change, and at most once per UI frame.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class OverlayState {
+
+    /**
+     * Receives GL window sizes on the main thread.
+     */
+    public interface Consumer {
+        void onWindowSizeChanged(int horizontalSize, int verticalSize);
+    }
+
+    // both sizes are packed into a single value so consumer never sees size of one window paired with the other
+    private static final long NO_SIZES = Long.MIN_VALUE;
+
+    private final View view;
+    private final Consumer consumer;
+
+    private final AtomicLong latestSizes = new AtomicLong(NO_SIZES);
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+    // accessed only on the main thread
+    private long appliedSizes = NO_SIZES;
+
+    private final Runnable applyRunnable = new Runnable() {
+        @Override public void run() {
+            updatePending.set(false);
+
+            final long sizes = latestSizes.get();
+            if (sizes == appliedSizes) return;
+
+            appliedSizes = sizes;
+            consumer.onWindowSizeChanged((int) (sizes >> 32), (int) sizes);
+        }
+    };
+
+    /**
+     * @param view View whose animation frames are used to apply the updates.
+     * @param consumer Consumer that's invoked on the main thread when window sizes change.
+     */
+    public OverlayState(@NonNull View view, @NonNull Consumer consumer) {
+        this.view = view;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Publishes current GL window sizes. Can be called from any thread.
+     */
+    void publish(int horizontalSize, int verticalSize) {
+        final long sizes = ((long) horizontalSize << 32) | (verticalSize & 0xFFFFFFFFL);
+        if (latestSizes.getAndSet(sizes) == sizes) return;
+
+        // updates published before the pending one is applied are coalesced into it
+        if (updatePending.compareAndSet(false, true)) view.postOnAnimation(applyRunnable);
+    }
+}
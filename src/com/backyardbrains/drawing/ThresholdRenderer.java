@@ -23,10 +23,9 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import com.backyardbrains.BaseFragment;
+import com.backyardbrains.audio.AudioService;
 import com.backyardbrains.audio.ThresholdHelper;
-import com.backyardbrains.utils.BYBUtils;
 import com.backyardbrains.utils.PrefUtils;
-import java.nio.FloatBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -48,8 +47,8 @@ public class ThresholdRenderer extends WaveformRenderer {
         }
     }
 
-    public ThresholdRenderer(@NonNull BaseFragment fragment, @NonNull float[] preparedBuffer) {
-        super(fragment, preparedBuffer);
+    public ThresholdRenderer(@NonNull BaseFragment fragment) {
+        super(fragment);
     }
 
     public void setCallback(Callback callback) {
@@ -84,11 +83,31 @@ public class ThresholdRenderer extends WaveformRenderer {
         updateThresholdHandle();
     }
 
+    /**
+     * Whether there is anything new to draw, either because averager processed new audio since the last drawn frame
+     * or because the frame has been invalidated.
+     */
+    @Override public boolean isDirty() {
+        if (isInvalidated()) return true;
+
+        final AudioService audioService = getAudioService();
+        return audioService != null && audioService.getAveragedSequence() != getDrawnSequence();
+    }
+
+    // Averaged samples are tracked by averager's own sequence that has nothing to do with audio buffer sequence
+    @Override boolean hasCaptureSequence() {
+        return false;
+    }
+
     @Override protected boolean fillBuffer() {
-        if (getAudioService() != null) {
-            drawingBuffer = new short[getAudioService().getAverageBuffer().length];
-            System.arraycopy(getAudioService().getAverageBuffer(), 0, drawingBuffer, 0, drawingBuffer.length);
-            return true;
+        final AudioService audioService = getAudioService();
+        if (audioService != null) {
+            final int size = audioService.getAveragedSampleCount();
+            if (drawingBuffer == null || drawingBuffer.length != size) drawingBuffer = new short[size];
+            // averaged samples change only when averager processes new audio
+            drawingBufferSequence = audioService.getAveragedSequence();
+            drawingSampleCount = Math.min(getGlWindowHorizontalSize(), size);
+            return audioService.copyAveragedSamples(drawingBuffer, drawingSampleCount);
         }
         return false;
     }
@@ -105,22 +124,16 @@ public class ThresholdRenderer extends WaveformRenderer {
         PrefUtils.setThreshold(context, getClass(), threshold);
     }
 
-    @Override protected FloatBuffer getWaveformBuffer(short[] shortArrayToDraw) {
-        if (getGlWindowHorizontalSize() > shortArrayToDraw.length) setGlWindowHorizontalSize(shortArrayToDraw.length);
-
-        float[] arr = new float[getGlWindowHorizontalSize() * 2]; // array to fill
-        int j = 0; // index of arr
-        try {
-            int start = (shortArrayToDraw.length - getGlWindowHorizontalSize()) / 2;
-            int end = (shortArrayToDraw.length + getGlWindowHorizontalSize()) / 2;
-            for (int i = start; i < end && i < shortArrayToDraw.length; i++) {
-                arr[j++] = i - start;
-                arr[j++] = shortArrayToDraw[i];
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            Log.e(TAG, e.getMessage());
-        }
-        return BYBUtils.getFloatBufferFromFloatArray(arr, arr.length);
+    @Override protected int updateWaveformVbo(@NonNull short[] samples, long sequence) {
+        if (getGlWindowHorizontalSize() > samples.length) setGlWindowHorizontalSize(samples.length);
+
+        // averaged samples change as a whole so centered part copied to the end of the buffer is always uploaded entirely
+        final int count = Math.min(getGlWindowHorizontalSize(), drawingSampleCount);
+        beginStage(FrameStage.UPLOAD);
+        replaceWaveform(samples, samples.length - count, count);
+        endStage(FrameStage.UPLOAD);
+
+        return count;
     }
 
     private void updateThresholdHandle() {
@@ -132,6 +145,7 @@ public class ThresholdRenderer extends WaveformRenderer {
         if (dy == 0) return;
 
         threshold = dy;
+        invalidate();
 
         if (getAudioService() != null && getAudioService().getTriggerHandler() != null) {
             getAudioService().getTriggerHandler().post(new Runnable() {
@@ -0,0 +1,216 @@
+package com.backyardbrains.drawing;
+
+import android.opengl.GLES20;
+import android.support.annotation.NonNull;
+import com.backyardbrains.utils.BYBGlUtils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Persistent GLES 2.0 vertex buffer object that keeps the most recent waveform samples in a ring. Only samples that
+ * arrived since the previous frame are uploaded with {@code glBufferSubData()}, and the trace is scrolled by passing
+ * the ring offset to the vertex shader instead of moving the data.
+ *
+ * <p>Samples are uploaded as raw {@code GL_SHORT} values. X coordinates are derived in the shader from a static
+ * attribute holding the ring slot of each vertex, which is uploaded only when the ring is resized, and amplitude is
+ * scaled with a uniform. Ring is sized to the longest window that's actually drawn, so it doesn't occupy more memory
+ * than the samples it holds.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+class WaveformVbo {
+
+    private static final String TAG = makeLogTag(WaveformVbo.class);
+
+    private static final String VERTEX_SHADER = ""
+        + "uniform vec2 u_Scale;\n"
+        + "uniform float u_Offset;\n"
+        + "uniform float u_Capacity;\n"
+        + "attribute float a_Slot;\n"
+        + "attribute float a_Value;\n"
+        + "void main() {\n"
+        + "  float x = a_Slot - u_Offset;\n"
+        + "  if (x < 0.0) x += u_Capacity;\n"
+        + "  gl_Position = vec4(x * u_Scale.x - 1.0, a_Value * u_Scale.y, 0.0, 1.0);\n"
+        + "}\n";
+    private static final String FRAGMENT_SHADER = ""
+        + "precision mediump float;\n"
+        + "uniform vec4 u_Color;\n"
+        + "void main() {\n"
+        + "  gl_FragColor = u_Color;\n"
+        + "}\n";
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int BYTES_PER_SHORT = 2;
+    // number of slots uploaded at once when ring is resized
+    private static final int SLOT_CHUNK_SIZE = 4096;
+
+    // reused for uploading ring slots so resizing doesn't allocate
+    private final FloatBuffer slotChunk =
+        ByteBuffer.allocateDirect(SLOT_CHUNK_SIZE * BYTES_PER_FLOAT).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+    // number of samples ring can currently hold, 0 until GL buffers are allocated
+    private int capacity;
+
+    // 0 - slot VBO, 1 - value VBO
+    private final int[] vbo = new int[2];
+    private int program;
+    private int slotHandle;
+    private int valueHandle;
+    private int scaleHandle;
+    private int offsetHandle;
+    private int capacityHandle;
+    private int colorHandle;
+
+    // wraps the last uploaded sample array so uploads don't allocate when the same array is passed every frame
+    private short[] wrappedSamples;
+    private ShortBuffer samplesBuffer;
+
+    // ring slot the next sample will be written to
+    private int head;
+    // number of valid samples in the ring
+    private int size;
+
+    /**
+     * Creates shader program and vertex buffer objects. Needs to be called on GL thread every time new GL surface is
+     * created. Buffers don't hold any data until {@link #setCapacity(int)} is called.
+     */
+    void create() {
+        program = BYBGlUtils.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        if (program == 0) LOGE(TAG, "Waveform program could not be created");
+
+        slotHandle = GLES20.glGetAttribLocation(program, "a_Slot");
+        valueHandle = GLES20.glGetAttribLocation(program, "a_Value");
+        scaleHandle = GLES20.glGetUniformLocation(program, "u_Scale");
+        offsetHandle = GLES20.glGetUniformLocation(program, "u_Offset");
+        capacityHandle = GLES20.glGetUniformLocation(program, "u_Capacity");
+        colorHandle = GLES20.glGetUniformLocation(program, "u_Color");
+
+        GLES20.glGenBuffers(2, vbo, 0);
+        capacity = 0;
+
+        clear();
+    }
+
+    /**
+     * Resizes the ring so it holds up to {@code capacity} samples. Samples held by the ring are discarded if capacity
+     * changes. Needs to be called on GL thread after {@link #create()}.
+     */
+    void setCapacity(int capacity) {
+        if (capacity == this.capacity || capacity <= 0) return;
+
+        this.capacity = capacity;
+        // one extra slot mirrors the first one so the line strip stays continuous across the ring boundary
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, (capacity + 1) * BYTES_PER_FLOAT, null, GLES20.GL_STATIC_DRAW);
+        for (int from = 0; from <= capacity; from += SLOT_CHUNK_SIZE) {
+            final int count = Math.min(SLOT_CHUNK_SIZE, capacity + 1 - from);
+            slotChunk.clear();
+            for (int i = 0; i < count; i++) {
+                slotChunk.put(from + i);
+            }
+            slotChunk.flip();
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, from * BYTES_PER_FLOAT, count * BYTES_PER_FLOAT, slotChunk);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo[1]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, (capacity + 1) * BYTES_PER_SHORT, null, GLES20.GL_DYNAMIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        clear();
+    }
+
+    /**
+     * Returns number of valid samples currently held by the ring.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Discards all samples held by the ring. Data is not touched, it's just overwritten by subsequent writes.
+     */
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Appends {@code count} samples starting at {@code from} index of the specified array to the ring and uploads
+     * them to GPU. If {@code count} exceeds ring capacity only the latest samples are written.
+     */
+    void write(@NonNull short[] samples, int from, int count) {
+        if (count <= 0 || capacity == 0) return;
+        if (count > capacity) {
+            from += count - capacity;
+            count = capacity;
+        }
+        if (samples != wrappedSamples) {
+            wrappedSamples = samples;
+            samplesBuffer = ShortBuffer.wrap(samples);
+        }
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo[1]);
+        // part until the end of the ring
+        final int firstCount = Math.min(count, capacity - head);
+        upload(from, head, firstCount);
+        // wrapped part at the beginning of the ring
+        final int secondCount = count - firstCount;
+        if (secondCount > 0) upload(from + firstCount, 0, secondCount);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        head = (head + count) % capacity;
+        size = Math.min(size + count, capacity);
+    }
+
+    /**
+     * Draws latest {@code count} samples as a line strip across the surface which is {@code horizontalSize} samples
+     * wide and {@code verticalSize} sample values high.
+     */
+    void draw(@NonNull float[] color, int count, float horizontalSize, float verticalSize) {
+        if (count > size) count = size;
+        if (count <= 1) return;
+
+        final int first = (head - count + capacity) % capacity;
+
+        GLES20.glUseProgram(program);
+        GLES20.glUniform2f(scaleHandle, 2f / horizontalSize, 2f / verticalSize);
+        GLES20.glUniform1f(offsetHandle, first);
+        GLES20.glUniform1f(capacityHandle, capacity);
+        GLES20.glUniform4fv(colorHandle, 1, color, 0);
+
+        GLES20.glEnableVertexAttribArray(slotHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo[0]);
+        GLES20.glVertexAttribPointer(slotHandle, 1, GLES20.GL_FLOAT, false, 0, 0);
+        GLES20.glEnableVertexAttribArray(valueHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo[1]);
+        GLES20.glVertexAttribPointer(valueHandle, 1, GLES20.GL_SHORT, false, 0, 0);
+        if (first + count <= capacity) {
+            GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, first, count);
+        } else {
+            // draw until the mirror slot and then continue from the beginning of the ring
+            final int firstCount = capacity - first;
+            GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, first, firstCount + 1);
+            GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 0, count - firstCount);
+        }
+        GLES20.glDisableVertexAttribArray(valueHandle);
+        GLES20.glDisableVertexAttribArray(slotHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    // Uploads samples from the wrapped array to the specified ring slots of the currently bound value VBO
+    private void upload(int from, int slot, int count) {
+        samplesBuffer.limit(from + count).position(from);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, slot * BYTES_PER_SHORT, count * BYTES_PER_SHORT, samplesBuffer);
+
+        // keep the mirror slot in sync with the first ring slot
+        if (slot == 0) {
+            samplesBuffer.limit(from + 1).position(from);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, capacity * BYTES_PER_SHORT, BYTES_PER_SHORT, samplesBuffer);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.backyardbrains.events;
+
+/**
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class AnalysisExportedEvent {
+
+    private final boolean success;
+    private final String filePath;
+
+    public AnalysisExportedEvent(boolean success, String filePath) {
+        this.success = success;
+        this.filePath = filePath;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+}
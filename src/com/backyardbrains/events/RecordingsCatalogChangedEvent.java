@@ -0,0 +1,12 @@
+package com.backyardbrains.events;
+
+/**
+ * Posted every time recordings catalog changes.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class RecordingsCatalogChangedEvent {
+
+    public RecordingsCatalogChangedEvent() {
+    }
+}
@@ -51,9 +51,27 @@ public class AudioUtils {
      * Creates and returns configured {@link AudioTrack} for playing recorded audio files.
      */
     public static AudioTrack createAudioTrack() {
-        LOGD(TAG, "Create new AudioTrack");
-        return new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO, AUDIO_FORMAT,
-            OUT_BUFFER_SIZE, AudioTrack.MODE_STREAM);
+        return createAudioTrack(SAMPLE_RATE);
+    }
+
+    /**
+     * Creates and returns configured {@link AudioTrack} for playing recorded mono audio files of specified {@code
+     * sampleRate}.
+     */
+    public static AudioTrack createAudioTrack(int sampleRate) {
+        LOGD(TAG, "Create new AudioTrack (" + sampleRate + " Hz)");
+        return new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, AudioFormat.CHANNEL_OUT_MONO, AUDIO_FORMAT,
+            getOutBufferSize(sampleRate), AudioTrack.MODE_STREAM);
+    }
+
+    /**
+     * Returns buffer size used for mono audio output of specified {@code sampleRate}.
+     */
+    public static int getOutBufferSize(int sampleRate) {
+        if (sampleRate == SAMPLE_RATE) return OUT_BUFFER_SIZE;
+
+        final int bufferSize = AudioTrack.getMinBufferSize(sampleRate, OUT_CHANNEL_CONFIG, AUDIO_FORMAT);
+        return bufferSize == AudioTrack.ERROR || bufferSize == AudioTrack.ERROR_BAD_VALUE ? sampleRate * 2 : bufferSize;
     }
 
     /**
@@ -78,4 +96,11 @@ public class AudioUtils {
     public static int getByteCount(int sampleCount) {
         return sampleCount * 2;
     }
+
+    /**
+     * Returns number of bytes that this number of samples represents using current audio format.
+     */
+    public static long getByteCount(long sampleCount) {
+        return sampleCount * 2;
+    }
 }
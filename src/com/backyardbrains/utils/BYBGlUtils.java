@@ -1,12 +1,18 @@
 package com.backyardbrains.utils;
 
+import android.opengl.GLES20;
 import android.util.Log;
 import com.backyardbrains.drawing.BYBColors;
 import java.nio.FloatBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
 public class BYBGlUtils {
 
+    private static final String TAG = makeLogTag(BYBGlUtils.class);
+
     public static final int DEFAULT_GL_WINDOW_HORIZONTAL_SIZE = 4000;
     public static final int DEFAULT_GL_WINDOW_VERTICAL_SIZE = 10000;
     public static final float DEFAULT_MIN_DETECTED_PCM_VALUE = -5000000f;
@@ -35,7 +41,7 @@ public class BYBGlUtils {
     }
 
     public static void drawArray2D(GL10 gl, float[] array, int color, float lineWidth, int mode) {
-        FloatBuffer buffer = BYBUtils.getFloatBufferFromFloatArray(array, array.length);
+        FloatBuffer buffer = DirectBufferArena.get().floats(array, array.length);
         if (array.length % 2 != 0) {
             Log.e("BYBGlUtils", "drawArray2D incorrect array size. array.length%2 !=0");
         }
@@ -54,4 +60,52 @@ public class BYBGlUtils {
         float[] array = new float[] { x, y, x + w, y, x, y + h, x + w, y + h };
         drawArray2D(gl, array, color, 1, GL10.GL_TRIANGLE_STRIP);
     }
+
+    /**
+     * Compiles specified vertex and fragment shader sources and links them into a GLES 2.0 program. Returns id of the
+     * linked program or {@code 0} if compiling or linking fails.
+     */
+    public static int createProgram(String vertexShaderSource, String fragmentShaderSource) {
+        final int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderSource);
+        if (vertexShader == 0) return 0;
+        final int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSource);
+        if (fragmentShader == 0) return 0;
+
+        final int program = GLES20.glCreateProgram();
+        if (program == 0) return 0;
+
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        final int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            LOGE(TAG, "Could not link program: " + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+        // shaders are not needed once the program is linked
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        return program;
+    }
+
+    // Compiles shader of specified type and returns it's id, or 0 if compiling fails
+    private static int loadShader(int type, String source) {
+        final int shader = GLES20.glCreateShader(type);
+        if (shader == 0) return 0;
+
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        final int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            LOGE(TAG, "Could not compile shader " + type + ": " + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            return 0;
+        }
+
+        return shader;
+    }
 }
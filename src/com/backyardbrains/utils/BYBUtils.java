@@ -2,14 +2,9 @@ package com.backyardbrains.utils;
 
 import android.app.Activity;
 import android.content.DialogInterface;
-import android.support.annotation.Nullable;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.view.ContextThemeWrapper;
 import com.backyardbrains.R;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.util.ArrayList;
 
 public class BYBUtils {
 
@@ -27,20 +22,6 @@ public class BYBUtils {
         alertDialog.show();
     }
 
-    // ----------------------------------------------------------------------------------------
-    @Nullable public static FloatBuffer getFloatBufferFromFloatArray(final float[] array, int length) {
-        FloatBuffer buf = null;
-        try {
-            final ByteBuffer temp = ByteBuffer.allocateDirect(length * 4);
-            temp.order(ByteOrder.nativeOrder());
-            buf = temp.asFloatBuffer();
-            buf.put(array, 0, length);
-            buf.position(0);
-        } catch (Exception e) {
-        }
-        return buf;
-    }
-
     // ----------------------------------------------------------------------------------------
     public static boolean isValidAudioBuffer(float[] buffer) {
         if (buffer == null) {
@@ -65,41 +46,5 @@ public class BYBUtils {
     public static float map(float value, float in_min, float in_max, float out_min, float out_max) {
         return ((value - in_min) * (out_max - out_min) / (in_max - in_min) + out_min);
     }
-
-    public static FloatBuffer floatArrayListToFloatBuffer(ArrayList<float[]> arrayList) {
-        final FloatBuffer buf;
-        int totalArraySize = 0;
-        for (float[] lv : arrayList) {
-            totalArraySize += lv.length;
-        }
-        final ByteBuffer temp = ByteBuffer.allocateDirect(totalArraySize * 4);
-        temp.order(ByteOrder.nativeOrder());
-        buf = temp.asFloatBuffer();
-
-        for (float[] lv : arrayList) {
-            for (float v : lv) {
-                buf.put(v);
-            }
-        }
-        buf.position(0);
-        return buf;
-    }
-
-    public static float[] generateLogSpace(int min, int max, int logBins) {
-        double logarithmicBase = Math.E;
-        double mins = Math.pow(10.0, min);
-        double maxs = Math.pow(10.0, max);
-        double logMin = Math.log(mins);
-        double logMax = Math.log(maxs);
-        double delta = (logMax - logMin) / logBins;
-
-        double accDelta = 0;
-        float[] v = new float[logBins + 1];
-        for (int i = 0; i <= logBins; ++i) {
-            v[i] = (float) Math.pow(logarithmicBase, logMin + accDelta);
-            accDelta += delta;// accDelta = delta * i
-        }
-        return v;
-    }
 }
 
@@ -0,0 +1,199 @@
+package com.backyardbrains.utils;
+
+import android.support.annotation.NonNull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes binary values and ASCII text to a {@link WritableByteChannel} through a single direct buffer of fixed size,
+ * which is written out every time it fills up. Numbers are formatted as text straight into the buffer, so writing
+ * doesn't allocate and memory used doesn't depend on the amount of written data. Binary values are little-endian.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class BufferedChannelWriter implements Closeable {
+
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    // digits of the number that's being formatted, in reverse order
+    private final byte[] digits = new byte[20];
+
+    private long flushedByteCount;
+
+    /**
+     * @param channel Channel to which data is written.
+     * @param bufferSize Number of bytes buffered before they are written to the channel.
+     */
+    public BufferedChannelWriter(@NonNull WritableByteChannel channel, int bufferSize) {
+        if (bufferSize < 8) throw new IllegalArgumentException("Buffer needs to hold at least 8 bytes");
+
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes specified {@code value} as 4 bytes.
+     */
+    public void putInt(int value) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes specified {@code value} as 4 bytes.
+     */
+    public void putFloat(float value) throws IOException {
+        ensureRemaining(4);
+        buffer.putFloat(value);
+    }
+
+    /**
+     * Writes specified {@code value} as 2 bytes.
+     */
+    public void putShort(short value) throws IOException {
+        ensureRemaining(2);
+        buffer.putShort(value);
+    }
+
+    /**
+     * Writes all the remaining ints of specified {@code src} buffer, 4 bytes each.
+     */
+    public void putInts(@NonNull IntBuffer src) throws IOException {
+        final int limit = src.limit();
+        while (src.hasRemaining()) {
+            ensureRemaining(4);
+            final int count = Math.min(src.remaining(), buffer.remaining() / 4);
+            src.limit(src.position() + count);
+            buffer.asIntBuffer().put(src);
+            buffer.position(buffer.position() + count * 4);
+            src.limit(limit);
+        }
+    }
+
+    /**
+     * Writes all the remaining floats of specified {@code src} buffer, 4 bytes each.
+     */
+    public void putFloats(@NonNull FloatBuffer src) throws IOException {
+        final int limit = src.limit();
+        while (src.hasRemaining()) {
+            ensureRemaining(4);
+            final int count = Math.min(src.remaining(), buffer.remaining() / 4);
+            src.limit(src.position() + count);
+            buffer.asFloatBuffer().put(src);
+            buffer.position(buffer.position() + count * 4);
+            src.limit(limit);
+        }
+    }
+
+    /**
+     * Writes specified {@code c} as a single byte. Only ASCII characters are supported.
+     */
+    public void putChar(char c) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) c);
+    }
+
+    /**
+     * Writes specified {@code text} a byte per character. Only ASCII characters are supported.
+     */
+    public void putAscii(@NonNull CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            putChar(text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes specified {@code value} as decimal text.
+     */
+    public void putInteger(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            putChar('-');
+            value = -value;
+        }
+
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        ensureRemaining(count);
+        while (count > 0) {
+            buffer.put(digits[--count]);
+        }
+    }
+
+    /**
+     * Writes specified {@code value} as decimal text rounded to specified number of {@code fractionDigits} (at most
+     * 9), always using dot as decimal separator.
+     */
+    public void putDecimal(double value, int fractionDigits) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            putAscii(Double.toString(value));
+            return;
+        }
+
+        final long scale = POWERS_OF_TEN[fractionDigits];
+        final long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) putChar('-');
+        putInteger(scaled / scale);
+        if (fractionDigits > 0) {
+            putChar('.');
+            final long fraction = scaled % scale;
+            for (long power = scale / 10; power > 0; power /= 10) {
+                putChar((char) ('0' + (fraction / power) % 10));
+            }
+        }
+    }
+
+    /**
+     * Returns total number of bytes written so far, including the ones that are still buffered.
+     */
+    public long getByteCount() {
+        return flushedByteCount + buffer.position();
+    }
+
+    /**
+     * Writes buffered bytes to the channel.
+     *
+     * @throws IOException if bytes can't be written
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushedByteCount += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes buffered bytes and closes the channel.
+     *
+     * @throws IOException if bytes can't be written
+     */
+    @Override public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Writes buffered bytes if there's less than specified number of bytes left in the buffer
+    private void ensureRemaining(int count) throws IOException {
+        if (buffer.remaining() < count) flush();
+    }
+}
@@ -0,0 +1,89 @@
+package com.backyardbrains.utils;
+
+import android.support.annotation.NonNull;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arena of reusable, growable direct buffers used for passing vertex and color data to GL. Every GL thread has it's
+ * own arena which is obtained through {@link #get()}. Renderer should call {@link #reset()} at the beginning of every
+ * frame, after which buffers are handed out in the same order as in the previous frame, so in steady state no direct
+ * buffers are allocated.
+ *
+ * <p>Buffers returned by the arena are valid only until the next call to {@link #reset()} and shouldn't be kept
+ * between frames.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class DirectBufferArena {
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int MIN_CAPACITY = 64;
+
+    private static final ThreadLocal<DirectBufferArena> ARENA = new ThreadLocal<DirectBufferArena>() {
+        @Override protected DirectBufferArena initialValue() {
+            return new DirectBufferArena();
+        }
+    };
+
+    private final List<FloatBuffer> floatBuffers = new ArrayList<>();
+    private int floatIndex;
+
+    private DirectBufferArena() {
+    }
+
+    /**
+     * Returns arena that belongs to the calling thread.
+     */
+    public static DirectBufferArena get() {
+        return ARENA.get();
+    }
+
+    /**
+     * Marks all buffers as free so they can be handed out again. Should be called at the beginning of every frame.
+     */
+    public void reset() {
+        floatIndex = 0;
+    }
+
+    /**
+     * Returns direct float buffer that can hold at least {@code count} floats. Returned buffer is cleared and it's
+     * limit is set to {@code count}.
+     */
+    @NonNull public FloatBuffer floats(int count) {
+        FloatBuffer buffer = floatIndex < floatBuffers.size() ? floatBuffers.get(floatIndex) : null;
+        if (buffer == null || buffer.capacity() < count) {
+            buffer = ByteBuffer.allocateDirect(capacityFor(count, buffer != null ? buffer.capacity() : 0)
+                * BYTES_PER_FLOAT).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            if (floatIndex < floatBuffers.size()) {
+                floatBuffers.set(floatIndex, buffer);
+            } else {
+                floatBuffers.add(buffer);
+            }
+        }
+        floatIndex++;
+
+        buffer.clear();
+        buffer.limit(count);
+        return buffer;
+    }
+
+    /**
+     * Returns direct float buffer filled with first {@code length} values of the specified {@code array}. Position
+     * of the returned buffer is set to {@code 0}.
+     */
+    @NonNull public FloatBuffer floats(@NonNull float[] array, int length) {
+        final FloatBuffer buffer = floats(length);
+        buffer.put(array, 0, length);
+        buffer.position(0);
+        return buffer;
+    }
+
+    // Buffers grow at least by doubling so slowly growing data doesn't cause an allocation every frame
+    private static int capacityFor(int count, int currentCapacity) {
+        return Math.max(Math.max(count, MIN_CAPACITY), currentCapacity * 2);
+    }
+}
@@ -0,0 +1,110 @@
+package com.backyardbrains.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, lock-free histogram of durations. Durations are recorded with microsecond resolution into log-linear
+ * buckets (8 buckets per power of two), so percentiles are accurate to within 12.5% from 1 microsecond up to several
+ * minutes, while histogram always occupies the same amount of memory.
+ *
+ * <p>Recording doesn't allocate nor block, so it can be done on time critical threads while other threads read the
+ * percentiles.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class LatencyHistogram {
+
+    // values below this number of microseconds get a bucket of their own
+    private static final int LINEAR_BUCKETS = 16;
+    // number of buckets per each power of two above linear buckets
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^4 us to 2^32 us (more than an hour)
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (32 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records specified duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+
+        counts.incrementAndGet(bucketIndex(nanos / 1000));
+        totalCount.incrementAndGet();
+
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    /**
+     * Returns number of recorded durations.
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the longest recorded duration in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns duration in nanoseconds below which specified {@code percentile} (0 - 100) of recorded durations fall,
+     * or {@code 0} if nothing has been recorded yet.
+     */
+    public long getPercentileNanos(double percentile) {
+        // counts are read one by one so total is recalculated to stay consistent with them
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100d * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(bucketUpperBound(i) * 1000, getMaxNanos());
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Clears all recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        maxNanos.set(0);
+    }
+
+    // Returns index of the bucket that holds specified number of microseconds
+    private static int bucketIndex(long micros) {
+        if (micros < LINEAR_BUCKETS) return (int) micros;
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket, BUCKET_COUNT - 1);
+    }
+
+    // Returns the largest number of microseconds that falls into bucket with specified index
+    private static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) return index;
+
+        final int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        final int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (1L << exponent) + ((subBucket + 1L) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
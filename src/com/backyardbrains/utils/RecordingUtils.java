@@ -1,7 +1,14 @@
 package com.backyardbrains.utils;
 
 import android.os.Environment;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.backyardbrains.analysis.SpikesFile;
+import com.backyardbrains.audio.BYBAudioFile;
+import com.backyardbrains.audio.LosslessAudioFile;
+import com.backyardbrains.audio.WavAudioFile;
 import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 
 /**
@@ -32,8 +39,62 @@ public class RecordingUtils {
      * Creates and returns new {@link File} for recording.
      */
     public static File createRecordingFile() {
+        return createRecordingFile(false);
+    }
+
+    /**
+     * Creates and returns new {@link File} for recording that's either compressed with lossless codec or saved as WAV.
+     */
+    public static File createRecordingFile(boolean compressed) {
         return new File(BYB_DIRECTORY,
             BYB_RECORDING_NAME_PREFIX + DateUtils.format_d_MMM_yyyy_HH_mm_s_a(new Date(System.currentTimeMillis()))
-                + BYB_RECORDING_EXT);
+                + (compressed ? LosslessAudioFile.EXTENSION : BYB_RECORDING_EXT));
+    }
+
+    /**
+     * Returns extension of the specified recording {@code file}, including the dot.
+     */
+    @NonNull public static String getExtension(@NonNull File file) {
+        return isCompressed(file) ? LosslessAudioFile.EXTENSION : BYB_RECORDING_EXT;
+    }
+
+    /**
+     * Whether specified recording {@code file} is compressed with lossless codec.
+     */
+    public static boolean isCompressed(@NonNull File file) {
+        return file.getName().endsWith(LosslessAudioFile.EXTENSION);
+    }
+
+    /**
+     * Whether specified {@code file} is a recording, either compressed or saved as WAV.
+     */
+    public static boolean isRecording(@NonNull File file) {
+        return file.getName().endsWith(BYB_RECORDING_EXT) || isCompressed(file);
+    }
+
+    /**
+     * Returns file that holds spikes found in the specified {@code recording}.
+     */
+    @NonNull public static File getSpikesFile(@NonNull File recording) {
+        return SpikesFile.getFile(recording);
+    }
+
+    /**
+     * Returns recording whose spikes are held by specified {@code spikesFile}, or {@code null} if specified file
+     * doesn't hold spikes.
+     */
+    @Nullable public static File getRecordingFile(@NonNull File spikesFile) {
+        final String path = spikesFile.getPath();
+        return path.endsWith(SpikesFile.EXTENSION) ? new File(
+            path.substring(0, path.length() - SpikesFile.EXTENSION.length())) : null;
+    }
+
+    /**
+     * Opens specified recording {@code file} for reading, whether it's compressed or not.
+     *
+     * @throws IOException if file can't be read
+     */
+    @NonNull public static BYBAudioFile openRecording(@NonNull File file) throws IOException {
+        return isCompressed(file) ? new LosslessAudioFile(file) : new WavAudioFile(file);
     }
 }
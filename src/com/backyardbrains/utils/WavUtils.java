@@ -1,6 +1,5 @@
 package com.backyardbrains.utils;
 
-import android.media.AudioFormat;
 import android.support.annotation.NonNull;
 import java.io.IOException;
 import java.io.InputStream;
@@ -19,35 +18,19 @@ public class WavUtils {
     public static final int HEADER_SIZE = 44;
 
     /**
-     * Converts specified {@code sampleCount} to wav time progress and returns it formatted as {@code mm:ss}.
+     * Converts specified {@code sampleCount} of audio sampled at {@code sampleRate} to wav time progress and returns it
+     * formatted as {@code mm:ss}.
      */
-    public static CharSequence formatWavProgress(int sampleCount) {
-        long byteCount = AudioUtils.getByteCount(sampleCount);
-        byteCount -= HEADER_SIZE;
-
-        return Formats.formatTime_mm_ss(TimeUnit.SECONDS.toMillis(getSeconds(byteCount)));
+    public static CharSequence formatWavProgress(int sampleCount, int sampleRate) {
+        return Formats.formatTime_mm_ss(TimeUnit.SECONDS.toMillis(sampleCount / sampleRate));
     }
 
     /**
-     * Returns length of the wav file of specified {@code byteCount} length formatted as "XX s" or "XX m XX s".
+     * Writes and returns header of the PCM WAV file of specified {@code totalAudioLength} (header included).
      */
-    public static CharSequence formatWavLength(long byteCount) {
-        byteCount -= HEADER_SIZE;
-
-        return Formats.formatTime_m_s(getSeconds(byteCount));
-    }
-
-    public static byte[] writeHeader(long totalAudioLength, int sampleRateInHz, int channelConfig, int audioFormat) {
-        final int channels = (channelConfig == AudioFormat.CHANNEL_IN_MONO ? 1 : 2);
-        final byte bitsPerSample;
-        if (audioFormat == AudioFormat.ENCODING_PCM_8BIT) {
-            bitsPerSample = 8;
-        } else {
-            bitsPerSample = 16;
-        }
-
+    public static byte[] writeHeader(long totalAudioLength, int sampleRateInHz, int channels, int bitsPerSample) {
         return writeHeader(totalAudioLength - HEADER_SIZE, totalAudioLength - HEADER_SIZE + 36, sampleRateInHz,
-            channels, bitsPerSample * sampleRateInHz * channels / 8, bitsPerSample);
+            channels, bitsPerSample * sampleRateInHz * channels / 8, (byte) bitsPerSample);
     }
 
     /**
@@ -72,12 +55,12 @@ public class WavUtils {
         check(format == 1, "Unsupported audio format: " + format); // 1 means
         // number of channels
         int channels = buffer.getShort();
-        // Mono = 1, Stereo = 2, etc. (for now we support only MONO)
-        check(channels == 1, "Unsupported number of channels: " + channels);
+        // Mono = 1, Stereo = 2, etc.
+        check(channels > 0, "Unsupported number of channels: " + channels);
         // sample rate
         int rate = buffer.getInt();
-        // 8000, 44100, etc. (for not we support only 44100)
-        check(rate == 44100, "Unsupported sample rate: " + rate);
+        // 8000, 44100, etc.
+        check(rate > 0, "Unsupported sample rate: " + rate);
 
         // fast-forward to bits per sample
         buffer.position(buffer.position() + 6);
@@ -102,11 +85,6 @@ public class WavUtils {
         return new WavInfo(channels, rate, bits, dataSize);
     }
 
-    // Converts specified byteCount to seconds
-    private static long getSeconds(long byteCount) {
-        return byteCount / (AudioUtils.SAMPLE_RATE * 2);
-    }
-
     // Writes and returns WAV header following specified parameters
     private static byte[] writeHeader(long totalAudioLen, long totalDataLen, long sampleRate, int channels,
         long byteRate, byte bitsPerSample) {
@@ -13,11 +13,18 @@ import butterknife.BindView;
 import butterknife.ButterKnife;
 import com.backyardbrains.BackyardBrainsMain;
 import com.backyardbrains.R;
+import com.backyardbrains.audio.AudioPipelineMetrics;
 import com.backyardbrains.drawing.BYBBaseRenderer;
+import com.backyardbrains.drawing.FrameStats;
 import com.backyardbrains.drawing.InteractiveGLSurfaceView;
 import com.backyardbrains.utils.Formats;
+import com.backyardbrains.utils.RecordingUtils;
+import com.backyardbrains.utils.ViewUtils;
+import java.io.File;
+import java.io.IOException;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 /**
@@ -27,9 +34,12 @@ public class WaveformLayout extends ConstraintLayout {
 
     private static final String TAG = makeLogTag(WaveformLayout.class);
 
+    private static final long FRAME_STATS_REFRESH_INTERVAL_MS = 500;
+
     @BindView(R.id.fl_container) FrameLayout flGL;
     @BindView(R.id.tv_signal) TextView tvSignal;
     @BindView(R.id.tv_time) TextView tvTime;
+    @BindView(R.id.tv_debug) TextView tvDebug;
     @BindView(R.id.v_time_scale) View vTimeScale;
     @BindView(R.id.ibtn_zoom_in_h) ImageButton ibtnZoomInHorizontally;
     @BindView(R.id.ibtn_zoom_out_h) ImageButton ibtnZoomOutHorizontally;
@@ -43,6 +53,16 @@ public class WaveformLayout extends ConstraintLayout {
     private float millivolts;
     private float milliseconds;
 
+    // refreshes frame and audio stats overlay while it's visible
+    private final Runnable frameStatsRefresher = new Runnable() {
+        @Override public void run() {
+            final String audioSummary = AudioPipelineMetrics.get().summary();
+            tvDebug.setText(
+                renderer != null ? renderer.getFrameStats().summary() + "\n\n" + audioSummary : audioSummary);
+            postDelayed(this, FRAME_STATS_REFRESH_INTERVAL_MS);
+        }
+    };
+
     public WaveformLayout(Context context) {
         this(context, null);
     }
@@ -77,6 +97,8 @@ public class WaveformLayout extends ConstraintLayout {
     public void setRenderer(@NonNull BYBBaseRenderer renderer) {
         LOGD(TAG, "setRenderer()");
 
+        this.renderer = renderer;
+
         if (flGL != null) {
             flGL.removeAllViews();
             // create new GL surface
@@ -112,6 +134,21 @@ public class WaveformLayout extends ConstraintLayout {
         tvSignal.setText(Formats.formatSignal(millivolts));
     }
 
+    /**
+     * Shows or hides overlay with frame timing statistics of the current renderer and audio pipeline metrics.
+     */
+    public void showFrameStats(boolean show) {
+        removeCallbacks(frameStatsRefresher);
+        tvDebug.setVisibility(show ? VISIBLE : GONE);
+        if (show) frameStatsRefresher.run();
+    }
+
+    @Override protected void onDetachedFromWindow() {
+        removeCallbacks(frameStatsRefresher);
+
+        super.onDetachedFromWindow();
+    }
+
     // Convenience method that casts context to BaseActivity
     BackyardBrainsMain activity() {
         return (BackyardBrainsMain) getContext();
@@ -129,6 +166,33 @@ public class WaveformLayout extends ConstraintLayout {
     private void setupUI() {
         setupZoomButtons();
         showZoomUI(!activity().isTouchSupported());
+
+        // long pressing time scale toggles stats overlay, and long pressing the overlay saves stats to a file
+        tvTime.setOnLongClickListener(new OnLongClickListener() {
+            @Override public boolean onLongClick(View v) {
+                showFrameStats(tvDebug.getVisibility() != VISIBLE);
+                return true;
+            }
+        });
+        tvDebug.setOnLongClickListener(new OnLongClickListener() {
+            @Override public boolean onLongClick(View v) {
+                dumpFrameStats();
+                return true;
+            }
+        });
+    }
+
+    // Saves frame timing statistics of all renderers and audio pipeline metrics to a file in BYB directory
+    private void dumpFrameStats() {
+        final File file = new File(RecordingUtils.BYB_DIRECTORY, "frame_stats_" + System.currentTimeMillis() + ".txt");
+        try {
+            FrameStats.dump(file);
+            AudioPipelineMetrics.get().dump(file, true);
+            ViewUtils.toast(getContext(), getContext().getString(R.string.frame_stats_dumped, file.getAbsolutePath()));
+        } catch (IOException e) {
+            LOGE(TAG, "Frame stats could not be saved", e);
+            ViewUtils.toast(getContext(), getContext().getString(R.string.error_message_frame_stats_dump));
+        }
     }
 
     private void setupZoomButtons() {
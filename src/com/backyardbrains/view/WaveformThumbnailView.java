@@ -0,0 +1,90 @@
+package com.backyardbrains.view;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.View;
+import com.backyardbrains.R;
+
+/**
+ * Draws waveform thumbnail of a recording as a vertical line between the minimum and the maximum of every column. Peaks
+ * are scaled to the view height, so quiet recordings are as readable as the loud ones.
+ *
+ * @author Tihomir Leka <ticapeca at gmail.com>
+ */
+public class WaveformThumbnailView extends View {
+
+    private final Paint paint = new Paint();
+
+    private short[] thumbnail;
+    // line coordinates, reused between draws
+    private float[] lines;
+
+    public WaveformThumbnailView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformThumbnailView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public WaveformThumbnailView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public WaveformThumbnailView(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        init();
+    }
+
+    private void init() {
+        paint.setColor(ContextCompat.getColor(getContext(), R.color.green));
+    }
+
+    /**
+     * Sets thumbnail that should be drawn, {@code [min0, max0, min1, max1, ...]}. Nothing is drawn if {@code null}.
+     */
+    public void setThumbnail(@Nullable short[] thumbnail) {
+        if (this.thumbnail == thumbnail) return;
+
+        this.thumbnail = thumbnail;
+        invalidate();
+    }
+
+    @Override protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (thumbnail == null) return;
+
+        final int columnCount = thumbnail.length / 2;
+        if (lines == null || lines.length != columnCount * 4) lines = new float[columnCount * 4];
+
+        int peak = 1;
+        for (short value : thumbnail) {
+            peak = Math.max(peak, Math.abs(value));
+        }
+
+        final float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        final float halfHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) * .5f;
+        final float center = getPaddingTop() + halfHeight;
+        final float scale = halfHeight / peak;
+        // leave a small gap between the columns
+        paint.setStrokeWidth(Math.max(1f, width / columnCount * .75f));
+        for (int i = 0; i < columnCount; i++) {
+            final float x = getPaddingLeft() + (i + .5f) * width / columnCount;
+            lines[4 * i] = x;
+            lines[4 * i + 1] = center - thumbnail[2 * i + 1] * scale;
+            lines[4 * i + 2] = x;
+            // make sure flat parts are still visible
+            lines[4 * i + 3] = Math.max(center - thumbnail[2 * i] * scale, lines[4 * i + 1] + 1);
+        }
+        canvas.drawLines(lines, paint);
+    }
+}